@@ -1,5 +1,7 @@
 package das;
 
+import io.FanOut;
+import io.Transport;
 import io.Writable;
 import io.collector.CollectorPool;
 import io.email.Email;
@@ -17,7 +19,6 @@
 import io.telnet.TelnetCodes;
 import io.telnet.TelnetServer;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import org.apache.commons.lang3.SystemUtils;
 import org.tinylog.Logger;
 import org.tinylog.provider.ProviderRegistry;
@@ -68,7 +69,7 @@ public class DAS implements Commandable{
     private boolean bootOK = false; // Flag to show if booting went ok
     String sdReason = "Unwanted shutdown."; // Reason for shutdown of das, default is unwanted
 
-    private final BlockingQueue<Datagram> dQueue = new LinkedBlockingQueue<>(); // Queue for datagrams for the labelworker
+    private final DatagramQueue dQueue = new DatagramQueue(); // Queue for datagrams for the labelworker
     boolean rebootOnShutDown = false; // Flag to set to know if the device should be rebooted on dcafs shutdown (linux only)
     private InterruptPins isrs; // Manager for working with IO pins
     private MatrixClient matrixClient; // Client for working with matrix connections
@@ -79,11 +80,15 @@ public class DAS implements Commandable{
     /* Status Checks */
     private int statusBadChecks = 0;
     private long statusCheckInterval =3600;
+    private int workerLanes = Runtime.getRuntime().availableProcessors(); // Amount of lanes used by the labelworker
+    private int workerDepth = 1000; // Max datagrams waiting in a single lane of the labelworker
     private String statusEmail="";
     private String statusMatrixRoom="";
 
     /* Threading */
-    private final EventLoopGroup nettyGroup = new NioEventLoopGroup(); // Single group so telnet,trans and StreamManager can share it
+    private EventLoopGroup nettyGroup;  // Group shared by telnet, trans and the rest
+    private EventLoopGroup streamGroup; // Group used by the StreamManager, the same as nettyGroup unless given own threads
+    private int streamThreads = 0;      // Threads for a separate stream group, 0 means sharing nettyGroup
 
     public DAS() {
 
@@ -95,6 +100,7 @@ public DAS() {
         var digger = XMLdigger.goIn( Paths.settings(),"dcafs"); // Use digger to go through settings.xml
 
         digForSettings( digger );   // Dig for the settings node
+        createEventLoops();         // Needs to be done after the settings are read, because those determine the transport
 
         /* CommandPool */
         commandPool = new CommandPool( );
@@ -191,9 +197,34 @@ private void digForSettings( XMLdigger digger ){
                 statusMatrixRoom = digger.peekAt("matrix").value(statusMatrixRoom);
                 digger.goUp(); // Back from statuscheck to settings
             }
+            digger.peekAndUse("queue").ifPresent(dQueue::readFromXML); // Capacity and overload policies of the dQueue
+            if( digger.hasPeek("fanout") ) // Mailboxes used to give data to the targets of streams and forwards
+                FanOut.configure( digger.attr("depth",500), digger.attr("overflow","drop-oldest"), digger.attr("internal","block"),
+                                  digger.attr("threads",0) );
+            if( digger.hasPeek("eventloop") ){ // Transport used by netty and whether streams get their own threads
+                Transport.configure( digger.attr("transport","nio") );
+                streamThreads = Math.max(0, digger.attr("streamthreads",0) );
+            }
+            if( digger.hasPeek("labelworker") ){
+                workerLanes = digger.attr("lanes",workerLanes);
+                workerDepth = digger.attr("depth",workerDepth);
+            }
             digger.goUp(); // Back from settings to root
         }
     }
+    /**
+     * Create the eventloop groups, if streamthreads was set the streams get a separate group so a busy stream doesn't
+     * affect the telnet sessions and vice versa.
+     */
+    private void createEventLoops(){
+        nettyGroup = Transport.newGroup(0,"dcafs");
+        if( streamThreads > 0 ){
+            streamGroup = Transport.newGroup(streamThreads,"streams");
+            Logger.info("Streams use their own eventloop with "+streamThreads+" threads");
+        }else{
+            streamGroup = nettyGroup;
+        }
+    }
     private void addRtvals(){
         rtvals = new RealtimeValues( dQueue );
         addCommandable(rtvals,"flags;fv;reals;real;rv;texts;tv;int;integer;text;flag");
@@ -336,7 +367,7 @@ private void addTaskManager() {
      */
     private void addStreamManager() {
 
-       streamManager = new StreamManager(dQueue, nettyGroup,rtvals);
+       streamManager = new StreamManager(dQueue, streamGroup,rtvals);
        addCommandable(streamManager,"ss","streams"); // general commands
        addCommandable(streamManager,"s_","h_");      // sending data to a stream
        addCommandable(streamManager,"raw","stream"); // getting data from a stream
@@ -355,7 +386,7 @@ public Optional<Writable> getStreamWritable( String id ){
      */
     private void addLabelWorker() {
         if (this.labelWorker == null)
-            labelWorker = new LabelWorker(dQueue);
+            labelWorker = new LabelWorker(dQueue,workerLanes,workerDepth);
         labelWorker.setCommandReq(commandPool);
     }
     public BlockingQueue<Datagram> getDataQueue(){
@@ -398,6 +429,8 @@ private void addEmailWorker() {
      * Create the telnet server
      */
     private void addTelnetServer() {
+        if( nettyGroup == null ) // Settings weren't valid, so nothing created yet
+            nettyGroup = Transport.newGroup(0,"dcafs");
         if( bootOK) {
             telnet = new TelnetServer(dQueue, nettyGroup);
             addCommandable(telnet, "telnet", "nb");
@@ -690,7 +723,8 @@ private void addDBMstatus(StringBuilder report, boolean html){
      */
     public String getQueueSizes() {
         StringJoiner join = new StringJoiner("\r\n", "", "\r\n");
-        join.add("Data buffer: " + dQueue.size() + " in receive buffer and "+ labelWorker.getWaitingQueueSize()+" waiting...");
+        join.add("Data buffer: " + dQueue.size() + " in receive buffer and "+ labelWorker.getWaitingPerLane()+" waiting...");
+        join.add(dQueue.getStatus("\r\n"));
 
         if (emailWorker != null)
             join.add("Email backlog: " + emailWorker.getRetryQueueSize() );
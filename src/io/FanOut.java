@@ -0,0 +1,353 @@
+package io;
+
+import io.collector.AbstractCollector;
+import io.forward.AbstractForward;
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.FastThreadLocalThread;
+import org.tinylog.Logger;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * Delivers data to writables without the sender having to wait for them.
+ * Each target gets its own bounded mailbox that is emptied by a drain task, so a slow target (fe. telnet session) only
+ * delays itself and not the stream or the other targets. The order of the data is kept per target.
+ * Internal targets (forwards and collectors) block by default instead of dropping, so data isn't lost silently.
+ * Blocking never happens on an event loop thread, those drop the oldest instead (counted). Streams on the event loop
+ * check {@link #congested(List)} and stop reading while a blocking mailbox is (almost) full so that rarely happens.
+ */
+public class FanOut {
+
+    public enum OVERFLOW{DROP_OLDEST,DROP_NEWEST,BLOCK}
+
+    private static int depth = 500;                              // Max amount of lines waiting for a single target
+    private static OVERFLOW overflow = OVERFLOW.DROP_OLDEST;     // What to do if the mailbox is full
+    private static OVERFLOW internal = OVERFLOW.BLOCK;           // Same but for forwards and collectors
+    private static final long DRAINER_WAIT = 1000;                // Max ms a drainer waits on a full mailbox
+
+    private static final ConcurrentHashMap<Writable,Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ThreadPoolExecutor drainers = new ThreadPoolExecutor(
+            defaultThreads(), defaultThreads(), 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                var t = new Drainer(r,"fanout-"+threadCount.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            });
+    static{
+        drainers.allowCoreThreadTimeOut(true); // No idle threads kept when nothing is flowing
+    }
+
+    private FanOut(){
+        throw new IllegalStateException("Utility class");
+    }
+    /**
+     * Set the depth and overflow behaviour used for new mailboxes
+     * @param newDepth The max amount of lines waiting for a target
+     * @param newOverflow The overflow behaviour, drop-oldest, drop-newest or block
+     * @param newInternal The overflow behaviour for forwards and collectors
+     * @param threads The max amount of threads emptying the mailboxes, 0 or less for the default (twice the cores)
+     */
+    public static void configure( int newDepth, String newOverflow, String newInternal, int threads ){
+        depth = Math.max(1,newDepth);
+        overflow = parseOverflow(newOverflow,OVERFLOW.DROP_OLDEST);
+        internal = parseOverflow(newInternal,OVERFLOW.BLOCK);
+        threads = threads > 0 ? threads : defaultThreads();
+        if( threads > drainers.getMaximumPoolSize() ){ // Order matters, core can't exceed max
+            drainers.setMaximumPoolSize(threads);
+            drainers.setCorePoolSize(threads);
+        }else{
+            drainers.setCorePoolSize(threads);
+            drainers.setMaximumPoolSize(threads);
+        }
+        Logger.info("FanOut -> Mailbox depth set to "+depth+" with overflow "+overflow.toString().toLowerCase()
+                    +" and "+internal.toString().toLowerCase()+" for internal targets, using up to "+threads+" threads");
+    }
+    private static int defaultThreads(){
+        return Math.max(4,Runtime.getRuntime().availableProcessors()*2);
+    }
+    private static OVERFLOW parseOverflow( String value, OVERFLOW def ){
+        try {
+            return OVERFLOW.valueOf(value.toUpperCase().replace("-", "_"));
+        }catch( IllegalArgumentException e ){
+            Logger.error("FanOut -> Unknown overflow '"+value+"', using "+def.toString().toLowerCase());
+            return def;
+        }
+    }
+    /**
+     * Remove the mailbox of a target that no longer gets data, anything still waiting is dropped
+     * @param target The target that was removed
+     */
+    public static void remove( Writable target ){
+        if( target == null )
+            return;
+        var mb = mailboxes.remove(target);
+        if( mb != null )
+            mb.discardAll();
+    }
+
+    /**
+     * Check if any of the blocking mailboxes of the targets is (almost) full, a source that can pause should do so
+     * @param targets The targets to check
+     * @return True if the source should stop giving data for now
+     */
+    public static boolean congested( List<Writable> targets ){
+        return anyAbove(targets,false);
+    }
+    private static boolean anyAbove( List<Writable> targets, boolean half ){
+        for( var wr : targets ){
+            var mb = mailboxes.get(wr);
+            if( mb != null && mb.isAbove(half) )
+                return true;
+        }
+        return false;
+    }
+    /**
+     * Stop reading from the channel while the targets are congested, reading resumes once they caught up.
+     * This is the backpressure for streams handled by the event loop, because those threads can't wait.
+     * @param channel The channel to pause
+     * @param targets The targets the data of the channel goes to
+     */
+    public static void throttle( Channel channel, List<Writable> targets ){
+        if( channel == null || !channel.config().isAutoRead() || !congested(targets) )
+            return;
+        channel.config().setAutoRead(false);
+        resumeWhenClear(channel,targets);
+    }
+    private static void resumeWhenClear( Channel channel, List<Writable> targets ){
+        channel.eventLoop().schedule( () -> {
+            if( !channel.isActive() )
+                return;
+            if( anyAbove(targets,true) ){ // Wait till half empty, so it doesn't toggle on every line
+                resumeWhenClear(channel,targets);
+            }else{
+                channel.config().setAutoRead(true);
+            }
+        },10,TimeUnit.MILLISECONDS);
+    }
+    /**
+     * Give the data to all the targets, this returns without waiting for the targets to process it
+     * @param targets The targets to give the data to
+     * @param origin The id of the origin of the data, if null writeLine without origin is used
+     * @param data The data to give
+     */
+    public static void write( List<Writable> targets, String origin, String data ){
+        write(targets,origin,data,System.nanoTime(),null);
+    }
+
+    /**
+     * Give the data to all the targets and report the time between start and the moment the last target got it
+     * @param targets The targets to give the data to
+     * @param origin The id of the origin of the data, if null writeLine without origin is used
+     * @param data The data to give
+     * @param start The System.nanoTime() from which the latency is calculated (fe. when the data was received)
+     * @param latency Gets the latency in ns once per message, after all the targets got it (or dropped it), can be null
+     */
+    public static void write( List<Writable> targets, String origin, String data, long start, LongConsumer latency ){
+        var tracker = latency == null || targets.isEmpty() ? null : new Tracker(targets.size(),latency);
+        for( var wr : targets )
+            mailboxes.computeIfAbsent( wr, Mailbox::new ).post(new Letter(origin,data,null,start,tracker));
+    }
+    /**
+     * Give binary data to all the targets using writeBytes, this shares the mailboxes with the text so the order is kept
+     * @param targets The targets to give the data to
+     * @param data The bytes to give
+     * @param start The System.nanoTime() from which the latency is calculated (fe. when the data was received)
+     * @param latency Gets the latency in ns once per message, after all the targets got it (or dropped it), can be null
+     */
+    public static void writeBytes( List<Writable> targets, byte[] data, long start, LongConsumer latency ){
+        var tracker = latency == null || targets.isEmpty() ? null : new Tracker(targets.size(),latency);
+        for( var wr : targets )
+            mailboxes.computeIfAbsent( wr, Mailbox::new ).post(new Letter(null,null,data,start,tracker));
+    }
+
+    /**
+     * Give the data to all the targets using writeLine without origin
+     * @param targets The targets to give the data to
+     * @param data The data to give
+     */
+    public static void write( List<Writable> targets, String data ){
+        write(targets,null,data);
+    }
+
+    /**
+     * Get a readable overview of the mailboxes
+     * @param eol The eol to use
+     * @return Per target the waiting, written and dropped lines and the lag
+     */
+    public static String getStatus( String eol ){
+        var join = new StringJoiner(eol);
+        join.setEmptyValue("No mailboxes (yet).");
+        mailboxes.values().stream().sorted( Comparator.comparing( mb -> String.valueOf(mb.target.id()) ) )
+                .forEach( mb -> join.add(mb.toString()));
+        return join.toString();
+    }
+
+    private record Letter( String origin, String data, byte[] raw, long stamp, Tracker tracker){
+        void done(){
+            if( tracker != null )
+                tracker.done(stamp);
+        }
+    }
+
+    /**
+     * Counts down the targets that still need to handle a message, the last one records the latency
+     */
+    private static class Tracker{
+        private final AtomicInteger left;
+        private final LongConsumer latency;
+
+        Tracker( int targets, LongConsumer latency ){
+            this.left = new AtomicInteger(targets);
+            this.latency=latency;
+        }
+        void done( long stamp ){
+            if( left.decrementAndGet() == 0 )
+                latency.accept( System.nanoTime()-stamp );
+        }
+    }
+
+    /**
+     * Threads that empty the mailboxes, these only wait a limited time on a full mailbox because the pool is bounded
+     */
+    private static class Drainer extends Thread{
+        Drainer( Runnable r, String name ){
+            super(r,name);
+        }
+    }
+
+    private static class Mailbox{
+        private final Writable target;
+        private final ArrayBlockingQueue<Letter> letters;
+        private final AtomicBoolean draining = new AtomicBoolean(false);
+        private final OVERFLOW over;
+        private final int limit;   // From this amount waiting on the source should pause
+
+        private final LongAdder written = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private volatile boolean warned = false;   // Whether the first drop was logged
+        private volatile long lastLag = 0;   // Lag in µs of the last line written
+        private volatile long maxLag = 0;    // Highest lag in µs so far
+        private volatile long avgLag = 0;    // Moving average of the lag in µs
+
+        Mailbox( Writable target ){
+            this.target=target;
+            this.letters = new ArrayBlockingQueue<>(depth);
+            this.limit = depth-depth/4;
+            boolean inside = target instanceof AbstractForward || target instanceof AbstractCollector;
+            this.over = inside ? internal : overflow;
+        }
+        void post( Letter letter ){
+            switch( over ){
+                case DROP_OLDEST -> dropOldest(letter);
+                case DROP_NEWEST -> {
+                    if( !letters.offer(letter) )
+                        drop(letter);
+                }
+                case BLOCK -> {
+                    var thread = Thread.currentThread();
+                    try {
+                        if( thread instanceof FastThreadLocalThread ){ // Event loop, never wait
+                            dropOldest(letter);
+                        }else if( thread instanceof Drainer ){ // Don't let the whole pool wait on a queued drain
+                            if( !letters.offer(letter,DRAINER_WAIT,TimeUnit.MILLISECONDS) )
+                                dropOldest(letter);
+                        }else{
+                            letters.put(letter);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dropped.increment();
+                        letter.done();
+                    }
+                }
+            }
+            if( draining.compareAndSet(false,true) )
+                drainers.execute(this::drain);
+        }
+        private void dropOldest( Letter letter ){
+            while( !letters.offer(letter) ){
+                var old = letters.poll();
+                if( old != null )
+                    drop(old);
+            }
+        }
+        /**
+         * Check if this blocks when full and the amount waiting is above the limit
+         * @param half True to use half of the depth as limit instead of 3/4
+         * @return True if above the limit
+         */
+        boolean isAbove( boolean half ){
+            return over == OVERFLOW.BLOCK && letters.size() >= (half?limit*2/3:limit);
+        }
+        private void drop( Letter letter ){
+            letter.done();
+            dropped.increment();
+            if( !warned ){
+                warned = true;
+                Logger.warn("FanOut -> Mailbox of "+target.id()+" is full, dropping data ("+over.toString().toLowerCase()+")");
+            }
+        }
+        /**
+         * Drop everything that is still waiting
+         */
+        void discardAll(){
+            Letter letter;
+            while( (letter=letters.poll()) != null ){
+                dropped.increment();
+                letter.done();
+            }
+        }
+        private void drain(){
+            while( true ){
+                var letter = letters.poll();
+                if( letter == null ){
+                    draining.set(false);
+                    // Check if something was posted after the poll but before the flag was cleared
+                    if( letters.isEmpty() || !draining.compareAndSet(false,true) )
+                        return;
+                    continue;
+                }
+                try {
+                    if( letter.raw() != null ){
+                        target.writeBytes(letter.raw());
+                    }else if (letter.origin() == null) {
+                        target.writeLine(letter.data());
+                    } else {
+                        target.writeLine(letter.origin(), letter.data());
+                    }
+                }catch( Exception e ){
+                    Logger.error("FanOut -> Failed writing to "+target.id()+": "+e.getMessage());
+                }
+                written.increment();
+                letter.done();
+                long lag = (System.nanoTime()-letter.stamp())/1000;
+                lastLag = lag;
+                maxLag = Math.max(maxLag,lag);
+                avgLag = avgLag==0?lag:(avgLag*7+lag)/8;
+
+                if( !target.isConnectionValid() ){ // No use keeping the rest
+                    discardAll();
+                    mailboxes.remove(target,this);
+                    draining.set(false);
+                    return;
+                }
+            }
+        }
+        public String toString(){
+            int waiting = letters.size();
+            return target.id()+" -> waiting "+waiting+"/"+(waiting+letters.remainingCapacity())
+                    +", written "+written.sum()+", dropped "+dropped.sum()
+                    +", lag (ms) last "+lagToString(lastLag)+" avg "+lagToString(avgLag)+" max "+lagToString(maxLag);
+        }
+        private static String lagToString( long micros ){
+            return String.valueOf(micros/1000.0);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package io;
+
+import io.netty.bootstrap.AbstractBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.tinylog.Logger;
+
+/**
+ * Decides which netty transport is used for the eventloops and channels.
+ * NIO works everywhere, the native epoll transport is only available on linux but has less overhead and supports
+ * SO_REUSEPORT so multiple channels can listen on the same port (fe. to spread a busy udp feed over multiple threads).
+ * Because epoll channels only work with an epoll eventloop, everything should get the groups and channel classes from
+ * here.
+ */
+public class Transport {
+
+    public enum TYPE{NIO,EPOLL}
+
+    private static TYPE type = TYPE.NIO; // Opt-in, so nio unless asked otherwise
+
+    private Transport(){
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Set the transport to use, this needs to be done before any eventloop is made
+     * @param transport nio, epoll or auto (epoll if available, otherwise nio)
+     */
+    public static void configure( String transport ){
+        switch( transport.toLowerCase() ){
+            case "nio","" -> type = TYPE.NIO;
+            case "epoll","auto" -> {
+                if( Epoll.isAvailable() ){
+                    type = TYPE.EPOLL;
+                }else{
+                    if( transport.equalsIgnoreCase("epoll") ) // No need to complain if auto was asked
+                        Logger.warn("Transport -> Epoll not available ("+Epoll.unavailabilityCause().getMessage()+"), using nio");
+                    type = TYPE.NIO;
+                }
+            }
+            default -> {
+                Logger.error("Transport -> Unknown transport '"+transport+"', using nio");
+                type = TYPE.NIO;
+            }
+        }
+        Logger.info("Transport -> Using "+type.toString().toLowerCase());
+    }
+    public static boolean isEpoll(){
+        return type==TYPE.EPOLL;
+    }
+    public static String getType(){
+        return type.toString().toLowerCase();
+    }
+
+    /**
+     * Create an eventloopgroup for the active transport
+     * @param threads The amount of threads, 0 means the netty default (twice the amount of cores)
+     * @param name Prefix for the names of the threads
+     * @return The created group
+     */
+    public static EventLoopGroup newGroup( int threads, String name ){
+        var factory = new DefaultThreadFactory(name);
+        if( type == TYPE.EPOLL )
+            return new EpollEventLoopGroup(threads,factory);
+        return new NioEventLoopGroup(threads,factory);
+    }
+    public static Class<? extends SocketChannel> socketChannel(){
+        return type == TYPE.EPOLL ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+    public static Class<? extends ServerSocketChannel> serverSocketChannel(){
+        return type == TYPE.EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+    public static Class<? extends DatagramChannel> datagramChannel(){
+        return type == TYPE.EPOLL ? EpollDatagramChannel.class : NioDatagramChannel.class;
+    }
+
+    /**
+     * Enable SO_REUSEPORT on the bootstrap so multiple channels can be bound to the same port, the kernel then spreads
+     * the incoming packets over those. Only possible with epoll.
+     * @param bootstrap The bootstrap to alter
+     * @return True if enabled, false if not supported by the transport
+     */
+    public static boolean reusePort( AbstractBootstrap<?,?> bootstrap ){
+        if( type != TYPE.EPOLL )
+            return false;
+        bootstrap.option(EpollChannelOption.SO_REUSEPORT,true);
+        return true;
+    }
+}
@@ -965,14 +965,14 @@ private void processCommand( String cmd, String from, String body){
 				if( line.isEmpty()){
 					break;
 				}
-				dQueue.add( Datagram.build(line).label(cmd.split(":")[1]).origin(from) );
+				dQueue.offer( Datagram.build(line).label(cmd.split(":")[1]).origin(from) );
 			}
 		}else{
 			// Retrieve asks files to be emailed, if this command is without email append from address
 			if( cmd.startsWith("retrieve:") && !cmd.contains(",")){
 				cmd += ","+from;
 			}
-			var d = Datagram.build(cmd).label("email").origin(from);
+			var d = Datagram.build(cmd).label("email").origin(from).control();
 			if( cmd.contains(":")) { // only relevant for commands that contain :
 				DataRequest req = new DataRequest(from, cmd);
 				d.writable(req.getWritable());
@@ -1,8 +1,10 @@
 package io.forward;
 
+import io.FanOut;
 import io.Writable;
 import org.tinylog.Logger;
 import org.w3c.dom.Element;
+import util.data.ParsedRecord;
 import util.data.RealtimeValues;
 import util.data.ValStore;
 import util.database.TableInsert;
@@ -11,9 +13,11 @@
 
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.StringJoiner;
 import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
 
 /**
  * Abstract class to create a 'Forward'.
@@ -40,10 +44,12 @@ public abstract class AbstractForward implements Writable {
     public enum RESULT{ERROR,EXISTS,OK}
     protected boolean parsedOk=true;
     protected String delimiter = ","; // Delimiter to use for splitting
+    protected final StepMetrics metrics = new StepMetrics(); // Counters and timing of this step
 
     // Consecutive steps in a path
     protected final ArrayList<AbstractForward> nextSteps = new ArrayList<>();       // To where the data needs to be send
     protected AbstractForward parent;
+    protected Branch branch;    // If not null, the data for this step is processed on its own thread
 
     protected AbstractForward(String id, String source, BlockingQueue<Datagram> dQueue, RealtimeValues rtvals ){
         this.id=id;
@@ -115,9 +121,11 @@ public String src(){
         return sources.isEmpty()?"":sources.get(0);
     }
     public boolean removeTarget( Writable target ){
+        FanOut.remove(target);
         return targets.remove(target);
     }
     public void removeTargets(){
+        targets.forEach(FanOut::remove);
         targets.clear();
     }
     public boolean noTargets(){
@@ -128,6 +136,7 @@ public ArrayList<Writable> getTargets(){
     }
     public void invalidate(){
         valid=false;
+        FanOut.remove(this); // No longer a target of anything
     }
     public String toString(){
 
@@ -243,6 +252,117 @@ protected void applyDataToStore(String data) {
                 tableInserters.forEach(ti -> ti.insertStore(dbInsert));
         }
     }
+    protected void applyDataToStore(ParsedRecord rec) {
+        if (store != null) {
+            store.apply(rec);
+            for (var dbInsert : store.dbInsertSets())
+                tableInserters.forEach(ti -> ti.insertStore(dbInsert));
+        }
+    }
+    /**
+     * Give the record to the next steps. Those can alter it, so this should be the last thing done with it.
+     * If there's more than one step, each gets a copy.
+     * @param rec The record to pass on
+     */
+    protected void passToSteps( ParsedRecord rec ){
+        metrics.passed();
+        handTo(nextSteps,rec);
+    }
+    /**
+     * Give the record to the given steps, the time this takes isn't counted as time spent in this step
+     * @param steps The steps to give it to
+     * @param rec The record to give
+     */
+    protected void handTo( List<AbstractForward> steps, ParsedRecord rec ){
+        if( steps.isEmpty() )
+            return;
+        long start = metrics.handOff();
+        if( steps.size()==1 ){
+            steps.get(0).receive(rec);
+        }else if( steps.get(0).branch != null ){ // Siblings either all have a branch or none
+            for( var ns : steps ){
+                var copy = rec.copy();
+                ns.branch.submit( () -> ns.receive(copy) );
+            }
+        }else{
+            // Use multithreading so the steps don't have to wait on each other
+            steps.parallelStream().forEach( ns -> ns.receive(rec.copy()) );
+        }
+        metrics.handedOff(start);
+    }
+    /**
+     * Entry point for data from a source, if this step is a branch the data is processed on the thread of the branch
+     * @param data The data received
+     * @return The result of addData or if a branch, whether this is still valid
+     */
+    private boolean dispatch( String data ){
+        if( branch == null )
+            return receive(data);
+        branch.submit( () -> receive(data) );
+        return valid;
+    }
+    /**
+     * Run the steps that follow a step with more than one next step as branches, each on its own thread
+     * @param branches Gives a new branch
+     */
+    protected void useBranches( Supplier<Branch> branches ){
+        useBranches(nextSteps,branches);
+        nextSteps.forEach( ns -> ns.useBranches(branches) );
+    }
+    /**
+     * Give each of the steps its own branch if there's more than one
+     * @param steps The steps that receive the same data
+     * @param branches Gives a new branch
+     */
+    static void useBranches( List<AbstractForward> steps, Supplier<Branch> branches ){
+        if( steps.size() < 2 )
+            return;
+        for( var step : steps ){
+            if( step.branch == null )
+                step.branch = branches.get();
+        }
+    }
+    /**
+     * Entry point for data from a source, counts it and sometimes times the processing
+     * @param data The data received
+     * @return The result of addData
+     */
+    protected final boolean receive( String data ){
+        if( !metrics.count() )
+            return addData(data);
+        return metrics.timed( () -> addData(data) );
+    }
+    /**
+     * Entry point for a record from a previous step, counts it and sometimes times the processing
+     * @param rec The record received
+     * @return The result of addRecord
+     */
+    protected final boolean receive( ParsedRecord rec ){
+        if( !metrics.count() )
+            return addRecord(rec);
+        return metrics.timed( () -> addRecord(rec) );
+    }
+    /* ***************************** Statistics **************************************/
+    /**
+     * Add a line with the statistics of this step and those of the next steps, indented to show the tree
+     * @param join The joiner to add the lines to
+     * @param indent The indent for this step
+     */
+    protected void addStats( StringJoiner join, String indent ){
+        join.add(indent+"|-> "+id()+" : "+metrics+(branch==null?"":" ("+branch+")"));
+        nextSteps.forEach( ns -> ns.addStats(join,indent+"    "));
+    }
+    /**
+     * Update the rates of this step and the next steps
+     */
+    protected void tickStats(){
+        metrics.tick();
+        nextSteps.forEach(AbstractForward::tickStats);
+    }
+    protected void resetStats(){
+        metrics.reset();
+        nextSteps.forEach(AbstractForward::resetStats);
+    }
     /* *********************** Abstract Methods ***********************************/
     /**
      * This is called when data is received through the writable
@@ -251,6 +371,16 @@ protected void applyDataToStore(String data) {
      */
     protected abstract boolean addData( String data );
 
+    /**
+     * This is called when a previous step in the path passes on the data. The default is to use the line, steps that
+     * work with the fields override this to skip splitting again.
+     * @param rec The record received
+     * @return True if everything went fine
+     */
+    protected boolean addRecord( ParsedRecord rec ){
+        return addData(rec.line());
+    }
+
     /**
      * Read all the settings for this from the given xml element
      * @param fwElement the element containing the info
@@ -323,19 +453,19 @@ protected String firstParentId(){
     /* **********************Writable implementation ****************************/
     @Override
     public boolean writeString(String data) {
-        return addData(data);
+        return dispatch(data);
     }
     @Override
     public boolean writeLine(String data) {
-        return addData(data);
+        return dispatch(data);
     }
     @Override
     public boolean writeLine(String origin, String data) {
-        return addData(data);
+        return dispatch(data);
     }
     @Override
     public boolean writeBytes(byte[] data) {
-        return addData(new String(data));
+        return dispatch(new String(data));
     }
     @Override
     public String id() {
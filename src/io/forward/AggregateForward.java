@@ -0,0 +1,378 @@
+package io.forward;
+
+import io.FanOut;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.tinylog.Logger;
+import org.w3c.dom.Element;
+import util.data.ParsedRecord;
+import util.data.RealtimeValues;
+import util.tools.TimeTools;
+import util.tools.Tools;
+import util.xml.XMLdigger;
+import worker.Datagram;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.StringJoiner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps statistics of columns over a window of lines and gives a single line with the result for each window to the
+ * next steps. The window is either a count of lines or a period, it's tumbling (default) or sliding (when slide is
+ * shorter than the window).
+ * Mean and variance are updated with every line (Welford), min and max for a sliding window use monotonic deques. So
+ * adding a line doesn't depend on the size of the window.
+ * A time window is closed by a scheduled task at the end of the window, so the result doesn't wait for the next line.
+ */
+public class AggregateForward extends AbstractForward {
+
+    private enum STAT {MEAN,MIN,MAX,STDEV,VARIANCE,COUNT,SUM,FIRST,LAST}
+
+    private int[] columns = new int[0];         // Indexes of the columns to aggregate
+    private final ArrayList<STAT> stats = new ArrayList<>();  // Statistics to give for each column, in order
+    private long window = 0;                    // Size of the window, lines or millis
+    private long slide = 0;                     // Distance between results, same as window if tumbling
+    private boolean byTime = false;             // Whether window and slide are millis instead of lines
+    private int scale = -1;                     // Amount of decimals in the result, -1 if not rounded
+
+    private Column[] cols = new Column[0];
+    private final ArrayDeque<Sample> samples = new ArrayDeque<>();  // Lines in the window, only if sliding
+    private long received = 0;                  // Lines received since the last result (count window)
+    private long nextResult = -1;               // Time of the next result (time window), -1 if no data
+    private final ScheduledExecutorService scheduler;   // Closes time windows, null if only closed by the next line
+    private ScheduledFuture<?> closer;
+
+    public AggregateForward( Element ele, BlockingQueue<Datagram> dQueue, RealtimeValues rtvals, ScheduledExecutorService scheduler ){
+        super(dQueue,rtvals);
+        this.scheduler=scheduler;
+        readOk = readFromXML(ele);
+    }
+    @Override
+    protected boolean addData( String data ){
+        return addRecord( ParsedRecord.of(data,delimiter) );
+    }
+    @Override
+    protected boolean addRecord( ParsedRecord rec ){
+        rec = rec.as(delimiter);
+        var values = new double[columns.length];
+        for( int a=0;a<columns.length;a++ )
+            values[a] = rec.number(columns[a]); // NaN if missing or not a number, those are skipped
+        if( debug )
+            Logger.info(id()+" -> Adding "+rec.line());
+
+        synchronized( this ){ // Emitted under the same lock as the closer, so results keep their order
+            var result = add( new Sample(System.currentTimeMillis(),values) );
+            if( result != null )
+                emit(result);
+        }
+        if( noTargets() ){
+            valid=false;
+            return false;
+        }
+        return true;
+    }
+    private void emit( ParsedRecord result ){
+        String line = result.line();
+        FanOut.write(targets,id(),line);
+        if( log )
+            Logger.tag("RAW").info( id() + "\t" + line);
+        applyDataToStore(result);
+        passToSteps(result);
+    }
+
+    /**
+     * Add a line to the window
+     * @param sample The values and time of the line
+     * @return The result if the window is complete, null if not
+     */
+    private synchronized ParsedRecord add( Sample sample ){
+        ParsedRecord result = null;
+        if( byTime ){
+            if( nextResult != -1 && sample.time >= nextResult ) // Closer didn't run yet, this line belongs to the next window
+                result = closeWindow(sample.time);
+            if( nextResult == -1 ){ // Align on the slide, so a 1m window ends on the minute
+                nextResult = (sample.time/slide+1)*slide;
+                scheduleClose(sample.time);
+            }
+        }
+        samples(sample);
+        if( !byTime ){
+            received++;
+            if( isTumbling() ){
+                if( received == window ){
+                    result = result();
+                    clear();
+                }
+            }else{
+                evict(0);
+                if( samples.size()==window && received >= slide ){
+                    result = result();
+                    received = 0;
+                }
+            }
+        }
+        return result;
+    }
+    /**
+     * Close the time window that ends at nextResult
+     * @param now The current time in millis, at or after nextResult
+     * @return The result or null if the window was empty
+     */
+    private ParsedRecord closeWindow( long now ){
+        evict(nextResult);
+        var result = received==0 && samples.isEmpty() ? null : result();
+        if( isTumbling() )
+            clear();
+        evict( (now/slide+1)*slide );
+        if( samples.isEmpty() ){ // Nothing left, the next line aligns a new window
+            nextResult = -1;
+        }else{
+            nextResult = (now/slide+1)*slide; // Skip windows without data
+            scheduleClose(now);
+        }
+        return result;
+    }
+    private void scheduleClose( long now ){
+        if( scheduler == null )
+            return;
+        if( closer != null )
+            closer.cancel(false);
+        closer = scheduler.schedule( this::closeByTimer, Math.max(0,nextResult-now), TimeUnit.MILLISECONDS );
+    }
+    private synchronized void closeByTimer(){
+        long now = System.currentTimeMillis();
+        if( nextResult == -1 )
+            return;
+        if( now < nextResult ){ // Woke up early
+            scheduleClose(now);
+            return;
+        }
+        var result = closeWindow(now);
+        if( result != null ) // Under the lock, so this can't overtake or be overtaken by a result of addRecord
+            emit(result);
+    }
+    private void samples( Sample sample ){
+        if( byTime && isTumbling() )
+            received++; // Lines in the current window
+        if( !isTumbling() )
+            samples.add(sample);
+        for( int a=0;a<cols.length;a++ )
+            cols[a].add(sample);
+    }
+    /**
+     * Remove the lines that no longer fit in a sliding window
+     * @param end The end of the window for a time window, ignored for a count
+     */
+    private void evict( long end ){
+        if( isTumbling() )
+            return;
+        while( !samples.isEmpty() ){
+            var first = samples.peekFirst();
+            boolean old = byTime ? first.time < end-window : samples.size() > window;
+            if( !old )
+                break;
+            samples.pollFirst();
+            for( int a=0;a<cols.length;a++ )
+                cols[a].remove(first);
+        }
+    }
+    private void clear(){
+        samples.clear();
+        received=0;
+        for( var col : cols )
+            col.clear();
+    }
+    private boolean isTumbling(){
+        return slide == window;
+    }
+    /**
+     * Create the result, the fields are joined with the literal delimiter (fe. | for \\|) and the numbers are kept
+     */
+    private ParsedRecord result(){
+        var texts = new String[cols.length*stats.size()];
+        var numbers = new double[texts.length];
+        int a=0;
+        for( var col : cols ){
+            for( var stat : stats ){
+                numbers[a] = Tools.roundDouble(col.get(stat),scale); // A scale of -1 doesn't round
+                texts[a] = format(numbers[a]);
+                a++;
+            }
+        }
+        return ParsedRecord.ofNumbers(texts,numbers,delimiter);
+    }
+    private static String format( double value ){
+        if( Double.isNaN(value) )
+            return "NaN";
+        if( value == Math.rint(value) && Math.abs(value) < 1e15 )
+            return String.valueOf((long)value);
+        return String.valueOf(value);
+    }
+
+    @Override
+    public boolean readFromXML( Element ele ){
+        parsedOk=true;
+        var dig = XMLdigger.goIn(ele);
+        if( !readBasicsFromXml(dig) )
+            return false;
+
+        // The columns, fe. i1,i3 or 1,3
+        var cs = dig.attr("columns",dig.attr("cols","")).split(",");
+        columns = new int[cs.length];
+        for( int a=0;a<cs.length;a++ ){
+            columns[a] = NumberUtils.toInt(cs[a].trim().replace("i",""),-1);
+            if( columns[a] < 0 ){
+                Logger.error(id+"(ag) -> Invalid column '"+cs[a]+"'");
+                parsedOk=false;
+                return false;
+            }
+        }
+        // The statistics to give for each column
+        stats.clear();
+        for( var st : dig.attr("stats","mean,min,max,stdev").split(",") ){
+            try {
+                stats.add(STAT.valueOf(st.trim().toUpperCase()));
+            }catch( IllegalArgumentException e ){
+                Logger.error(id+"(ag) -> Unknown stat '"+st+"', options are mean,min,max,stdev,variance,count,sum,first,last");
+                parsedOk=false;
+                return false;
+            }
+        }
+        // Window and slide, a plain number is a count of lines otherwise a period
+        var win = dig.attr("window","60");
+        byTime = !NumberUtils.isDigits(win);
+        window = byTime ? TimeTools.parsePeriodStringToMillis(win) : NumberUtils.toLong(win);
+        var sl = dig.attr("slide",win);
+        slide = byTime ? TimeTools.parsePeriodStringToMillis(sl) : NumberUtils.toLong(sl,window);
+        if( window <= 0 || slide <= 0 || slide > window || NumberUtils.isDigits(sl) == byTime ){
+            Logger.error(id+"(ag) -> Invalid window "+win+" and/or slide "+sl+", both should be a count or a period and slide can't be longer");
+            parsedOk=false;
+            return false;
+        }
+        scale = dig.attr("scale",-1);
+
+        cols = new Column[columns.length];
+        for( int a=0;a<cols.length;a++ )
+            cols[a] = new Column(a);
+        samples.clear();
+        received=0;
+        nextResult=-1;
+        if( closer != null )
+            closer.cancel(false);
+
+        rulesString.clear();
+        var w = byTime ? TimeTools.convertPeriodToString(window, TimeUnit.MILLISECONDS) : window+" lines";
+        var s = byTime ? TimeTools.convertPeriodToString(slide, TimeUnit.MILLISECONDS) : slide+" lines";
+        rulesString.add( new String[]{"","window",(isTumbling()?"Tumbling ":"Sliding ")+w+(isTumbling()?"":" every "+s)});
+        var c = new StringJoiner(",");
+        for( int col : columns )
+            c.add("i"+col);
+        rulesString.add( new String[]{"","stats",stats.toString().toLowerCase()+" of "+c});
+        return true;
+    }
+    @Override
+    protected String getXmlChildTag(){
+        return "aggregate";
+    }
+
+    /**
+     * The values of a single line and when it was received
+     */
+    private record Sample( long time, double[] values ){}
+
+    /**
+     * Running statistics of a single column
+     */
+    private class Column{
+        final int index;    // Index in the values of a sample
+        long count=0;
+        double mean=0;
+        double m2=0;        // Sum of the squared differences from the mean
+        double min=Double.NaN;
+        double max=Double.NaN;
+        double first=Double.NaN;
+        double last=Double.NaN;
+        final ArrayDeque<Sample> mins = new ArrayDeque<>();   // Increasing values, first is the min of the window
+        final ArrayDeque<Sample> maxs = new ArrayDeque<>();   // Decreasing values, first is the max of the window
+
+        Column( int index ){
+            this.index=index;
+        }
+        void add( Sample sample ){
+            double x = sample.values[index];
+            if( Double.isNaN(x) )
+                return;
+            count++;
+            double delta = x-mean;
+            mean += delta/count;
+            m2 += delta*(x-mean);
+            if( count==1 )
+                first=x;
+            last=x;
+            if( isTumbling() ){
+                min = count==1 ? x : Math.min(min,x);
+                max = count==1 ? x : Math.max(max,x);
+            }else{
+                while( !mins.isEmpty() && mins.peekLast().values[index] > x )
+                    mins.pollLast();
+                mins.add(sample);
+                while( !maxs.isEmpty() && maxs.peekLast().values[index] < x )
+                    maxs.pollLast();
+                maxs.add(sample);
+            }
+        }
+        void remove( Sample sample ){
+            double x = sample.values[index];
+            if( Double.isNaN(x) )
+                return;
+            if( count==1 ){
+                clear();
+                return;
+            }
+            double old = mean;
+            mean = (count*mean-x)/(count-1);
+            count--;
+            m2 = Math.max(0, m2-(x-old)*(x-mean));
+            if( mins.peekFirst()==sample )
+                mins.pollFirst();
+            if( maxs.peekFirst()==sample )
+                maxs.pollFirst();
+        }
+        void clear(){
+            count=0;
+            mean=0;
+            m2=0;
+            min=Double.NaN;
+            max=Double.NaN;
+            first=Double.NaN;
+            last=Double.NaN;
+            mins.clear();
+            maxs.clear();
+        }
+        private double firstInWindow(){
+            for( var sample : samples ){ // Only done once per result
+                if( !Double.isNaN(sample.values[index]) )
+                    return sample.values[index];
+            }
+            return Double.NaN;
+        }
+        double get( STAT stat ){
+            if( count==0 && stat!=STAT.COUNT )
+                return Double.NaN;
+            return switch( stat ){
+                case MEAN -> mean;
+                case MIN -> isTumbling() ? min : mins.peekFirst().values[index];
+                case MAX -> isTumbling() ? max : maxs.peekFirst().values[index];
+                case VARIANCE -> count < 2 ? 0 : m2/(count-1);
+                case STDEV -> count < 2 ? 0 : Math.sqrt(m2/(count-1));
+                case COUNT -> count;
+                case SUM -> mean*count;
+                case FIRST -> isTumbling() ? first : firstInWindow();
+                case LAST -> last;
+            };
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package io.forward;
+
+import io.FanOut;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.tinylog.Logger;
+import org.w3c.dom.Element;
+import util.data.ParsedRecord;
+import util.data.RealtimeValues;
+import util.tools.Tools;
+import util.xml.XMLdigger;
+import worker.Datagram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.StringJoiner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decodes binary frames into fields according to a layout given in xml. The bytes are collected until a full frame is
+ * received, the frame is either a fixed size or has its length in the header. An optional sync pattern marks the start.
+ * The decoded numbers are given to the next steps and store as a record that already holds the numbers, so they don't
+ * need to be parsed again.
+ * Data received as text is considered to be hex (fe. from a stream that already converted it).
+ */
+public class BinaryForward extends AbstractForward {
+
+    private enum TYPE {INT8,UINT8,INT16,UINT16,INT24,UINT24,INT32,UINT32,INT64,FLOAT32,FLOAT64}
+
+    private final ArrayList<Field> fields = new ArrayList<>();
+    private boolean bigEndian = true;
+    private byte[] sync = new byte[0];  // Bytes that mark the start of a frame, empty if none
+    private int size = 0;               // Size of a fixed frame, or the minimum if the length is in the frame
+    private int lengthAt = -1;          // Position of the length in the frame, -1 if fixed size
+    private TYPE lengthType = TYPE.UINT8;
+    private int lengthAdd = 0;          // Bytes in the frame that aren't counted by the length
+    private int maxSize = 4096;         // Frames that claim to be larger are considered corrupt
+
+    private byte[] buffer = new byte[256];  // Bytes received that aren't decoded yet
+    private int filled = 0;
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder skipped = new LongAdder(); // Bytes skipped to find a sync or because of a bad length
+
+    public BinaryForward( Element ele, BlockingQueue<Datagram> dQueue, RealtimeValues rtvals ){
+        super(dQueue,rtvals);
+        readOk = readFromXML(ele);
+    }
+    @Override
+    protected boolean addData( String data ){
+        var bytes = fromHex(data);
+        if( bytes == null ){
+            Logger.error(id+"(bf) -> Received text that isn't hex: "+data);
+            return true;
+        }
+        return addBytes(bytes);
+    }
+    @Override
+    protected boolean addRecord( ParsedRecord rec ){
+        return addData(rec.line());
+    }
+    @Override
+    public boolean writeBytes( byte[] data ){
+        if( branch != null ){
+            branch.submit( () -> receiveBytes(data) );
+            return valid;
+        }
+        return receiveBytes(data);
+    }
+    private boolean receiveBytes( byte[] data ){
+        if( !metrics.count() )
+            return addBytes(data);
+        return metrics.timed( () -> addBytes(data) );
+    }
+
+    /**
+     * Add the received bytes to the buffer and decode all the complete frames in it
+     * @param data The bytes received
+     * @return False if this no longer has targets
+     */
+    private boolean addBytes( byte[] data ){
+        var decoded = new ArrayList<ParsedRecord>();
+        synchronized( this ){
+            if( filled+data.length > buffer.length )
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length*2,filled+data.length));
+            System.arraycopy(data,0,buffer,filled,data.length);
+            filled += data.length;
+
+            int pos=0;
+            while( true ){
+                if( sync.length != 0 ){
+                    int start = indexOfSync(pos);
+                    if( start == -1 ){ // Keep the bytes that could be the start of a sync
+                        int keep = Math.min(sync.length-1,filled-pos);
+                        skipped.add(filled-pos-keep);
+                        pos = filled-keep;
+                        break;
+                    }
+                    skipped.add(start-pos);
+                    pos = start;
+                }
+                int frame = frameSize(pos);
+                if( frame == -1 ){ // Invalid length, skip a byte and look again
+                    skipped.increment();
+                    pos++;
+                    continue;
+                }
+                if( frame == 0 || pos+frame > filled ) // Not complete yet
+                    break;
+                decoded.add( decode(pos) );
+                frames.increment();
+                pos += frame;
+            }
+            // Move what's left to the front
+            System.arraycopy(buffer,pos,buffer,0,filled-pos);
+            filled -= pos;
+        }
+        for( var rec : decoded )
+            forward(rec);
+        if( noTargets() ){
+            valid=false;
+            return false;
+        }
+        return true;
+    }
+    private int indexOfSync( int from ){
+        for( int a=from;a<=filled-sync.length;a++ ){
+            int b=0;
+            while( b<sync.length && buffer[a+b]==sync[b] )
+                b++;
+            if( b==sync.length )
+                return a;
+        }
+        return -1;
+    }
+    /**
+     * Get the size of the frame that starts at pos
+     * @return The size, 0 if not enough bytes to know or -1 if the length is invalid
+     */
+    private int frameSize( int pos ){
+        if( lengthAt == -1 )
+            return size;
+        int lenBytes = bytes(lengthType);
+        if( pos+lengthAt+lenBytes > filled )
+            return 0;
+        long len = readRaw(pos+lengthAt,lengthType,bigEndian) + lengthAdd;
+        if( len < size || len > maxSize )
+            return -1;
+        return (int)len;
+    }
+    private ParsedRecord decode( int pos ){
+        var texts = new String[fields.size()];
+        var numbers = new double[fields.size()];
+        for( int a=0;a<fields.size();a++ ){
+            var f = fields.get(a);
+            long raw = readRaw(pos+f.at,f.type,f.bigEndian);
+            double val = f.bits == null ? toDouble(raw,f.type) : (raw >>> f.bits[0]) & f.mask(); // Bits only on integers
+            val = val*f.scale + f.offset;
+            numbers[a]=val;
+            texts[a]=format(val,f.decimals);
+        }
+        return ParsedRecord.ofNumbers(texts,numbers,delimiter);
+    }
+    private void forward( ParsedRecord rec ){
+        if( debug || log ){
+            String data = rec.line();
+            if( debug )
+                Logger.info(id()+" -> Decoded "+data);
+            if( log )
+                Logger.tag("RAW").info( id() + "\t" + data);
+        }
+        if( !targets.isEmpty() )
+            FanOut.write(targets,id(),rec.line());
+        applyDataToStore(rec);
+        passToSteps(rec);
+    }
+    /**
+     * Read a value from the buffer without converting it, the caller makes sure the bytes are there
+     * @param pos The position of the first byte
+     * @param type The type of the value
+     * @param big True if big endian
+     * @return The integer with the sign extended if signed, or the bits of a float
+     */
+    private long readRaw( int pos, TYPE type, boolean big ){
+        int count = bytes(type);
+        long raw=0;
+        for( int a=0;a<count;a++ ){
+            int b = buffer[pos + (big?a:count-1-a)] & 0xFF;
+            raw = (raw<<8) | b;
+        }
+        return switch( type ){
+            case INT8 -> (byte)raw;
+            case INT16 -> (short)raw;
+            case INT24 -> (raw<<40)>>40;
+            case INT32 -> (int)raw;
+            default -> raw;
+        };
+    }
+    /**
+     * Convert a value read with readRaw to a double
+     * @param raw The value as read
+     * @param type The type of the value
+     * @return The value
+     */
+    private static double toDouble( long raw, TYPE type ){
+        return switch( type ){
+            case FLOAT32 -> Float.intBitsToFloat((int)raw);
+            case FLOAT64 -> Double.longBitsToDouble(raw);
+            default -> raw;
+        };
+    }
+    private static int bytes( TYPE type ){
+        return switch( type ){
+            case INT8,UINT8 -> 1;
+            case INT16,UINT16 -> 2;
+            case INT24,UINT24 -> 3;
+            case INT32,UINT32,FLOAT32 -> 4;
+            case INT64,FLOAT64 -> 8;
+        };
+    }
+    private static String format( double value, int decimals ){
+        if( Double.isNaN(value) )
+            return "NaN";
+        if( decimals != -1 )
+            value = Math.round(value*Math.pow(10,decimals))/Math.pow(10,decimals);
+        if( value == Math.rint(value) && Math.abs(value) < 1e15 )
+            return String.valueOf((long)value);
+        return String.valueOf(value);
+    }
+    private static TYPE parseType( String type ){
+        return switch( type.toLowerCase() ){
+            case "float", "float32" -> TYPE.FLOAT32;
+            case "double", "float64" -> TYPE.FLOAT64;
+            case "byte" -> TYPE.UINT8;
+            default -> {
+                try {
+                    yield TYPE.valueOf(type.toUpperCase());
+                }catch( IllegalArgumentException e ){
+                    yield null;
+                }
+            }
+        };
+    }
+    /**
+     * Convert hex text to bytes, fe. AA55 0x01 02 or aa:55:01
+     * @param hex The text
+     * @return The bytes or null if not valid hex
+     */
+    private static byte[] fromHex( String hex ){
+        hex = hex.toLowerCase().replace("0x","").replaceAll("[\\s,;:]","");
+        if( hex.length()%2 != 0 )
+            return null;
+        var bytes = new byte[hex.length()/2];
+        for( int a=0;a<bytes.length;a++ ){
+            int hi = Character.digit(hex.charAt(2*a),16);
+            int lo = Character.digit(hex.charAt(2*a+1),16);
+            if( hi == -1 || lo == -1 )
+                return null;
+            bytes[a] = (byte)(hi*16+lo);
+        }
+        return bytes;
+    }
+
+    @Override
+    public boolean readFromXML( Element ele ){
+        parsedOk=true;
+        var dig = XMLdigger.goIn(ele);
+        if( !readBasicsFromXml(dig) )
+            return false;
+
+        bigEndian = !dig.attr("order","big").equalsIgnoreCase("little");
+        var s = dig.attr("sync","");
+        sync = s.isEmpty() ? new byte[0] : fromHex(s);
+        if( sync == null ){
+            Logger.error(id+"(bf) -> Invalid sync, should be hex: "+s);
+            parsedOk=false;
+            return false;
+        }
+        size = dig.attr("size",0);
+        maxSize = dig.attr("maxsize",4096);
+        lengthAt = dig.attr("lengthat",-1);
+        lengthAdd = dig.attr("lengthadd",0);
+        if( lengthAt != -1 ){
+            lengthType = parseType(dig.attr("lengthtype","uint8"));
+            if( lengthType == null || lengthType.name().startsWith("FLOAT") ){
+                Logger.error(id+"(bf) -> Invalid lengthtype, should be an (u)int");
+                parsedOk=false;
+                return false;
+            }
+        }
+        filled=0;
+
+        fields.clear();
+        rulesString.clear();
+        int minSize=0;
+        for( var fd : dig.digOut("field") ){
+            var type = parseType(fd.attr("type","uint8"));
+            int at = fd.attr("at",-1);
+            if( type == null || at < 0 ){
+                Logger.error(id+"(bf) -> Field without valid type or at: "+fd.attr("type","")+" at "+fd.attr("at",""));
+                parsedOk=false;
+                return false;
+            }
+            int[] bits = null;
+            var b = fd.attr("bits","");
+            if( !b.isEmpty() ){ // fe. 2-4 for bit 2 up to 4, lsb is 0
+                if( type == TYPE.FLOAT32 || type == TYPE.FLOAT64 ){
+                    Logger.error(id+"(bf) -> Bits can't be used on a "+type.name().toLowerCase()+" field");
+                    parsedOk=false;
+                    return false;
+                }
+                var range = b.split("-");
+                int lo = NumberUtils.toInt(range[0],-1);
+                int hi = range.length==2 ? NumberUtils.toInt(range[1],-1) : lo;
+                if( lo < 0 || hi < lo || hi >= bytes(type)*8 ){
+                    Logger.error(id+"(bf) -> Invalid bits "+b+" for "+type.name().toLowerCase());
+                    parsedOk=false;
+                    return false;
+                }
+                bits = new int[]{lo,hi-lo+1};
+            }
+            var order = fd.attr("order","");
+            boolean big = order.isEmpty() ? bigEndian : !order.equalsIgnoreCase("little");
+            var field = new Field(fd.value(""),type,at,big,bits,fd.attr("scale",1.0),fd.attr("offset",0.0),fd.attr("decimals",-1));
+            fields.add(field);
+            minSize = Math.max(minSize,at+bytes(type));
+            rulesString.add(new String[]{"",field.name,field.toString()});
+        }
+        if( fields.isEmpty() ){
+            Logger.error(id+"(bf) -> No fields defined");
+            parsedOk=false;
+            return false;
+        }
+        // For a fixed frame this is the size, otherwise the minimum size
+        size = Math.max(size, minSize);
+        if( lengthAt != -1 )
+            size = Math.max(size, lengthAt + bytes(lengthType));
+        return true;
+    }
+    @Override
+    public String getRules(){
+        var join = new StringJoiner("\r\n");
+        join.add("\tFrames of "+(lengthAt==-1?size+" bytes":"length at "+lengthAt+" ("+lengthType.name().toLowerCase()+"+"+lengthAdd+")")
+                +(sync.length==0?"":" starting with "+Tools.fromBytesToHexString(sync))+", "+(bigEndian?"big":"little")+" endian");
+        join.add(super.getRules());
+        join.add("\tDecoded "+frames.sum()+" frames, skipped "+skipped.sum()+" bytes");
+        return join.toString();
+    }
+    @Override
+    protected String getXmlChildTag(){
+        return "binary";
+    }
+
+    /**
+     * A field in the frame
+     * @param name Name of the field, only used in the listing
+     * @param type The type of the value
+     * @param at The position of the first byte in the frame
+     * @param bigEndian True if the msb comes first
+     * @param bits Lowest bit and amount of bits to take from the value, null if all
+     */
+    private record Field( String name, TYPE type, int at, boolean bigEndian, int[] bits, double scale, double offset, int decimals ){
+        long mask(){ // 1L<<64 is 1L, so all 64 bits needs its own case
+            return bits[1] == 64 ? -1L : (1L<<bits[1])-1;
+        }
+        public String toString(){
+            return type.name().toLowerCase()+" at "+at+(bits==null?"":" bits "+bits[0]+"-"+(bits[0]+bits[1]-1))
+                    +(type==TYPE.INT8||type==TYPE.UINT8?"":(bigEndian?" big":" little"))
+                    +(scale==1?"":" *"+scale)+(offset==0?"":" +"+offset);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package io.forward;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.FastThreadLocalThread;
+import org.tinylog.Logger;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the data given to a branch of a path on a single thread of the event loop group, so the order is kept but the
+ * step that gives the data doesn't have to wait on it. The amount of data waiting is limited, what happens when full
+ * depends on the overflow:
+ * - block (default): backpressure, a caller that isn't an event loop thread (fe. the fanout of a stream) waits for room.
+ *   An event loop thread is never blocked, the data is accepted and a spot of the branch that gave it is held till it's
+ *   processed. So that one fills up instead and the wait moves up to the source. Custom sources pause while full.
+ * - drop: the data is dropped and counted, the caller never waits.
+ */
+class Branch {
+
+    enum OVERFLOW {BLOCK,DROP}
+
+    private static final ThreadLocal<Branch> running = new ThreadLocal<>(); // Branch of the work on this thread
+
+    private final EventExecutor executor;
+    private final Semaphore room;
+    private final int size;
+    private final OVERFLOW overflow;
+    private final AtomicInteger over = new AtomicInteger();  // Accepted on top of the size because the caller can't wait
+    private final LongAdder waits = new LongAdder();         // Times a caller had to wait for room
+    private final LongAdder dropped = new LongAdder();       // Data dropped because the branch was full
+    private volatile boolean warned = false;                 // Whether the first drop was logged
+
+    Branch( EventExecutor executor, int size, OVERFLOW overflow ){
+        this.executor=executor;
+        this.size=Math.max(1,size);
+        this.overflow=overflow;
+        room = new Semaphore(this.size);
+    }
+    /**
+     * Parse the overflow attribute
+     * @param value block or drop
+     * @return The overflow, block if unknown
+     */
+    static OVERFLOW parseOverflow( String value ){
+        if( value.equalsIgnoreCase("drop") )
+            return OVERFLOW.DROP;
+        if( !value.isEmpty() && !value.equalsIgnoreCase("block") )
+            Logger.error("Unknown branch overflow '"+value+"', using block");
+        return OVERFLOW.BLOCK;
+    }
+    /**
+     * Queue work for this branch
+     * @param work The processing to do
+     * @return True if queued, false if dropped
+     */
+    boolean submit( Runnable work ){
+        boolean own = room.tryAcquire();    // Holds a spot of this branch
+        Branch held = null;                 // Branch that gave the data and has a spot held for this
+        if( !own ){
+            if( overflow == OVERFLOW.DROP ) {
+                drop();
+                return false;
+            }
+            if( Thread.currentThread() instanceof FastThreadLocalThread ){ // Event loop, can't wait
+                over.incrementAndGet();
+                var caller = running.get();
+                if( caller != null && caller != this && caller.room.tryAcquire() )
+                    held = caller;
+            }else{
+                waits.increment();
+                try {
+                    room.acquire();
+                    own = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    drop();
+                    return false;
+                }
+            }
+        }
+        final boolean ownSpot = own;
+        final Branch heldSpot = held;
+        try{
+            executor.execute( () -> {
+                running.set(this);
+                try{
+                    work.run();
+                }catch( RuntimeException e ){
+                    Logger.error(e);
+                }finally{
+                    running.remove();
+                    release(ownSpot,heldSpot);
+                }
+            });
+        }catch( RejectedExecutionException e ){ // Group is shutting down
+            release(ownSpot,heldSpot);
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+    private void release( boolean own, Branch held ){
+        if( own ){
+            room.release();
+        }else{
+            over.decrementAndGet();
+        }
+        if( held != null )
+            held.room.release();
+    }
+    private void drop(){
+        dropped.increment();
+        if( !warned ){
+            warned = true;
+            Logger.warn("Branch full ("+size+" in flight), dropping data till there's room");
+        }
+    }
+    /**
+     * @return True if there's no room left, sources that can be paused should wait
+     */
+    boolean isFull(){
+        return room.availablePermits()==0;
+    }
+    /**
+     * @return The amount of data queued or being processed
+     */
+    int inFlight(){
+        return size-room.availablePermits()+over.get();
+    }
+    public String toString(){
+        return "branch "+inFlight()+"/"+size+" in flight, "+overflow.toString().toLowerCase()+" when full, waited "
+                +waits.sum()+", dropped "+dropped.sum();
+    }
+}
@@ -5,6 +5,7 @@
 import org.tinylog.Logger;
 import org.w3c.dom.Element;
 import util.data.AbstractVal;
+import util.data.ParsedRecord;
 import util.data.RealtimeValues;
 import util.xml.XMLdigger;
 import worker.Datagram;
@@ -25,15 +26,20 @@ public CmdForward(Element ele, BlockingQueue<Datagram> dQueue, RealtimeValues rt
     }
     @Override
     protected boolean addData(String data) {
-
-        String[] split = data.split(delimiter); // Split the data according to the delimiter
+        return addRecord( ParsedRecord.of(data,delimiter) );
+    }
+    @Override
+    protected boolean addRecord( ParsedRecord rec ) {
+        String[] split = rec.as(delimiter).fields(); // Split the data according to the delimiter, if not done already
 
         cmds.forEach( cmd -> {
             // Replace the i's with rt data if any and send it away
             dQueue.add(Datagram.system(cmd.applyData(split)));
         });
+        String data = rec.line();
         targets.forEach(t->t.writeLine(id(), data));
-        applyDataToStore(data);
+        applyDataToStore(rec);
+        metrics.passed();
         return true;
     }
 
@@ -54,7 +60,7 @@ public boolean readFromXML(Element fwd) {
     }
     @Override
     public boolean writeLine(String origin, String data) {
-        return addData(data);
+        return receive(data);
     }
     @Override
     protected String getXmlChildTag() {
@@ -0,0 +1,232 @@
+package io.forward;
+
+import io.FanOut;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.tinylog.Logger;
+import org.w3c.dom.Element;
+import util.data.ParsedRecord;
+import util.data.RealtimeValues;
+import util.tools.TimeTools;
+import util.xml.XMLdigger;
+import worker.Datagram;
+
+import java.util.ArrayList;
+import java.util.StringJoiner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Only gives data to the next steps if at least one of the columns changed more than its deadband compared to the last
+ * data that was passed on, or if nothing was passed on for too long. The state can be kept per key (fe. the id of a
+ * sensor in the first column), so data for different sensors on the same stream doesn't interfere. The amount of keys is
+ * capped, if a new key arrives when full the one that passed data the longest ago is forgotten.
+ */
+public class DeadbandForward extends AbstractForward {
+
+    private final ArrayList<Band> bands = new ArrayList<>();    // The columns to check
+    private int keyIndex = -1;                                  // Column that holds the key, -1 if none
+    private long maxSilence = 0;                                // Max millis without passing data, 0 if no max
+    private final ConcurrentHashMap<String,Last> lasts = new ConcurrentHashMap<>(); // Last data passed per key
+    private int maxKeys = 1000;                                 // Max amount of keys kept in lasts
+    private final LongAdder suppressed = new LongAdder();
+    private final LongAdder evicted = new LongAdder();          // Keys forgotten because lasts was full
+
+    public DeadbandForward( Element ele, BlockingQueue<Datagram> dQueue, RealtimeValues rtvals ){
+        super(dQueue,rtvals);
+        readOk = readFromXML(ele);
+    }
+    @Override
+    protected boolean addData( String data ){
+        return addRecord( ParsedRecord.of(data,delimiter) );
+    }
+    @Override
+    protected boolean addRecord( ParsedRecord rec ){
+        rec = rec.as(delimiter);
+        var key = keyIndex == -1 || keyIndex >= rec.size() ? "" : rec.field(keyIndex);
+        var last = lasts.get(key);
+        if( last == null ){
+            if( lasts.size() >= maxKeys )
+                evictOldest();
+            last = lasts.computeIfAbsent(key, k -> new Last(bands.size()));
+        }
+
+        if( last.changed(rec,System.currentTimeMillis()) ){
+            String data = rec.line();
+            FanOut.write(targets,id(),data);
+            if( log )
+                Logger.tag("RAW").info( id() + "\t" + data);
+            applyDataToStore(rec);
+            passToSteps(rec);
+        }else{
+            suppressed.increment();
+            metrics.dropped();
+            if( debug )
+                Logger.info(id()+" -> Suppressed "+rec.line());
+        }
+        if( noTargets() ){
+            valid=false;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remove the key that passed data the longest ago, to make room for a new one
+     */
+    private void evictOldest(){
+        String oldest = null;
+        long time = Long.MAX_VALUE;
+        for( var entry : lasts.entrySet() ){
+            if( entry.getValue().time < time ){
+                time = entry.getValue().time;
+                oldest = entry.getKey();
+            }
+        }
+        if( oldest != null && lasts.remove(oldest) != null ){
+            if( evicted.sum() == 0 )
+                Logger.warn(id+"(dbf) -> More than "+maxKeys+" keys, forgetting the oldest ones");
+            evicted.increment();
+        }
+    }
+
+    @Override
+    public boolean readFromXML( Element ele ){
+        parsedOk=true;
+        var dig = XMLdigger.goIn(ele);
+        if( !readBasicsFromXml(dig) )
+            return false;
+
+        bands.clear();
+        lasts.clear();
+        keyIndex = NumberUtils.toInt(dig.attr("key","-1").replace("i",""),-1);
+        maxSilence = TimeTools.parsePeriodStringToMillis(dig.attr("maxsilence","0s"));
+        maxKeys = Math.max(1,dig.attr("maxkeys",1000));
+
+        // Defaults for the columns
+        double abs = dig.attr("abs",0.0);
+        double rel = parseRelative(dig.attr("rel","0"));
+
+        var cols = dig.attr("columns",dig.attr("cols",""));
+        if( !cols.isEmpty() ){
+            for( var col : cols.split(",") ) {
+                int index = NumberUtils.toInt(col.trim().replace("i",""),-1);
+                if( index < 0 ){
+                    Logger.error(id+"(dbf) -> Invalid column '"+col+"'");
+                    parsedOk=false;
+                    return false;
+                }
+                bands.add( new Band(index,abs,rel) );
+            }
+        }
+        // Columns with their own deadband
+        for( var col : dig.digOut("col") ){
+            int index = NumberUtils.toInt(col.attr("i",col.attr("index","-1")).replace("i",""),-1);
+            if( index < 0 ){
+                Logger.error(id+"(dbf) -> Col node without valid i attribute");
+                parsedOk=false;
+                return false;
+            }
+            bands.removeIf( b -> b.index==index );
+            if( col.hasAttr("abs") || col.hasAttr("rel") ){ // Own band replaces the defaults
+                bands.add( new Band(index,col.attr("abs",0.0),parseRelative(col.attr("rel","0"))) );
+            }else{
+                bands.add( new Band(index,abs,rel) );
+            }
+        }
+        if( bands.isEmpty() ){
+            Logger.error(id+"(dbf) -> No columns given to check");
+            parsedOk=false;
+            return false;
+        }
+
+        rulesString.clear();
+        bands.forEach( b -> rulesString.add(new String[]{"","i"+b.index,b.toString()}) );
+        if( keyIndex != -1 )
+            rulesString.add(new String[]{"","key","State kept per value of i"+keyIndex+", max "+maxKeys+" keys"});
+        if( maxSilence > 0 )
+            rulesString.add(new String[]{"","silence","Pass at least once every "+TimeTools.convertPeriodToString(maxSilence, TimeUnit.MILLISECONDS)});
+        return true;
+    }
+    /**
+     * Parse a relative deadband, either a fraction (0.01) or a percentage (1%)
+     */
+    private static double parseRelative( String rel ){
+        rel = rel.trim();
+        if( rel.endsWith("%") )
+            return NumberUtils.toDouble(rel.substring(0,rel.length()-1),0)/100;
+        return NumberUtils.toDouble(rel,0);
+    }
+    @Override
+    public String getRules(){
+        var join = new StringJoiner("\r\n");
+        join.add(super.getRules());
+        join.add("\tSuppressed "+suppressed.sum()+" lines"+(keyIndex==-1?"":" for "+lasts.size()+" keys, "+evicted.sum()+" keys forgotten"));
+        return join.toString();
+    }
+    @Override
+    protected String getXmlChildTag(){
+        return "deadband";
+    }
+
+    /**
+     * Deadband of a single column, the change needs to be larger than the absolute or the relative band (a band of 0 isn't
+     * used), without either any change is enough
+     */
+    private record Band( int index, double abs, double rel ){
+        boolean exceeded( double old, double now ){
+            double diff = Math.abs(now-old);
+            if( abs==0 && rel==0 )
+                return diff > 0;
+            return (abs > 0 && diff > abs) || (rel > 0 && diff > rel*Math.abs(old));
+        }
+        public String toString(){
+            if( abs==0 && rel==0 )
+                return "Any change";
+            return "Change more than "+(rel==0?abs:(abs==0?rel*100+"%":abs+" or "+rel*100+"%"));
+        }
+    }
+
+    /**
+     * The last data that was passed on for a key
+     */
+    private class Last{
+        final double[] numbers;
+        final String[] texts;   // Used if the column isn't a number
+        long time=-1;           // When it was passed on, -1 if never
+
+        Last( int size ){
+            numbers = new double[size];
+            texts = new String[size];
+        }
+        /**
+         * Check if the record differs enough from the last one that was passed on, if so that becomes the last one
+         * @param rec The record to check
+         * @param now The current time in millis
+         * @return True if it should be passed on
+         */
+        synchronized boolean changed( ParsedRecord rec, long now ){
+            boolean pass = time == -1 || (maxSilence > 0 && now-time >= maxSilence);
+            for( int a=0;a<bands.size() && !pass;a++ ){
+                var band = bands.get(a);
+                double val = rec.number(band.index);
+                if( Double.isNaN(val) || Double.isNaN(numbers[a]) ){ // Not a number, compare the text
+                    var text = band.index < rec.size() ? rec.field(band.index) : "";
+                    pass = !text.equals(texts[a]);
+                }else{
+                    pass = band.exceeded(numbers[a],val);
+                }
+            }
+            if( pass ){
+                for( int a=0;a<bands.size();a++ ){
+                    var band = bands.get(a);
+                    numbers[a] = rec.number(band.index);
+                    texts[a] = band.index < rec.size() ? rec.field(band.index) : "";
+                }
+                time = now;
+            }
+            return pass;
+        }
+    }
+}
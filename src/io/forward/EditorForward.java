@@ -1,9 +1,11 @@
 package io.forward;
 
+import io.FanOut;
 import io.telnet.TelnetCodes;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.tinylog.Logger;
 import org.w3c.dom.Element;
+import util.data.ParsedRecord;
 import util.data.RealtimeValues;
 import util.data.ValTools;
 import util.tools.TimeTools;
@@ -17,14 +19,17 @@
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Locale;
 import java.util.StringJoiner;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.regex.MatchResult;
 import java.util.regex.Pattern;
 
 public class EditorForward extends AbstractForward{
-    private final ArrayList<Function<String,String>> edits = new ArrayList<>(); // Map of all the edits being done
+    private final ArrayList<Edit> edits = new ArrayList<>(); // All the edits being done, in order
 
     public EditorForward(String id, String source, BlockingQueue<Datagram> dQueue, RealtimeValues rtvals ){
         super(id,source,dQueue,rtvals);
@@ -36,7 +41,11 @@ public EditorForward(Element ele, BlockingQueue<Datagram> dQueue, RealtimeValues
 
     @Override
     protected boolean addData(String data) {
-
+        return addRecord( ParsedRecord.of(data,delimiter) );
+    }
+    @Override
+    protected boolean addRecord( ParsedRecord rec ) {
+        String data = rec.line();
         if( data.startsWith("corrupt")){
             String d = data;
             targets.removeIf(t-> !t.writeLine(d) );
@@ -46,22 +55,19 @@ protected boolean addData(String data) {
         if( debug ) // extra info given if debug is active
             Logger.info(id()+" -> Before: "+data); // how the data looked before
 
-        for( var edit:edits){
-            data = edit.apply(data);
-            if( data == null ){
-                Logger.error(id+"(ef) -> Editor step failed, stopped processing.");
-                return true; // Still accept new data
-            }
+        rec = applyEdits(rec);
+        if( rec == null ){
+            Logger.error(id+"(ef) -> Editor step failed, stopped processing.");
+            metrics.dropped();
+            return true; // Still accept new data
         }
+        data = rec.line(); // Only now the result is joined, if needed
 
         if( debug ){ // extra info given if debug is active
             Logger.info(id()+" -> After: "+data);
         }
-        String finalData = data;
 
-        // Use multithreading so the writables don't have to wait for the whole process
-        nextSteps.parallelStream().forEach( ns -> ns.writeLine(id(),finalData));
-        targets.parallelStream().forEach( wr -> wr.writeLine(id(),finalData));
+        FanOut.write(targets,id(),data);
 
         if( log )
             Logger.tag("RAW").info( id() + "\t" + data);
@@ -69,7 +75,8 @@ protected boolean addData(String data) {
         if( !cmds.isEmpty())
             cmds.forEach( cmd->dQueue.add(Datagram.system(cmd).writable(this)));
 
-        applyDataToStore(data);
+        applyDataToStore(rec);
+        passToSteps(rec);
         // If there are no targets, no label, this no longer needs to be a target
         if( noTargets() ){
             valid=false;
@@ -225,33 +232,57 @@ private void processNode(XMLdigger dig ){
             }
         }
     }
+    /**
+     * Add an edit that works on the whole line
+     * @param type The type of edit
+     * @param info Readable info on the edit
+     * @param edit The edit, returns null if it failed
+     */
+    private void addLineEdit( String type, String info, Function<String,String> edit ){
+        addEdit( type, info, rec -> {
+            var res = edit.apply(rec.line());
+            if( res == null )
+                return null;
+            if( !res.equals(rec.line()) )
+                rec.replaceLine(res);
+            return rec;
+        });
+    }
+    /**
+     * Add an edit that works on the split data, consecutive edits on the same delimiter share the split and the line is
+     * only joined again when needed
+     * @param type The type of edit
+     * @param info Readable info on the edit
+     * @param edit The edit, returns null if it failed
+     */
+    private void addEdit( String type, String info, UnaryOperator<ParsedRecord> edit ){
+        rulesString.add( new String[]{"",type,info} );
+        edits.add( new Edit(type+" -> "+info,edit) );
+    }
     private void addListReplace( String content, String deli, int index, int first){
-        rulesString.add( new String[]{"","listreplace","At "+index+" convert to "+content} );
         String[] opts = content.split(",");
-        Function<String,String> edit = input ->
+        addEdit( "listreplace","At "+index+" convert to "+content, rec ->
         {
-            String[] items = input.split(deli);
-            if( index > items.length ){
-                Logger.error( id +"(ef) -> (ListReplace) Not enough elements after split of "+input);
+            var items = rec.as(deli);
+            if( index >= items.size() ){
+                Logger.error( id +"(ef) -> (ListReplace) Not enough elements after split of "+items.line());
                 return null;
             }
-            int pos = NumberUtils.toInt(items[index],Integer.MAX_VALUE);
+            int pos = NumberUtils.toInt(items.field(index),Integer.MAX_VALUE);
             if( pos == Integer.MAX_VALUE){
-                Logger.error(id+" (ef) -> (ListReplace) Parsing to int failed for "+items[index]);
+                Logger.error(id+" (ef) -> (ListReplace) Parsing to int failed for "+items.field(index));
                 return null;
             }
             pos = pos-first;
-            if( pos <0 || pos > opts.length){
+            if( pos <0 || pos >= opts.length){
                 Logger.error( id+" (ef) -> (ListReplace) Invalid index for the list ("+pos+")");
                 return null;
             }
-            items[index]=opts[pos];
-            return String.join(deli,items);
-        };
-        edits.add(edit);
+            items.setField(index,opts[pos]);
+            return items;
+        });
     }
     private void addCharSplit( String deli, String positions){
-        rulesString.add( new String[]{"","charsplit","At "+positions+" to "+deli} );
         String[] pos = Tools.splitList(positions);
         var indexes = new ArrayList<Integer>();
         if( !pos[0].equals("0"))
@@ -265,7 +296,7 @@ private void addCharSplit( String deli, String positions){
             delimiter=deli;
         }
 
-        Function<String,String> edit = input ->
+        addLineEdit( "charsplit","At "+positions+" to "+deli, input ->
         {
             if(indexes.get(indexes.size()-1) > input.length()){
                 Logger.error(id+ "(ef) Can't split "+input+" if nothing is at "+indexes.get(indexes.size()-1));
@@ -284,41 +315,46 @@ private void addCharSplit( String deli, String positions){
                 Logger.error(id+ "(ef) Failed to apply charsplit on "+input);
             }
             return null;
-        };
-        edits.add(edit);
+        });
     }
     private void addMillisToDate( String to, int index, String delimiter ){
-        rulesString.add( new String[]{"","millisdate","millis -> "+to} );
-        Function<String,String> edit = input ->
+        DateTimeFormatter format = null; // Made once instead of for every line
+        if( !to.equalsIgnoreCase("sql") ){
+            try {
+                format = DateTimeFormatter.ofPattern(to).withZone(ZoneId.of("UTC"));
+            }catch( IllegalArgumentException e ){
+                Logger.error( id() + "(ef) -> Invalid format in millis to date: "+to+" -> "+e.getMessage());
+                parsedOk=false;
+                return;
+            }
+        }
+        var formatter = format;
+        addEdit( "millisdate","millis -> "+to, rec ->
         {
-            String[] split = input.split(delimiter);
-            if( split.length > index){
-                long millis = NumberUtils.toLong(split[index],-1L);
+            var split = rec.as(delimiter);
+            if( split.size() > index){
+                long millis = NumberUtils.toLong(split.field(index),-1L);
                 if( millis == -1L ){
-                    Logger.error( id() + "(ef) -> Couldn't convert "+split[index]+" to millis");
+                    Logger.error( id() + "(ef) -> Couldn't convert "+split.field(index)+" to millis");
                     return null;
                 }
                 var ins = Instant.ofEpochMilli(millis);
                 try {
-                    if( to.equalsIgnoreCase("sql")){
-                        split[index] = ins.toString();
-                    }else{
-                        split[index] = DateTimeFormatter.ofPattern(to).withZone(ZoneId.of("UTC")).format(ins);
-                    }
-                    if (split[index].isEmpty()) {
-                        Logger.error(id() + "(ef) -> Failed to convert datetime " + split[index]);
+                    var date = formatter==null ? ins.toString() : formatter.format(ins);
+                    if (date.isEmpty()) {
+                        Logger.error(id() + "(ef) -> Failed to convert datetime " + split.field(index));
                         return null;
                     }
-                    return String.join(delimiter, split);
-                }catch(IllegalArgumentException | DateTimeException e){
+                    split.setField(index,date);
+                    return split;
+                }catch(DateTimeException e){
                     Logger.error( id() + "(ef) -> Invalid format in millis to date: "+to+" -> "+e.getMessage());
                     return null;
                 }
             }
-            Logger.error(id+"(ef) -> To few elements after split for millistodate in "+input);
+            Logger.error(id+"(ef) -> To few elements after split for millistodate in "+split.line());
             return null;
-        };
-        edits.add(edit);
+        });
     }
     /**
      * Alter the formatting of a date field
@@ -328,28 +364,45 @@ private void addMillisToDate( String to, int index, String delimiter ){
      * @param delimiter The delimiter to split the data
      */
     private void addRedate( String from, String to, int index, String delimiter ){
-        rulesString.add( new String[]{"","redate",from+" -> "+to} );
         String deli;
         if( delimiter.equalsIgnoreCase("*")){
             deli="\\*";
         }else{
             deli=delimiter;
         }
-        Function<String,String> edit = input ->
+        // Make the formatters once instead of for every line, null as input means epoch
+        DateTimeFormatter in;
+        DateTimeFormatter out;
+        try {
+            if( from.startsWith("epoch") ){
+                in = null;
+                out = DateTimeFormatter.ofPattern(to).withLocale(Locale.ENGLISH).withZone(ZoneId.of("UTC"));
+            }else{
+                in = DateTimeFormatter.ofPattern(from).withLocale(Locale.ENGLISH);
+                out = DateTimeFormatter.ofPattern(to);
+            }
+        }catch( IllegalArgumentException e ){
+            Logger.error( id() + "(ef) -> Invalid format in redate from "+from+" to "+to+" -> "+e.getMessage());
+            parsedOk=false;
+            return;
+        }
+        boolean seconds = from.startsWith("epochsec");
+        addEdit( "redate",from+" -> "+to, rec ->
         {
-            String[] split = input.split(deli);
-            if( split.length > index){
-                split[index] = TimeTools.reformatDate(split[index], from, to);
-                if( split[index].isEmpty()) {
-                    Logger.error( id() + " -> Failed to convert datetime "+input.split(deli)[index]);
+            var split = rec.as(deli);
+            if( split.size() > index){
+                var ori = split.field(index);
+                var date = TimeTools.reformatDate( seconds?ori+"000":ori, in, out);
+                if( date.isEmpty()) {
+                    Logger.error( id() + " -> Failed to convert datetime "+ori);
                     return null;
                 }
-                return String.join(deli,split);
+                split.setField(index,date);
+                return split;
             }
-            Logger.error(id+" -> To few elements after split for redate in "+input);
+            Logger.error(id+" -> To few elements after split for redate in "+split.line());
             return null;
-        };
-        edits.add(edit);
+        });
     }
     /**
      * Alter the formatting of a time field
@@ -359,43 +412,49 @@ private void addRedate( String from, String to, int index, String delimiter ){
      * @param delimiter The delimiter to split the data
      */
     private void addRetime( String from, String to, int index, String delimiter ){
-        rulesString.add( new String[]{"","retime",from+" -> "+to} );
         String deli;
         if( delimiter.equalsIgnoreCase("*")){
             deli="\\*";
         }else{
             deli=delimiter;
         }
-        Function<String,String> edit = input ->
+        DateTimeFormatter in;
+        DateTimeFormatter out;
+        try {
+            in = DateTimeFormatter.ofPattern(from);
+            out = DateTimeFormatter.ofPattern(to);
+        }catch( IllegalArgumentException e ){
+            Logger.error( id() + "(ef) -> Invalid format in retime from "+from+" to "+to+" -> "+e.getMessage());
+            parsedOk=false;
+            return;
+        }
+        addEdit( "retime",from+" -> "+to, rec ->
         {
-            String[] split = input.split(deli);
-            if( split.length > index){
-                split[index] = TimeTools.reformatTime(split[index],from,to);
-                if( split[index].isEmpty()) {
-                    Logger.error(id+"(ef) -> Tried to retime "+input+" but no such index "+index);
+            var split = rec.as(deli);
+            if( split.size() > index){
+                var time = TimeTools.reformatTime(split.field(index),in,out);
+                if( time.isEmpty()) {
+                    Logger.error(id+"(ef) -> Tried to retime "+split.line()+" but no such index "+index);
                     return null;
                 }
-                return String.join(deli,split);
+                split.setField(index,time);
+                return split;
             }
-            Logger.error(id+" -> To few elements after split for retime in "+input);
+            Logger.error(id+" -> To few elements after split for retime in "+split.line());
             return null;
-        };
-        edits.add(edit);
+        });
     }
     private void addRexsplit( String delimiter, String regex){
-        rulesString.add( new String[]{"","rexsplit","deli:"+delimiter+" ->"+regex} );
-
         var results = Pattern.compile(regex);
 
-        Function<String,String> edit = input ->
+        addLineEdit( "rexsplit","deli:"+delimiter+" ->"+regex, input ->
         {
             var items = results.matcher(input)
                     .results()
                     .map(MatchResult::group)
                     .toArray(String[]::new);
             return String.join(delimiter,items);
-        };
-        edits.add(edit);
+        });
     }
     /**
      * Split a data string according to the given delimiter, then stitch it back together based on resplit
@@ -404,8 +463,6 @@ private void addRexsplit( String delimiter, String regex){
      */
     private void addResplit( String delimiter, String resplit, String error, boolean append){
 
-        rulesString.add( new String[]{"","resplit","deli:"+delimiter+" ->"+resplit} );
-
         var is = Pattern.compile("i[0-9]{1,3}")
                 .matcher(resplit)
                 .results()
@@ -433,33 +490,33 @@ private void addResplit( String delimiter, String resplit, String error, boolean
             deli=delimiter;
         }
 
-        Function<String,String> edit = input ->
+        addEdit( "resplit","deli:"+delimiter+" ->"+resplit, rec ->
         {
-            String[] inputEles = input.split(deli); // Get the source data
+            var split = rec.as(deli); // Get the source data
+            var used = new boolean[split.size()];
 
             StringJoiner join = new StringJoiner("",filler.length==0?"": ValTools.parseRTline(filler[0],error,rtvals),"");
             for( int a=0;a<indexes.length;a++){
-                try {
-                    join.add(inputEles[indexes[a]]);
-                    if( filler.length>a+1)
-                        join.add( ValTools.parseRTline(filler[a+1],error,rtvals));
-                    inputEles[indexes[a]] = null;
-                }catch( IndexOutOfBoundsException e){
-                    Logger.error(id+"(ef) -> Out of bounds when processing: "+input);
+                if( indexes[a] >= used.length ){
+                    Logger.error(id+"(ef) -> Out of bounds when processing: "+split.line());
                     return null;
                 }
+                join.add(split.field(indexes[a]));
+                if( filler.length>a+1)
+                    join.add( ValTools.parseRTline(filler[a+1],error,rtvals));
+                used[indexes[a]] = true;
             }
-            if( indexes.length!=inputEles.length && append){
+            if( indexes.length!=used.length && append){
                 StringJoiner rest = new StringJoiner(delimiter,delimiter,"");
-                for( var a : inputEles){
-                    if( a!=null)
-                        rest.add(a);
+                for( int a=0;a<used.length;a++){
+                    if( !used[a] )
+                        rest.add(split.field(a));
                 }
                 join.add(rest.toString());
             }
-            return join.toString();
-        };
-        edits.add(edit);
+            rec.replaceLine(join.toString());
+            return rec;
+        });
     }
     private void addIndexReplace( int index, String delimiter, String value ){
         if( index==-1) {
@@ -467,34 +524,35 @@ private void addIndexReplace( int index, String delimiter, String value ){
             return;
         }
         if( value.isEmpty() ) {
-            rulesString.add( new String[]{"","removeindex","i"+index} );
             if( index==0 ){
-                edits.add( input -> {
+                addLineEdit( "removeindex","i"+index, input -> {
                     int a = input.indexOf(delimiter);
                     if( a == -1 )
                         return input;
                     return input.substring(a);
                 });
             }else {
-                edits.add(input -> {
-                    var its = input.split(delimiter);
-                    var list = Arrays.asList(its);
-                    if (index < list.size()) {
-                        list.remove(index);
-                    } else {
-                        Logger.error(id+"(ef) -> Tried to remove index " + index + " from " + input + " but no such thing.");
+                addEdit( "removeindex","i"+index, rec -> {
+                    var its = rec.as(delimiter);
+                    if (index >= its.size()) {
+                        Logger.error(id+"(ef) -> Tried to remove index " + index + " from " + its.line() + " but no such thing.");
                         return null;
                     }
-                    return String.join(delimiter, list);
+                    var join = new StringJoiner(delimiter);
+                    for( int a=0;a<its.size();a++ ){
+                        if( a!=index )
+                            join.add(its.field(a));
+                    }
+                    its.replaceLine(join.toString());
+                    return its;
                 });
             }
         }else{
-            rulesString.add( new String[]{"","indexreplace","i"+index+"->"+value} );
-            edits.add(input -> {
-                var its = input.split(delimiter);
-                if (its.length > index)
-                    its[index] = ValTools.parseRTline(value, its[index], rtvals);
-                return String.join(delimiter, its);
+            addEdit( "indexreplace","i"+index+"->"+value, rec -> {
+                var its = rec.as(delimiter);
+                if (its.size() > index)
+                    its.setField(index, ValTools.parseRTline(value, its.field(index), rtvals));
+                return its;
             });
         }
     }
@@ -503,20 +561,17 @@ private void addIndexReplace( int index, String delimiter, String value ){
      * @param addition The string to add at the start
      */
     private void addPrepend( String addition ){
-        rulesString.add( new String[]{"","prepend","add:"+addition} );
-        edits.add( input -> addition+input );
+        addLineEdit( "prepend","add:"+addition, input -> addition+input );
     }
     /**
      * Add a string to the end of the data
      * @param addition The string to add at the end
      */
     private void addAppend( String addition ){
-        rulesString.add( new String[]{"","append","add:"+addition} );
-        edits.add(  input -> input+addition );
+        addLineEdit( "append","add:"+addition, input -> input+addition );
     }
     private void addInsert( int position, String addition ){
-        rulesString.add( new String[]{"","insert","add:"+addition+" at "+position} );
-        edits.add( input -> {
+        addLineEdit( "insert","add:"+addition+" at "+position, input -> {
             if( input.length() < position ) {
                 Logger.error(id+"(ef) -> Tried to insert "+addition+" at "+position+" but input string to short -> >"+input+"<");
                 return null;
@@ -525,38 +580,53 @@ private void addInsert( int position, String addition ){
         } );
     }
     private void addReplacement( String find, String replace){
-        edits.add( input -> input.replace(Tools.fromEscapedStringToBytes(find),Tools.fromEscapedStringToBytes(replace)) );
-        rulesString.add( new String[]{"","replace","from "+find+" -> "+replace} );
+        var f = Tools.fromEscapedStringToBytes(find);
+        var r = Tools.fromEscapedStringToBytes(replace);
+        addLineEdit( "replace","from "+find+" -> "+replace, input -> input.replace(f,r) );
     }
     private void addTrim( ){
-        rulesString.add( new String[]{"","Trim","Trim spaces "} );
-        edits.add(String::trim);
+        addLineEdit( "Trim","Trim spaces ", String::trim );
     }
     private void addRexRemove( String find ){
-        rulesString.add( new String[]{"","regexremove","Remove "+find} );
-        edits.add( input -> input.replaceAll(find,"" ) );
+        var pattern = Pattern.compile(find);
+        addLineEdit( "regexremove","Remove "+find, input -> pattern.matcher(input).replaceAll("") );
     }
     private void addRegexReplacement( String find, String replace){
         String r = replace.isEmpty()?" ":replace;
-        rulesString.add( new String[]{"","regexreplace","from "+find+" -> '"+r+"'"} );
-        edits.add( input -> input.replaceAll(find,r ) );
+        var pattern = Pattern.compile(find);
+        addLineEdit( "regexreplace","from "+find+" -> '"+r+"'", input -> pattern.matcher(input).replaceAll(r) );
     }
     private void addCutStart(int characters ){
-        rulesString.add( new String[]{"","cropstart","remove "+characters+" chars from start of data"} );
-        edits.add( input -> input.length()>characters?input.substring(characters):null );
+        addLineEdit( "cropstart","remove "+characters+" chars from start of data", input -> input.length()>characters?input.substring(characters):null );
     }
     private void addCutEnd( int characters ){
-        rulesString.add( new String[]{"","cutend","remove "+characters+" chars from end of data"} );
-        edits.add( input -> input.length()>characters?input.substring(0,input.length()-characters):null );
+        addLineEdit( "cutend","remove "+characters+" chars from end of data", input -> input.length()>characters?input.substring(0,input.length()-characters):null );
     }
     private void converToAscii(String delimiter){
-        rulesString.add( new String[]{"","tochar","convert delimited data to char's"} );
-        edits.add( input -> {
-            var join = new StringJoiner("");
-            Arrays.stream(input.split(delimiter)).forEach( x -> join.add(String.valueOf((char) NumberUtils.createInteger(x).intValue())));
-            return join.toString();
+        addEdit( "tochar","convert delimited data to char's", rec -> {
+            var join = new StringBuilder();
+            for( var x : rec.as(delimiter).fields() )
+                join.append((char) NumberUtils.createInteger(x).intValue());
+            rec.replaceLine(join.toString());
+            return rec;
         } );
     }
+    /**
+     * Apply all the edits to the record
+     * @param rec The record to edit
+     * @return The edited record, this might not be the one given, or null if an edit failed
+     */
+    private ParsedRecord applyEdits( ParsedRecord rec ){
+        for( var edit:edits){
+            long start = System.nanoTime();
+            rec = edit.op.apply(rec);
+            edit.nanos.add(System.nanoTime()-start);
+            edit.count.increment();
+            if( rec == null )
+                return null;
+        }
+        return rec;
+    }
     /**
      * Test the workings of the editor by giving a string to process
      * @param input The string to process
@@ -564,12 +634,41 @@ private void converToAscii(String delimiter){
      */
     public String test( String input ){
         Logger.info(id+" -> From: "+input);
-        for( var edit:edits){
-            input = edit.apply(input);
-        }
+        var rec = applyEdits(ParsedRecord.of(input,delimiter));
+        input = rec==null?null:rec.line();
         Logger.info(id+" -> To:   "+input);
         return input;
     }
+    /**
+     * Get a readable list of the edits with the average time each one takes
+     * @return The listing of the edits
+     */
+    @Override
+    public String getRules(){
+        if( !parsedOk )
+            return "Failed to parse, check logs";
+        if( edits.isEmpty() )
+            return " -> No edits yet.";
+        int index=0;
+        StringJoiner join = new StringJoiner("\r\n");
+        for( var edit : edits ){
+            long count = edit.count.sum();
+            var avg = count==0 ? "-" : String.format("%.1fµs", edit.nanos.sum()/1000.0/count);
+            join.add("\t" + (index++) + " : " + edit.info + " -> " + count + "x, avg " + avg);
+        }
+        return join.toString();
+    }
+    private static class Edit{
+        final String info;
+        final UnaryOperator<ParsedRecord> op;
+        final LongAdder nanos = new LongAdder();
+        final LongAdder count = new LongAdder();
+
+        Edit( String info, UnaryOperator<ParsedRecord> op ){
+            this.info=info;
+            this.op=op;
+        }
+    }
     @Override
     protected String getXmlChildTag() {
         return "editor";
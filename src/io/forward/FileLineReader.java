@@ -0,0 +1,250 @@
+package io.forward;
+
+import org.tinylog.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads lines from a list of files one after the other. The file is kept open, so reading continues where it stopped
+ * instead of starting from the beginning again. Files ending on .gz are decompressed while reading and all the entries
+ * in a .zip file are read in order.
+ * The position is kept as a byte offset in the (decompressed) data, so reading can be resumed later on. For a regular
+ * file this is a seek, for compressed ones the data up to that point needs to be decompressed again.
+ */
+class FileLineReader implements Closeable {
+
+    private final List<Path> files;
+    private final int skip;             // Lines to skip at the start of each file (fe. header)
+    private int fileIndex=-1;
+
+    private InputStream in;
+    private FileChannel channel;        // Not null if the current file isn't compressed
+    private ZipInputStream zip;         // Not null if the current file is a zip
+    private String entry="";            // Name of the current zip entry
+    private long offset=0;              // Bytes consumed in the current file or entry
+    private long lines=0;               // Lines read from the current file or entry
+
+    private final byte[] buffer = new byte[64*1024];
+    private int pos=0;
+    private int limit=0;
+    private byte[] lineBytes = new byte[256];
+
+    private Consumer<Path> onFinished;  // Called when a file has been read completely
+
+    /**
+     * Create a reader for the given files, if one of them is a directory, the files in it are read in alphabetical order
+     * @param paths The files and/or directories
+     * @param skip The amount of lines to skip at the start of each file
+     */
+    FileLineReader( List<Path> paths, int skip ){
+        this.skip=skip;
+        files = new ArrayList<>();
+        for( var p : paths ){
+            if( Files.isDirectory(p) ){
+                try( var str = Files.list(p) ){
+                    str.filter(Files::isRegularFile).sorted().forEach(files::add);
+                } catch (IOException e) {
+                    Logger.error(e);
+                }
+            }else{
+                files.add(p);
+            }
+        }
+    }
+    void onFinished( Consumer<Path> onFinished ){
+        this.onFinished=onFinished;
+    }
+    int fileCount(){
+        return files.size();
+    }
+    int filesLeft(){
+        return Math.max(0,files.size()-Math.max(0,fileIndex));
+    }
+    /**
+     * @return The file being read or null if none
+     */
+    Path currentFile(){
+        return fileIndex >=0 && fileIndex < files.size() ? files.get(fileIndex) : null;
+    }
+    String currentEntry(){
+        return entry;
+    }
+    long offset(){
+        return offset;
+    }
+    long lines(){
+        return lines;
+    }
+    /**
+     * Continue reading from the given position instead of the start
+     * @param file The file to start in
+     * @param entry The entry in the zip file or empty if not a zip
+     * @param offset The byte offset in the file or entry
+     * @param lines The amount of lines already read before the offset
+     * @return True if the file was found and the position could be reached
+     */
+    boolean seek( Path file, String entry, long offset, long lines ){
+        close();
+        int index = files.indexOf(file);
+        if( index == -1 ){
+            Logger.warn("Can't resume from "+file+", not in the list of files");
+            return false;
+        }
+        fileIndex = index-1;
+        try {
+            if( !openNext() )
+                return false;
+            if( zip != null && !entry.isEmpty() ){
+                while( !this.entry.equals(entry) ){
+                    if( !nextEntry() ){
+                        Logger.warn("Can't resume from "+file+", no entry "+entry);
+                        return false;
+                    }
+                }
+            }
+            if( channel != null ){
+                channel.position(offset);
+            }else{
+                in.skipNBytes(offset); // Can't seek in compressed data
+            }
+            this.offset=offset;
+            this.lines=lines;
+            return true;
+        } catch (IOException e) {
+            Logger.error("Failed to resume from "+file+" at "+offset+" -> "+e.getMessage());
+            return false;
+        }
+    }
+    /**
+     * Read the next line, going to the next file if the current one is finished
+     * @return The line or null if all the files have been read
+     */
+    String next(){
+        while( true ){
+            try {
+                if( in == null && !openNext() )
+                    return null;
+                var line = readLine();
+                if( line != null ){
+                    lines++;
+                    if( lines <= skip )
+                        continue;
+                    return line;
+                }
+                // Current file or entry is done
+                if( zip != null && nextEntry() )
+                    continue;
+                var done = files.get(fileIndex);
+                closeCurrent();
+                if( onFinished != null )
+                    onFinished.accept(done);
+            } catch (IOException e) {
+                Logger.error("Failed to read "+currentFile()+" -> "+e.getMessage());
+                closeCurrent(); // Skip the rest of this file
+            }
+        }
+    }
+    /**
+     * Open the next file in the list
+     * @return False if there are no more files
+     */
+    private boolean openNext() throws IOException{
+        pos=0;
+        limit=0;
+        offset=0;
+        lines=0;
+        entry="";
+        zip=null;
+        channel=null;
+        fileIndex++;
+        if( fileIndex >= files.size() )
+            return false;
+        var file = files.get(fileIndex);
+        var name = file.getFileName().toString().toLowerCase();
+        Logger.info("Started reading "+file);
+        if( name.endsWith(".gz") ){
+            in = new GZIPInputStream(Files.newInputStream(file),buffer.length);
+        }else if( name.endsWith(".zip") ){
+            zip = new ZipInputStream(Files.newInputStream(file));
+            in = zip;
+            if( !nextEntry() )
+                Logger.warn("No files in "+file);
+        }else{
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            in = Channels.newInputStream(channel);
+        }
+        return true;
+    }
+    private boolean nextEntry() throws IOException{
+        ZipEntry ze;
+        do{
+            ze = zip.getNextEntry();
+        }while( ze != null && ze.isDirectory() );
+        pos=0;
+        limit=0;
+        offset=0;
+        lines=0;
+        entry = ze==null?"":ze.getName();
+        return ze!=null;
+    }
+    /**
+     * Read bytes till the next newline, \r\n is also accepted
+     * @return The line or null if the end of the file was reached
+     */
+    private String readLine() throws IOException{
+        int len=0;
+        while( true ){
+            if( pos == limit ){
+                limit = in.read(buffer,0,buffer.length);
+                pos=0;
+                if( limit <= 0 ){
+                    limit=0;
+                    if( len == 0 )
+                        return null;
+                    break; // Last line without a newline
+                }
+            }
+            byte b = buffer[pos++];
+            offset++;
+            if( b == '\n' )
+                break;
+            if( len == lineBytes.length )
+                lineBytes = Arrays.copyOf(lineBytes,len*2);
+            lineBytes[len++]=b;
+        }
+        if( len > 0 && lineBytes[len-1]=='\r' )
+            len--;
+        return new String(lineBytes,0,len,StandardCharsets.UTF_8);
+    }
+    private void closeCurrent(){
+        if( in != null ){
+            try {
+                in.close();
+            } catch (IOException e) {
+                Logger.error(e);
+            }
+        }
+        in=null;
+        zip=null;
+        channel=null;
+    }
+    @Override
+    public void close(){
+        closeCurrent();
+    }
+}
@@ -5,6 +5,8 @@
 import org.apache.commons.lang3.math.NumberUtils;
 import org.tinylog.Logger;
 import org.w3c.dom.Element;
+import util.data.ParsedRecord;
+import util.math.MathProgram;
 import util.math.MathUtils;
 import util.taskblocks.CheckBlock;
 import util.tools.Tools;
@@ -12,16 +14,25 @@
 import worker.Datagram;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
 import java.util.StringJoiner;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.regex.MatchResult;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 public class FilterForward extends AbstractForward {
 
-    protected ArrayList<Predicate<String>> rules = new ArrayList<>();// Rules that define the filters
+    private final ArrayList<Rule> rules = new ArrayList<>();          // Rules that define the filters, cheapest first
+    private final ArrayList<String> delimiters = new ArrayList<>();   // Delimiters used by the rules that split
+    private final ArrayList<TextIds> textIds = new ArrayList<>();     // Texts and their id in the matcher
+    private TextMatcher matcher;
+    private Map<String,TextMatcher> matchers;   // Matchers of the path this is in, by source
+    private boolean linked=false;
     private final ArrayList<AbstractForward> reversed = new ArrayList<>();
     private boolean negate=false; // If the filter is negated or not
 
@@ -35,18 +46,23 @@ public FilterForward(Element ele, BlockingQueue<Datagram> dQueue  ){
 
     @Override
     protected boolean addData(String data) {
-
-        if( doFilter(data) ){
+        return addRecord( ParsedRecord.of(data,delimiter) );
+    }
+    @Override
+    protected boolean addRecord( ParsedRecord rec ) {
+        String data = rec.line();
+        if( doFilter(rec) ){
             // Use multithreading so the writables don't have to wait for the whole process
-            nextSteps.parallelStream().forEach( ns -> ns.writeLine(id(),data));
             targets.parallelStream().forEach( wr -> wr.writeLine(id(),data));
 
             if( log )
                 Logger.tag("RAW").info( id() + "\t" + data);
 
-            applyDataToStore(data);
+            applyDataToStore(rec);
+            passToSteps(rec);
         }else{
-            reversed.parallelStream().forEach( ns-> ns.writeLine(data) );
+            metrics.dropped();
+            handTo(reversed,rec);
         }
         if( !cmds.isEmpty())
             cmds.forEach( cmd->dQueue.add(Datagram.system(cmd).writable(this)));
@@ -115,6 +131,27 @@ public String toString(){
         return join.toString();
     }
 
+    @Override
+    protected void addStats( StringJoiner join, String indent ){
+        super.addStats(join,indent);
+        reversed.forEach( ns -> ns.addStats(join,indent+"  ! "));
+    }
+    @Override
+    protected void useBranches( Supplier<Branch> branches ){
+        super.useBranches(branches);
+        useBranches(reversed,branches);
+        reversed.forEach( ns -> ns.useBranches(branches) );
+    }
+    @Override
+    protected void tickStats(){
+        super.tickStats();
+        reversed.forEach(AbstractForward::tickStats);
+    }
+    @Override
+    protected void resetStats(){
+        super.resetStats();
+        reversed.forEach(AbstractForward::resetStats);
+    }
     protected String getXmlChildTag(){
         return "filter";
     }
@@ -132,6 +169,10 @@ public boolean readFromXML( Element filter ){
         negate = dig.attr("negate",false);
 
         rules.clear();
+        delimiters.clear();
+        textIds.clear();
+        matcher=null;
+        linked=false;
         // For a filter with multiple rules
         if( dig.hasPeek("rule")){ // if rules are defined as nodes
             // Process all the types except 'start'
@@ -233,56 +274,57 @@ public void addRule(String type, String value){
 
     /* Filters */
     public void addItemAtIndex( int index, String deli, String val ){
-        rules.add( p -> {
-            var items = p.split(deli);
-            return items.length > index && items[index].equals(val);
-        });
+        addRule( "item "+index+" is "+val, 4, deli, p -> p.size() > index && p.field(index).equals(val) );
     }
     public void addItemCount( String deli, int min, int max ){
-        rules.add( p -> {
-            var items = p.split(deli);
-            return items.length >= min && items.length <= max;
-        });
+        addRule( "between "+min+" and "+max+" items", 4, deli, p -> p.size() >= min && p.size() <= max );
     }
     public void addItemMinCount( String deli, int min ){
-        rules.add( p -> p.split(deli).length >= min );
+        addRule( "at least "+min+" items", 4, deli, p -> p.size() >= min );
     }
     public void addItemMaxCount( String deli, int max ){
-        rules.add( p -> p.split(deli).length <= max );
+        addRule( "at most "+max+" items", 4, deli, p -> p.size() <= max );
     }
     public void addStartsWith( String with ){
-        rules.add( p -> p.startsWith(with) );
+        addTextRule( "start with "+with, TextMatcher.START, false, with );
     }
     public void addRegex( String regex ){
-        rules.add( p -> p.matches(regex));
+        var pattern = Pattern.compile(regex);
+        addRule( "matches "+regex, 6, null, p -> pattern.matcher(p.line()).matches() );
     }
     public void addStartsNotWith( String with ){
-        rules.add( p -> !p.startsWith(with) );
+        addTextRule( "doesn't start with "+with, TextMatcher.START, true, with );
     }
     public void addStartOptions( String... withs ){
         Logger.info(id+" -> Multi start"+String.join(",",withs));
         rulesString.add( new String[]{"",String.join(" or ",withs),"start with"} );
-        rules.add( p ->  Stream.of(withs).anyMatch( p::startsWith));
+        addTextRule( "start with "+String.join(" or ",withs), TextMatcher.START, false, withs );
     }
     public void addContains( String contains ){
-        rules.add( p -> p.contains(contains) );
+        addTextRule( "contains "+contains, TextMatcher.CONTAIN, false, contains );
     }
     public void addContainsNot( String contains ){
-        rules.add( p -> !p.contains(contains) );
+        addTextRule( "doesn't contain "+contains, TextMatcher.CONTAIN, true, contains );
     }
     public void addEndsWith( String with ){
-        rules.add( p -> p.endsWith(with) );
+        addTextRule( "end with "+with, TextMatcher.END, false, with );
     }
     public void addCharAt( int index, char c ){
-        rules.add( p -> index >=0 && index < p.length() && p.charAt(index)==c);
+        addRule( "char at "+index+" is "+c, 0, null, p -> {
+            var line = p.line();
+            return index >=0 && index < line.length() && line.charAt(index)==c;
+        });
     }
     public void addCharFromEnd( int index, char c ){
-        rules.add( p -> index >=0 && p.length() > index && p.charAt(p.length()-index-1)==c );
+        addRule( "char at "+index+" from end is "+c, 0, null, p -> {
+            var line = p.line();
+            return index >=0 && line.length() > index && line.charAt(line.length()-index-1)==c;
+        });
     }
-    public void addMinimumLength( int length ){ rules.add( p -> p.length() >= length); }
-    public void addMaximumLength( int length ){ rules.add( p -> p.length() <= length); }
+    public void addMinimumLength( int length ){ addRule( "minimum length "+length, 0, null, p -> p.line().length() >= length); }
+    public void addMaximumLength( int length ){ addRule( "maximum length "+length, 0, null, p -> p.line().length() <= length); }
 
-    public void addNMEAcheck( boolean ok ){ rules.add( p -> (MathUtils.doNMEAChecksum(p))==ok ); }
+    public void addNMEAcheck( boolean ok ){ addRule( "nmea checksum "+(ok?"ok":"wrong"), 3, null, p -> (MathUtils.doNMEAChecksum(p.line()))==ok ); }
     /* Complicated ones? */
     public void addCheckBlock(String delimiter, String value){
 
@@ -296,43 +338,187 @@ public void addCheckBlock(String delimiter, String value){
                 .toArray(Integer[]::new);
 
         var block = CheckBlock.prepBlock(null,value);
-        if( !block.build() )
+        var programOpt = block==null ? Optional.<MathProgram>empty() : block.getProgram();
+        if( programOpt.isEmpty() ) {
+            Logger.error(id+" (ff) -> Failed to compile math check "+value);
             return;
-        rules.add( p -> {
-            try {
-                String[] vals = p.split(delimiter);
-                for( int index : is) {
-                    if( !block.alterSharedMem(index, NumberUtils.toDouble(vals[index])) ){
-                        Logger.error(id+" (ff) -> Tried to add a NaN to shared mem");
-                        return false;
-                    }
-                }
-                return block.start(null);
-            } catch (ArrayIndexOutOfBoundsException e) {
-                Logger.error(id + "(ff) -> Index out of bounds when trying to find the number in "+p+" for math check.");
+        }
+        var program = programOpt.get();
+        int inputs = Math.max( program.requiredInputs(), is.length==0?0:is[is.length-1]+1 );
+        var buffer = ThreadLocal.withInitial( () -> new double[inputs] ); // Reused, only the indexes in is are written
+        addRule( "math "+value, 5, delimiter, vals -> {
+            if( is.length!=0 && vals.size() <= is[is.length-1] ){
+                Logger.error(id + "(ff) -> Index out of bounds when trying to find the number in "+vals.line()+" for math check.");
                 return false;
             }
+            var data = buffer.get();
+            for( int index : is) {
+                data[index] = vals.number(index);
+                if( Double.isNaN(data[index]) ){
+                    Logger.error(id+" (ff) -> Not a number at index "+index+" in "+vals.line());
+                    return false;
+                }
+            }
+            return program.test(data);
         });
     }
+    /**
+     * Add a rule, the rules are kept ordered on cost so the cheap ones can reject the data first
+     * @param info Readable info on the rule
+     * @param cost Relative cost, 0 for the ones that only look at a couple of chars
+     * @param delimiter The delimiter if the rule needs the split data, null if it uses the line
+     * @param check The check to do
+     */
+    private void addRule( String info, int cost, String delimiter, Predicate<ParsedRecord> check ){
+        int slot = -1;
+        if( delimiter != null ){ // Rules on the same delimiter share the split
+            slot = delimiters.indexOf(delimiter);
+            if( slot == -1 ){
+                delimiters.add(delimiter);
+                slot = delimiters.size()-1;
+            }
+        }
+        var rule = new Rule(info,cost,slot,check);
+        int pos = rules.size();
+        while( pos > 0 && rules.get(pos-1).cost > cost ) // Keep the order of rules with the same cost
+            pos--;
+        rules.add(pos,rule);
+    }
+    /**
+     * Add a rule that checks for text at the start, end or anywhere in the line. If enough of these rules exist for
+     * the source, a single scan of the line is shared by all those rules
+     * @param info Readable info on the rule
+     * @param mode TextMatcher.START, END or CONTAIN
+     * @param not True if the text shouldn't be found
+     * @param texts The text(s) to look for, one match is enough
+     */
+    private void addTextRule( String info, int mode, boolean not, String... texts ){
+        var ids = new int[texts.length];
+        Arrays.fill(ids,-1); // Filled in when linked to the matcher
+        textIds.add(new TextIds(texts,ids));
+
+        addRule( info, mode==TextMatcher.CONTAIN?2:1, null, p -> {
+            var line = p.line();
+            var m = matcher;
+            TextMatcher.Scan scan = m != null && ids[0] != -1 && m.size() >= TextMatcher.MIN_PATTERNS ? m.scan(line) : null;
+            for( int a=0;a<texts.length;a++ ){
+                boolean found;
+                if( scan != null ){
+                    found = scan.has(mode,ids[a]);
+                }else{
+                    found = switch( mode ){
+                        case TextMatcher.START -> line.startsWith(texts[a]);
+                        case TextMatcher.END -> line.endsWith(texts[a]);
+                        default -> line.contains(texts[a]);
+                    };
+                }
+                if( found )
+                    return !not;
+            }
+            return not;
+        });
+    }
+    /**
+     * Set the matchers that are shared by the filters of a path
+     * @param matchers The matchers by source
+     */
+    void useMatchers( Map<String,TextMatcher> matchers ){
+        this.matchers=matchers;
+    }
+    /**
+     * Register the text rules at the matcher shared with the other filters that get data from the same source
+     */
+    private synchronized void linkMatcher(){
+        if( linked )
+            return;
+        String key;
+        if( parent != null ){ // Part of a path, so the siblings share the source
+            key = "step:"+parent.id()+"@"+Integer.toHexString(System.identityHashCode(parent));
+        }else{
+            key = String.join(";",sources);
+        }
+        if( matchers != null && !key.isEmpty() && !textIds.isEmpty() ){
+            var m = matchers.computeIfAbsent(key.toLowerCase(), k -> new TextMatcher());
+            for( var textId : textIds ){
+                for( int a=0;a<textId.texts.length;a++ )
+                    textId.ids[a] = m.register(textId.texts[a]);
+            }
+            matcher = m;
+        }
+        linked=true;
+    }
 
     @Override
     public boolean writeLine(String data) {
         return writeString(data);
     }
     public boolean doFilter( String data ){
+        return doFilter( ParsedRecord.of(data,delimiter) );
+    }
+    private boolean doFilter( ParsedRecord rec ){
+        if( !linked )
+            linkMatcher();
 
-        for( Predicate<String> check : rules ){
-            boolean result = check.test(data);
+        var splits = new ParsedRecord[delimiters.size()]; // Each delimiter is only split once
+        for( var rule : rules ){
+            var data = rec;
+            if( rule.slot != -1 ){
+                data = splits[rule.slot];
+                if( data == null ){
+                    data = rec.as(delimiters.get(rule.slot));
+                    splits[rule.slot] = data;
+                }
+            }
+            boolean result = rule.check.test(data);
+            if( result ){
+                rule.hits.increment();
+            }else{
+                rule.misses.increment();
+            }
             if( !result || negate ){
                 if( debug )
-                    Logger.info(id+" -> "+data + " -> Failed");
+                    Logger.info(id+" -> "+rec.line() + " -> Failed on "+rule.info);
                 return false;
             }
         }
         if( debug )
-            Logger.info(id+" -> "+data + " -> Ok");
+            Logger.info(id+" -> "+rec.line() + " -> Ok");
         return true;
     }
+    /**
+     * Get a readable list of the rules in the order they are checked, with the amount of times each passed and failed
+     * @return The listing of the rules
+     */
+    @Override
+    public String getRules(){
+        if( !parsedOk )
+            return "Failed to parse, check logs";
+        if( rules.isEmpty() )
+            return " -> No rules yet.";
+        int index=0;
+        StringJoiner join = new StringJoiner("\r\n");
+        for( var rule : rules )
+            join.add("\t" + (index++) + " : " + rule.info + " -> hits:" + rule.hits.sum() + " misses:" + rule.misses.sum());
+        if( matcher != null )
+            join.add("\tText rules share a matcher with "+matcher.size()+" patterns");
+        return join.toString();
+    }
+    private record TextIds( String[] texts, int[] ids ){}
+    private static class Rule{
+        final String info;
+        final int cost;
+        final int slot;     // Index of the delimiter for the split data, -1 if the line is used
+        final Predicate<ParsedRecord> check;
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+
+        Rule( String info, int cost, int slot, Predicate<ParsedRecord> check ){
+            this.info=info;
+            this.cost=cost;
+            this.slot=slot;
+            this.check=check;
+        }
+    }
     public static String getHelp(String eol){
         StringJoiner join = new StringJoiner(eol);
         var gr = TelnetCodes.TEXT_GREEN;
@@ -0,0 +1,449 @@
+package io.forward;
+
+import io.FanOut;
+import io.Writable;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.tinylog.Logger;
+import org.w3c.dom.Element;
+import util.data.ParsedRecord;
+import util.data.RealtimeValues;
+import util.tools.TimeTools;
+import util.xml.XMLdigger;
+import worker.Datagram;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.StringJoiner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Joins the data received by this step (the master) with data from other sources based on the timestamp. For each
+ * master line, the columns of each other source are added, taken from the line nearest in time or interpolated between
+ * the line before and after it. Only lines within the tolerance are used, otherwise the columns are filled with NaN.
+ * Each source keeps a bounded buffer of recent lines, so a source that goes silent or floods doesn't use more memory.
+ * A master line is held until every source has a line after it or for at most the tolerance, so a line of a source that
+ * arrives a bit later can still be used. Without hold, only the lines received before the master line are used.
+ */
+public class JoinForward extends AbstractForward {
+
+    private final ArrayList<Source> joined = new ArrayList<>();   // The sources joined to the master
+    private final TimeColumn masterTime = new TimeColumn();
+    private long tolerance = 1000;      // Max difference in millis between master and joined line
+    private boolean linear = false;     // Interpolate instead of nearest
+    private boolean hold = true;        // Hold master lines till the sources caught up or the tolerance passed
+    private int maxPending = 100;       // Max master lines held
+    private final LongAdder incomplete = new LongAdder();  // Master lines for which a source had no match
+
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();  // Master lines held, oldest first
+    private final ScheduledExecutorService scheduler;   // Releases the held lines, null if only done on new data
+    private ScheduledFuture<?> releaser;
+
+    public JoinForward( Element ele, BlockingQueue<Datagram> dQueue, RealtimeValues rtvals, ScheduledExecutorService scheduler ){
+        super(dQueue,rtvals);
+        this.scheduler=scheduler;
+        readOk = readFromXML(ele);
+    }
+    @Override
+    protected boolean addData( String data ){
+        return addRecord( ParsedRecord.of(data,delimiter) );
+    }
+    @Override
+    protected boolean addRecord( ParsedRecord rec ){
+        rec = rec.as(delimiter);
+        long now = System.currentTimeMillis();
+        long time = masterTime.get(rec,now);
+        if( hold ){
+            synchronized( this ){
+                pending.add( new Pending(rec,time,now+tolerance) );
+            }
+            release();
+        }else{
+            join(rec,time);
+        }
+        if( noTargets() ){
+            valid=false;
+            return false;
+        }
+        return true;
+    }
+    /**
+     * Join and pass on the held master lines that can't get a better match anymore, oldest first
+     */
+    private synchronized void release(){
+        long now = System.currentTimeMillis();
+        while( !pending.isEmpty() ){
+            var p = pending.peekFirst();
+            if( p.due > now && pending.size() <= maxPending && !caughtUp(p.time) )
+                break;
+            pending.poll();
+            join(p.rec,p.time);
+        }
+        if( scheduler != null && !pending.isEmpty() && releaser == null )
+            releaser = scheduler.schedule( this::releaseByTimer, Math.max(0,pending.peekFirst().due-now), TimeUnit.MILLISECONDS );
+    }
+    private synchronized void releaseByTimer(){
+        releaser = null; // Running, so schedule again if something is left
+        release();
+    }
+    /**
+     * Check if all the sources received a line after the given time, so the match can't change anymore
+     */
+    private boolean caughtUp( long time ){
+        if( time == -1 )
+            return true;
+        for( var src : joined ){
+            if( src.lastTime() < time )
+                return false;
+        }
+        return true;
+    }
+    /**
+     * Add the columns of the sources to the master line and pass it on
+     * @param rec The master line
+     * @param time The time of the master line, -1 if unknown
+     */
+    private void join( ParsedRecord rec, long time ){
+        var texts = new ArrayList<String>();
+        var numbers = new ArrayList<Double>();
+        for( int a=0;a<rec.size();a++ ){
+            texts.add(rec.field(a));
+            numbers.add(rec.number(a));
+        }
+        boolean complete=true;
+        for( var src : joined )
+            complete &= src.addColumns(time,texts,numbers);
+        if( !complete )
+            incomplete.increment();
+
+        var nums = new double[numbers.size()];
+        for( int a=0;a<nums.length;a++ )
+            nums[a] = numbers.get(a);
+        var res = ParsedRecord.ofNumbers(texts.toArray(String[]::new),nums,delimiter); // Joined with the literal delimiter
+        var data = res.line();
+        if( debug )
+            Logger.info(id()+" -> Joined "+data);
+        FanOut.write(targets,id(),data);
+        if( log )
+            Logger.tag("RAW").info( id() + "\t" + data);
+        applyDataToStore(res);
+        passToSteps(res);
+    }
+    @Override
+    protected void requestSource(){
+        super.requestSource();
+        joined.forEach( src -> dQueue.add( Datagram.system(src.cmd).writable(src)) );
+    }
+
+    @Override
+    public boolean readFromXML( Element ele ){
+        parsedOk=true;
+        var dig = XMLdigger.goIn(ele);
+        if( !readBasicsFromXml(dig) )
+            return false;
+
+        tolerance = TimeTools.parsePeriodStringToMillis(dig.attr("tolerance","1s"));
+        linear = dig.attr("mode","nearest").equalsIgnoreCase("linear");
+        int size = dig.attr("buffer",100);
+        hold = dig.attr("hold",true);
+        maxPending = Math.max(1,size);
+        synchronized( this ){ // Anything still held is from the old settings
+            pending.clear();
+            if( releaser != null )
+                releaser.cancel(false);
+            releaser = null;
+        }
+        if( !masterTime.read(dig) ){
+            parsedOk=false;
+            return false;
+        }
+        joined.clear();
+        for( var sub : dig.digOut("source") ){
+            var cmd = sub.value("");
+            if( cmd.isEmpty() )
+                cmd = sub.attr("src","");
+            if( cmd.isEmpty() ){
+                Logger.error(id+"(jf) -> Source node without a src");
+                parsedOk=false;
+                return false;
+            }
+            var src = new Source(cmd, sub.attr("delimiter",delimiter,true), sub.attr("buffer",size));
+            if( !src.read(sub) ){
+                parsedOk=false;
+                return false;
+            }
+            joined.add(src);
+        }
+        if( joined.isEmpty() ){
+            Logger.error(id+"(jf) -> No sources to join");
+            parsedOk=false;
+            return false;
+        }
+        rulesString.clear();
+        rulesString.add(new String[]{"","master","Time from "+masterTime+", "+(linear?"interpolated":"nearest")
+                        +" within "+TimeTools.convertPeriodToString(tolerance, TimeUnit.MILLISECONDS)
+                        +(hold?", held till the sources caught up":", only lines received before")});
+        joined.forEach( src -> rulesString.add(new String[]{"","source",src.info()}) );
+        return true;
+    }
+    @Override
+    public String getRules(){
+        var join = new StringJoiner("\r\n");
+        join.add(super.getRules());
+        join.add("\tIncomplete joins: "+incomplete.sum()+(hold?", held: "+heldCount():""));
+        joined.forEach( src -> join.add("\t"+src.cmd+" -> "+src.counts()) );
+        return join.toString();
+    }
+    private synchronized int heldCount(){
+        return pending.size();
+    }
+    @Override
+    protected String getXmlChildTag(){
+        return "join";
+    }
+
+    /**
+     * A master line waiting to be joined
+     * @param rec The line
+     * @param time The time of the line, -1 if unknown
+     * @param due When it has to be passed on at the latest
+     */
+    private record Pending( ParsedRecord rec, long time, long due ){}
+
+    /**
+     * Where to find the time in a line, if not set the time the line was received is used
+     */
+    private static class TimeColumn{
+        int index=-1;
+        DateTimeFormatter format;   // Null if the column holds epoch seconds or millis
+
+        boolean read( XMLdigger dig ){
+            index=-1;
+            format=null;
+            var time = dig.attr("time","");
+            if( time.isEmpty() )
+                return true;
+            index = NumberUtils.toInt(time.replace("i",""),-1);
+            var f = dig.attr("format","");
+            try {
+                format = f.isEmpty() ? null : DateTimeFormatter.ofPattern(f);
+            }catch( IllegalArgumentException e ){
+                Logger.error("Invalid time format "+f+" -> "+e.getMessage());
+                return false;
+            }
+            return index >= 0;
+        }
+        /**
+         * Get the time of the line in millis since epoch
+         * @param rec The line
+         * @param received When the line was received, used if there's no time column
+         * @return The time or -1 if it couldn't be parsed
+         */
+        long get( ParsedRecord rec, long received ){
+            if( index == -1 )
+                return received;
+            if( index >= rec.size() )
+                return -1;
+            if( format == null ){
+                double epoch = rec.number(index);
+                if( Double.isNaN(epoch) )
+                    return -1;
+                return (long)(epoch < 1e11 ? epoch*1000 : epoch); // Seconds or millis
+            }
+            try {
+                return LocalDateTime.parse(rec.field(index),format).toInstant(ZoneOffset.UTC).toEpochMilli();
+            }catch( DateTimeParseException e ){
+                return -1;
+            }
+        }
+        public String toString(){
+            return index==-1?"reception":"i"+index;
+        }
+    }
+
+    /**
+     * A buffered line of a joined source
+     */
+    private record Entry( long time, double[] values ){}
+
+    /**
+     * A source that is joined, keeps the latest lines received
+     */
+    private class Source implements Writable{
+        final String cmd;
+        final String delim;
+        final int size;
+        int[] columns = new int[0];
+        final TimeColumn time = new TimeColumn();
+        final ArrayDeque<Entry> buffer = new ArrayDeque<>();  // Recent lines, oldest first
+        long lastUsed = -1;     // Time of the last master line joined
+        final LongAdder received = new LongAdder();
+        final LongAdder dropped = new LongAdder();   // Removed because the buffer was full before use
+        final LongAdder late = new LongAdder();      // Arrived after a master line that it should have been joined with
+        final LongAdder bad = new LongAdder();       // No valid time
+        final LongAdder outOfOrder = new LongAdder(); // Older than the last buffered line
+
+        Source( String cmd, String delim, int size ){
+            this.cmd=cmd;
+            this.delim=delim;
+            this.size=Math.max(2,size);
+        }
+        boolean read( XMLdigger dig ){
+            var cs = dig.attr("columns",dig.attr("cols","")).split(",");
+            columns = new int[cs.length];
+            for( int a=0;a<cs.length;a++ ){
+                columns[a] = NumberUtils.toInt(cs[a].trim().replace("i",""),-1);
+                if( columns[a] < 0 ){
+                    Logger.error(id+"(jf) -> Invalid column '"+cs[a]+"' for "+cmd);
+                    return false;
+                }
+            }
+            return time.read(dig);
+        }
+        private void receive( String data ){
+            add(data);
+            if( hold ) // Held master lines might be complete now
+                release();
+        }
+        /**
+         * Add a line received from the source
+         */
+        private synchronized void add( String data ){
+            received.increment();
+            var rec = ParsedRecord.of(data,delim);
+            long t = time.get(rec,System.currentTimeMillis());
+            if( t == -1 ){
+                bad.increment();
+                return;
+            }
+            if( t <= lastUsed ){ // A master line at or after this time was already joined
+                late.increment();
+                if( t < lastUsed-tolerance ) // Too old for the next master lines
+                    return;
+            }
+            if( !buffer.isEmpty() && t < buffer.peekLast().time ){ // Out of order, would break the search
+                outOfOrder.increment();
+                return;
+            }
+            var vals = new double[columns.length];
+            for( int a=0;a<columns.length;a++ )
+                vals[a] = rec.number(columns[a]);
+            buffer.add( new Entry(t,vals) );
+            while( buffer.size() > size ){
+                if( buffer.poll().time > lastUsed-tolerance ) // Could still have been used
+                    dropped.increment();
+            }
+        }
+        /**
+         * Get the time of the newest buffered line
+         * @return The time or -1 if nothing buffered
+         */
+        synchronized long lastTime(){
+            return buffer.isEmpty() ? -1 : buffer.peekLast().time;
+        }
+        /**
+         * Add the columns for the given time to the join
+         * @param master The time of the master line
+         * @param texts The texts of the joined line to add to
+         * @param numbers The numbers of the joined line to add to
+         * @return True if a line was found within the tolerance
+         */
+        synchronized boolean addColumns( long master, ArrayList<String> texts, ArrayList<Double> numbers ){
+            double[] result = master == -1 ? null : find(master);
+            if( master > lastUsed )
+                lastUsed = master;
+            // Lines that are too old to be used for the next master lines can go, but keep one before for interpolation
+            while( buffer.size() > 1 && buffer.peekFirst().time < lastUsed - tolerance && second() <= lastUsed )
+                buffer.poll();
+            for( int a=0;a<columns.length;a++ ){
+                double value = result==null ? Double.NaN : result[a];
+                texts.add( format(value) );
+                numbers.add(value);
+            }
+            return result != null;
+        }
+        private long second(){
+            var it = buffer.iterator();
+            it.next();
+            return it.next().time;
+        }
+        private double[] find( long master ){
+            Entry before=null, after=null;
+            for( var entry : buffer ){
+                if( entry.time <= master ){
+                    before=entry;
+                }else{
+                    after=entry;
+                    break;
+                }
+            }
+            boolean okBefore = before != null && master-before.time <= tolerance;
+            boolean okAfter = after != null && after.time-master <= tolerance;
+            if( linear && okBefore && okAfter ){
+                double f = (double)(master-before.time)/(after.time-before.time);
+                var res = new double[columns.length];
+                for( int a=0;a<res.length;a++ )
+                    res[a] = before.values[a] + f*(after.values[a]-before.values[a]);
+                return res;
+            }
+            if( okBefore && (!okAfter || master-before.time <= after.time-master) )
+                return before.values;
+            return okAfter ? after.values : null;
+        }
+        private String format( double value ){
+            if( value == Math.rint(value) && Math.abs(value) < 1e15 )
+                return String.valueOf((long)value);
+            return String.valueOf(value);
+        }
+        String info(){
+            var c = new StringJoiner(",");
+            for( int col : columns )
+                c.add("i"+col);
+            return cmd+" -> "+c+" with time from "+time+", buffer of "+size;
+        }
+        synchronized String counts(){
+            return received.sum()+" received, "+buffer.size()+" buffered, "+late.sum()+" late, "+dropped.sum()+" dropped, "
+                    +outOfOrder.sum()+" out of order, "+bad.sum()+" bad time";
+        }
+        /* Writable */
+        @Override
+        public boolean writeString( String data ){
+            receive(data);
+            return true;
+        }
+        @Override
+        public boolean writeLine( String data ){
+            receive(data);
+            return true;
+        }
+        @Override
+        public boolean writeLine( String origin, String data ){
+            receive(data);
+            return true;
+        }
+        @Override
+        public boolean writeBytes( byte[] data ){
+            receive(new String(data));
+            return true;
+        }
+        @Override
+        public String id(){
+            return JoinForward.this.id()+"_"+cmd;
+        }
+        @Override
+        public boolean isConnectionValid(){
+            return valid;
+        }
+        @Override
+        public Writable getWritable(){
+            return this;
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package io.forward;
+
+import io.FanOut;
+import org.tinylog.Logger;
+import org.w3c.dom.Element;
+import util.data.ParsedRecord;
+import util.data.RealtimeValues;
+import util.xml.XMLdigger;
+import worker.Datagram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.StringJoiner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Extracts fields from json messages. The paths of the fields are combined in a tree when the xml is read, the message
+ * is then walked once and subtrees that don't hold a field are skipped without building anything. The values of the
+ * fields are given to the next steps and store as a single record, with the numbers already parsed.
+ * A '*' in a path matches every element of an array (or member of an object), each element then gives a record (a
+ * sample). Fields without the '*' are added to each of those.
+ */
+public class JsonForward extends AbstractForward {
+
+    private final ArrayList<Field> fields = new ArrayList<>();
+    private Node root = new Node(null);
+    private boolean sampled = false;    // True if a path holds a '*'
+
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder bad = new LongAdder();      // Messages that aren't valid json
+
+    public JsonForward( Element ele, BlockingQueue<Datagram> dQueue, RealtimeValues rtvals ){
+        super(dQueue,rtvals);
+        readOk = readFromXML(ele);
+    }
+    @Override
+    protected boolean addData( String data ){
+        ArrayList<Row> rows;
+        try{
+            rows = new Parser(data).parse();
+        }catch( IllegalArgumentException | IndexOutOfBoundsException e ){
+            bad.increment();
+            metrics.dropped();
+            if( debug )
+                Logger.info(id()+" -> Invalid json ("+e.getMessage()+"): "+data);
+            return true;
+        }
+        messages.increment();
+        for( var row : rows ){
+            var rec = ParsedRecord.ofNumbers(row.texts,row.numbers,delimiter);
+            String line = rec.line();
+            if( debug )
+                Logger.info(id()+" -> Extracted "+line);
+            FanOut.write(targets,id(),line);
+            if( log )
+                Logger.tag("RAW").info( id() + "\t" + line);
+            applyDataToStore(rec);
+            passToSteps(rec);
+        }
+        samples.add(rows.size());
+        if( noTargets() ){
+            valid=false;
+            return false;
+        }
+        return true;
+    }
+    @Override
+    protected boolean addRecord( ParsedRecord rec ){
+        return addData(rec.line());
+    }
+
+    @Override
+    public boolean readFromXML( Element ele ){
+        parsedOk=true;
+        var dig = XMLdigger.goIn(ele);
+        if( !readBasicsFromXml(dig) )
+            return false;
+
+        fields.clear();
+        root = new Node(null);
+        sampled = false;
+        rulesString.clear();
+        String[] sampleAt = null;   // Path up to the '*'
+
+        for( var fd : dig.digOut("field") ){
+            var path = fd.attr("path","");
+            var keys = splitPath(path);
+            if( keys == null ){
+                Logger.error(id+"(jsf) -> Invalid path '"+path+"'");
+                parsedOk=false;
+                return false;
+            }
+            int star = Arrays.asList(keys).indexOf("*");
+            if( star != -1 ){
+                var prefix = Arrays.copyOf(keys,star);
+                if( Arrays.asList(keys).lastIndexOf("*") != star || (sampleAt != null && !Arrays.equals(sampleAt,prefix)) ){
+                    Logger.error(id+"(jsf) -> Only a single '*' is supported and it should be at the same place in every path: "+path);
+                    parsedOk=false;
+                    return false;
+                }
+                sampleAt = prefix;
+                sampled = true;
+            }
+            var field = new Field(fields.size(),fd.value(path),path,star != -1);
+            fields.add(field);
+            root.add(keys,0,field);
+            rulesString.add(new String[]{"",field.name,path+(field.sampled?" (per sample)":"")});
+        }
+        if( fields.isEmpty() ){
+            Logger.error(id+"(jsf) -> No fields defined");
+            parsedOk=false;
+            return false;
+        }
+        return true;
+    }
+    /**
+     * Split a path in keys, either a json pointer (/a/b/0) or with dots (a.b[0] or a.b.0)
+     * @param path The path
+     * @return The keys or null if the path is empty
+     */
+    private static String[] splitPath( String path ){
+        if( path.isEmpty() )
+            return null;
+        String[] keys;
+        if( path.startsWith("/") ){
+            keys = path.substring(1).split("/",-1);
+            for( int a=0;a<keys.length;a++ )
+                keys[a] = keys[a].replace("~1","/").replace("~0","~");
+        }else{
+            keys = path.replace("[",".").replace("]","").split("\\.",-1);
+        }
+        for( var key : keys ){
+            if( key.isEmpty() && !path.startsWith("/") )
+                return null;
+        }
+        return keys;
+    }
+    @Override
+    public String getRules(){
+        var join = new StringJoiner("\r\n");
+        join.add(super.getRules());
+        join.add("\tMessages "+messages.sum()+(sampled?", samples "+samples.sum():"")+", invalid "+bad.sum());
+        return join.toString();
+    }
+    @Override
+    protected String getXmlChildTag(){
+        return "json";
+    }
+
+    /**
+     * A field to extract
+     * @param index Position in the result
+     * @param name Name used in the listing
+     * @param path The path as given
+     * @param sampled True if it's part of a sample
+     */
+    private record Field( int index, String name, String path, boolean sampled ){}
+
+    /**
+     * A key in the tree of paths
+     */
+    private static class Node{
+        final String key;       // Name of the member, null for the root or '*'
+        final int arrayIndex;   // The key as index in an array, -1 if not a number
+        Node[] children = new Node[0];
+        Node any;               // Matches any member or element ('*')
+        Field[] leaves = new Field[0];  // Fields that end here
+
+        Node( String key ){
+            this.key=key;
+            int index=-1;
+            if( key != null && !key.isEmpty() && key.chars().allMatch(Character::isDigit) && key.length() < 10 )
+                index = Integer.parseInt(key);
+            arrayIndex=index;
+        }
+        void add( String[] keys, int depth, Field field ){
+            if( depth == keys.length ){
+                leaves = Arrays.copyOf(leaves,leaves.length+1);
+                leaves[leaves.length-1]=field;
+                return;
+            }
+            var key = keys[depth];
+            Node next;
+            if( key.equals("*") ){
+                if( any == null )
+                    any = new Node(null);
+                next = any;
+            }else{
+                next = Arrays.stream(children).filter( n -> n.key.equals(key) ).findFirst().orElse(null);
+                if( next == null ){
+                    next = new Node(key);
+                    children = Arrays.copyOf(children,children.length+1);
+                    children[children.length-1]=next;
+                }
+            }
+            next.add(keys,depth+1,field);
+        }
+        /**
+         * Find the child for a member name, the name is compared in place
+         */
+        Node member( String json, int from, int to ){
+            int len = to-from;
+            for( var child : children ){
+                if( child.key.length() == len && json.regionMatches(from,child.key,0,len) )
+                    return child;
+            }
+            return any;
+        }
+        Node member( String name ){
+            for( var child : children ){
+                if( child.key.equals(name) )
+                    return child;
+            }
+            return any;
+        }
+        Node element( int index ){
+            for( var child : children ){
+                if( child.arrayIndex == index )
+                    return child;
+            }
+            return any;
+        }
+    }
+
+    /**
+     * The values of a single record
+     */
+    private static class Row{
+        final String[] texts;
+        final double[] numbers;
+
+        Row( int size ){
+            texts = new String[size];
+            numbers = new double[size];
+            Arrays.fill(texts,"");
+            Arrays.fill(numbers,Double.NaN);
+        }
+    }
+
+    /**
+     * Walks a single message, only the parts that hold a field are looked at
+     */
+    private class Parser{
+        final String json;
+        int pos = 0;
+        final Row top = new Row(fields.size());     // Values of the fields outside a sample
+        final ArrayList<Row> rows = new ArrayList<>();
+        Row current;    // The sample being read, null if not in one
+        boolean escaped;   // The last string read holds an escape
+
+        Parser( String json ){
+            this.json=json;
+        }
+        ArrayList<Row> parse(){
+            value(root);
+            skipWhitespace();
+            if( pos != json.length() )
+                throw new IllegalArgumentException("Data after the end at "+pos);
+            if( !sampled ){
+                rows.add(top);
+                return rows;
+            }
+            for( var row : rows ){ // Add the fields that are outside the samples
+                for( var field : fields ){
+                    if( !field.sampled ){
+                        row.texts[field.index] = top.texts[field.index];
+                        row.numbers[field.index] = top.numbers[field.index];
+                    }
+                }
+            }
+            return rows;
+        }
+        /**
+         * Read the value at the current position
+         * @param node The node it matches with, null if it's not needed
+         */
+        private void value( Node node ){
+            skipWhitespace();
+            if( node == null ){
+                skip();
+                return;
+            }
+            int start = pos;
+            char c = json.charAt(pos);
+            String text;
+            double number = Double.NaN;
+            switch( c ){
+                case '{' -> {
+                    object(node);
+                    text = node.leaves.length==0 ? null : json.substring(start,pos);
+                }
+                case '[' -> {
+                    array(node);
+                    text = node.leaves.length==0 ? null : json.substring(start,pos);
+                }
+                case '"' -> {
+                    int end = string();
+                    text = node.leaves.length==0 ? null : unescape(start+1,end);
+                    if( text != null )
+                        number = ParsedRecord.parseDouble(text);
+                }
+                default -> {
+                    int end = literal();
+                    if( json.startsWith("true",start) ){
+                        text = "true";
+                    }else if( json.startsWith("false",start) ){
+                        text = "false";
+                    }else if( json.startsWith("null",start) ){
+                        text = "";
+                    }else{
+                        number = ParsedRecord.parseDouble(json,start,end);
+                        if( Double.isNaN(number) )
+                            throw new IllegalArgumentException("Invalid value at "+start);
+                        text = node.leaves.length==0 ? null : json.substring(start,end);
+                    }
+                }
+            }
+            for( var field : node.leaves ){
+                var row = field.sampled ? current : top;
+                if( row == null )
+                    continue;
+                row.texts[field.index] = text;
+                row.numbers[field.index] = number;
+            }
+        }
+        private void object( Node node ){
+            pos++; // Skip {
+            skipWhitespace();
+            if( json.charAt(pos) == '}' ){
+                pos++;
+                return;
+            }
+            while( true ){
+                skipWhitespace();
+                if( json.charAt(pos) != '"' )
+                    throw new IllegalArgumentException("Expected a name at "+pos);
+                int start = pos+1;
+                int end = string();
+                Node child;
+                if( escaped ){
+                    child = node.member(unescape(start,end));
+                }else{
+                    child = node.member(json,start,end);
+                }
+                skipWhitespace();
+                if( json.charAt(pos++) != ':' )
+                    throw new IllegalArgumentException("Expected : at "+(pos-1));
+                sample(node,child);
+                if( next('}') )
+                    return;
+            }
+        }
+        private void array( Node node ){
+            pos++; // Skip [
+            skipWhitespace();
+            if( json.charAt(pos) == ']' ){
+                pos++;
+                return;
+            }
+            int index=0;
+            while( true ){
+                sample(node,node.element(index++));
+                if( next(']') )
+                    return;
+            }
+        }
+        /**
+         * Read a member or element, if it matched on a '*' that holds fields of a sample it's a new sample
+         */
+        private void sample( Node parent, Node child ){
+            if( child != null && child == parent.any && current == null && sampled ){
+                current = new Row(fields.size());
+                value(child);
+                rows.add(current);
+                current = null;
+            }else{
+                value(child);
+            }
+        }
+        /**
+         * Move past the separator after a member or element
+         * @param close The character that closes the object or array
+         * @return True if it was closed
+         */
+        private boolean next( char close ){
+            skipWhitespace();
+            char c = json.charAt(pos++);
+            if( c == close )
+                return true;
+            if( c != ',' )
+                throw new IllegalArgumentException("Expected , or "+close+" at "+(pos-1));
+            return false;
+        }
+        /**
+         * Skip a value without looking at its content
+         */
+        private void skip(){
+            char c = json.charAt(pos);
+            if( c == '"' ){
+                string();
+            }else if( c == '{' || c == '[' ){
+                int depth=0;
+                do{
+                    c = json.charAt(pos);
+                    if( c == '"' ){
+                        string();
+                        continue;
+                    }
+                    if( c == '{' || c == '[' ){
+                        depth++;
+                    }else if( c == '}' || c == ']' ){
+                        depth--;
+                    }
+                    pos++;
+                }while( depth > 0 );
+            }else{
+                literal();
+            }
+        }
+        /**
+         * Move past a string
+         * @return The index of the closing quote
+         */
+        private int string(){
+            pos++; // Skip the opening quote
+            escaped = false;
+            while( true ){
+                char c = json.charAt(pos);
+                if( c == '\\' ){
+                    escaped = true;
+                    pos+=2;
+                }else if( c == '"' ){
+                    return pos++;
+                }else{
+                    pos++;
+                }
+            }
+        }
+        /**
+         * Move past a number, true, false or null
+         * @return The index after it
+         */
+        private int literal(){
+            int start = pos;
+            while( pos < json.length() ){
+                char c = json.charAt(pos);
+                if( c==',' || c=='}' || c==']' || c <= ' ' )
+                    break;
+                pos++;
+            }
+            if( pos == start )
+                throw new IllegalArgumentException("Expected a value at "+pos);
+            return pos;
+        }
+        private void skipWhitespace(){
+            while( pos < json.length() && json.charAt(pos) <= ' ' )
+                pos++;
+        }
+        private String unescape( int from, int to ){
+            if( !escaped )
+                return json.substring(from,to);
+            var b = new StringBuilder(to-from);
+            for( int a=from;a<to;a++ ){
+                char c = json.charAt(a);
+                if( c != '\\' ){
+                    b.append(c);
+                    continue;
+                }
+                c = json.charAt(++a);
+                switch( c ){
+                    case 'n' -> b.append('\n');
+                    case 'r' -> b.append('\r');
+                    case 't' -> b.append('\t');
+                    case 'b' -> b.append('\b');
+                    case 'f' -> b.append('\f');
+                    case 'u' -> {
+                        b.append((char)Integer.parseInt(json.substring(a+1,a+5),16));
+                        a+=4;
+                    }
+                    default -> b.append(c); // " \ and /
+                }
+            }
+            return b.toString();
+        }
+    }
+}
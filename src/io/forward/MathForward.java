@@ -1,15 +1,18 @@
 package io.forward;
 
+import io.FanOut;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.tinylog.Logger;
 import org.w3c.dom.Element;
 import util.data.NumericVal;
+import util.data.ParsedRecord;
 import util.data.RealVal;
 import util.data.RealtimeValues;
 import util.gis.GisTools;
 import util.math.Calculations;
 import util.math.MathFab;
+import util.math.MathProgram;
 import util.math.MathUtils;
 import util.tools.Tools;
 import util.xml.XMLdigger;
@@ -37,6 +40,7 @@ public class MathForward extends AbstractForward {
     private ArrayList<NumericVal> referencedNums = new ArrayList<>();
     private int highestI=-1;
     private final ArrayList<BigDecimal> temps = new ArrayList<>();
+    private boolean doubleMode = false; // Use doubles instead of BigDecimals, faster but not exact
 
     public MathForward(String id, String source, BlockingQueue<Datagram> dQueue, RealtimeValues rtvals){
         super(id,source,dQueue,rtvals);
@@ -98,11 +102,14 @@ public boolean readFromXML(Element math) {
         ops.clear();
 
         suffix = dig.attr("suffix", "");
+        var mode = dig.attr("mode", "exact");
         String content = dig.value("");
 
         // Check if it Has content but no child elements, so a single op
         if (content != null && dig.peekOut("*").isEmpty()) {
-            return procSingleOp(dig, content);
+            var ok = procSingleOp(dig, content);
+            compileOps(mode);
+            return ok;
         }
 
         // Check for other subnodes besides 'op' those will be considered def's to reference in the op
@@ -123,12 +130,34 @@ public boolean readFromXML(Element math) {
         }
         // Go through the op's again to actually process the expression
         digForOpsProcessing(dig);
+        compileOps(mode);
 
         if( !oldValid && valid )// If math specific things made it valid
             sources.forEach( source -> dQueue.add( Datagram.system( source ).writable(this) ) );
         referencedNums.trimToSize(); // Won't be changed after this, so trime excess space
         return true;
     }
+    /**
+     * Compile the ops to use doubles if that mode is requested. If any op has no double version (fe. salinity) the
+     * exact mode is used instead.
+     * @param mode The requested mode, exact or double
+     */
+    private void compileOps( String mode ){
+        doubleMode = false;
+        switch( mode.toLowerCase() ){
+            case "double" -> {
+                for( var op : ops ){
+                    if( !op.compile() ){
+                        Logger.warn(id+"(mf) -> No double version for "+op.ori+", using exact mode instead");
+                        return;
+                    }
+                }
+                doubleMode = parsedOk;
+            }
+            case "exact","" -> {}
+            default -> Logger.error(id+"(mf) -> Unknown mode "+mode+", using exact");
+        }
+    }
     private boolean procSingleOp( XMLdigger dig, String content ){
         if( findRtvals(content) ){ // Figure out the used references to vals and determine the highest used index/i
             var op = addStdOperation(
@@ -233,23 +262,39 @@ private void digForOpsProcessing(XMLdigger dig ){
      */
     @Override
     protected boolean addData(String data) {
+        return addRecord( ParsedRecord.of(data,delimiter) );
+    }
+    /**
+     * Give a record to this forward for processing, if it was already split on the same delimiter that is reused
+     * @param rec The record received
+     * @return True if given to a target afterward, false if not
+     */
+    @Override
+    protected boolean addRecord( ParsedRecord rec ) {
 
         // First check if the operations are actually valid
         if( !parsedOk ){
             showError("Not processing data because the operations aren't valid");
             return true;
         }
+        rec = rec.as(delimiter);
+        if( doubleMode )
+            return addDoubleData(rec);
 
-        // Split the data according to the delimiter
-        String[] split = data.split(delimiter);
+        String data = rec.line();
+        String[] split = rec.fields();
 
         // Then make sure there's enough items in split, need at least one more than the highestI (because it starts at 0)
-        if( !checkDataLength( data, split.length, highestI )) return true;
+        if( !checkDataLength( data, split.length, highestI )){
+            metrics.dropped();
+            return true;
+        }
 
         // Convert to BigDecimals and do some checks
         var bdsOpt = convertToBigDecimals(data,split);
         if( bdsOpt.isEmpty()) { // Something failed, abort
             badDataCount++;
+            metrics.dropped();
             return true;
         }
         var bds = bdsOpt.get(); // Nothing failed, unpack
@@ -257,32 +302,106 @@ protected boolean addData(String data) {
         // After doing all possible initial tests, do the math
         if( !applyOperations(bds,data) ){
             badDataCount++;
+            metrics.dropped();
             return true;
         }
 
         // Insert the BigDecimals in the received data and apply any requested suffix
-        final String finalData = insertBigDecimalsInData(bds,split);
+        final String finalData = insertBigDecimalsInData(bds,rec);
 
-        // If we got to this point, processing went fine so reset badDataCount
-        if( badDataCount != 0 )
-            Logger.info(id+" (mf) -> Executed properly after previous issues, resetting bad count" );
-        badDataCount=0;
+        // Potentially store the data in memory and databases
+        storeData(bds,rec.fields());
 
-        // Use multithreading so the Writable's don't have to wait for the whole process
-        nextSteps.parallelStream().forEach( ns -> ns.writeLine(id(),finalData));
-        targets.parallelStream().forEach( wr -> wr.writeLine(id(),finalData));
+        if( !cmds.isEmpty())
+            cmds.forEach( cmd->dQueue.add(Datagram.system(cmd).writable(this)));
 
-        logResult(data,finalData);
+        forwardResult(data,rec);
 
-        // Potentially store the data in memory and databases
-        storeData(bds,split);
+        // If there are no target, no label and no ops that build a command, this no longer needs to be a target
+        return !noTargets() || log || store != null;
+    }
+    /**
+     * Same as addRecord but using doubles, only the fields altered by an op are replaced in the data
+     * @param rec The record received
+     * @return True if given to a target afterward, false if not
+     */
+    private boolean addDoubleData( ParsedRecord rec ){
+        String data = rec.line();
+
+        if( !checkDataLength( data, rec.size(), highestI )){
+            metrics.dropped();
+            return true;
+        }
+
+        var dbls = buildDoubleArray(rec);
+        if( dbls == null ){
+            showError("No valid numbers in the data: "+data+" after split on "+delimiter+ " "+ " (bad:"+badDataCount+")");
+            badDataCount++;
+            metrics.dropped();
+            return true;
+        }
+        if( Double.isNaN(dbls[Math.max(highestI,0)]) ){
+            showError("No valid highest I value in the data: "+data+" after split on "+delimiter+ " "+ " (bad:"+badDataCount+")");
+            badDataCount++;
+            metrics.dropped();
+            return true;
+        }
+
+        // Keeps track of the altered fields, -2 means not altered otherwise the scale to use (-1 is none)
+        var formats = new int[rec.size()];
+        Arrays.fill(formats,-2);
+
+        int errorCount = 0;
+        for (var op : ops) {
+            if ( !op.solve(dbls,formats) ) {
+                errorCount++;
+                showError(errorCount == 1, "Failed to process " + data + " for " + op.ori);
+            }
+        }
+        if( errorCount != 0 ){
+            badDataCount++;
+            metrics.dropped();
+            return true;
+        }
+
+        insertDoublesInData(dbls,formats,rec);
+
+        if( store!=null) {
+            for( int a=0;a<store.size();a++){
+                if( dbls.length > a && !Double.isNaN(dbls[a])){
+                    store.setValueAt(a,dbls[a]);
+                }else{
+                    store.setValueAt(a,rec.field(a));
+                }
+            }
+            for( var dbInsert:store.dbInsertSets())
+                tableInserters.forEach(ti -> ti.insertStore(dbInsert));
+            store.doCalVals();
+        }
 
         if( !cmds.isEmpty())
             cmds.forEach( cmd->dQueue.add(Datagram.system(cmd).writable(this)));
 
-        // If there are no target, no label and no ops that build a command, this no longer needs to be a target
+        forwardResult(data,rec);
         return !noTargets() || log || store != null;
     }
+    /**
+     * Give the result to the targets and next steps after processing went fine
+     * @param data The data before processing
+     * @param rec The record after processing, this is passed to the next steps
+     */
+    private void forwardResult( String data, ParsedRecord rec ){
+        // If we got to this point, processing went fine so reset badDataCount
+        if( badDataCount != 0 )
+            Logger.info(id+" (mf) -> Executed properly after previous issues, resetting bad count" );
+        badDataCount=0;
+
+        String finalData = rec.line();
+        FanOut.write(targets,id(),finalData);
+        logResult(data,finalData);
+
+        passToSteps(rec);
+    }
     /**
      * Checks if the length of the provided data (split by the delimiter) is sufficient
      * to match the required number of items, based on the highest index needed.
@@ -337,7 +456,12 @@ private boolean applyOperations(BigDecimal[] bigDecimals, String data) {
                 showError(errorCount == 1, "Failed to process " + data + " for " + op.ori);
             }
         }
-        return errorCount>0;
+        return errorCount==0;
+    }
+    private String appendSuffix( ParsedRecord rec ){
+        if( !suffix.isEmpty() )
+            rec.replaceLine( appendSuffix(rec.line()) );
+        return rec.line();
     }
     private String appendSuffix( String data ){
        return switch( suffix ) {
@@ -690,15 +814,15 @@ private OP_TYPE fromStringToOPTYPE(String optype) {
      */
     public String solveFor(String data){
 
-        String[] split = data.split(delimiter);
+        var rec = ParsedRecord.of(data,delimiter);
 
-        BigDecimal[] bds = buildBDArray(split);
+        BigDecimal[] bds = buildBDArray(rec.fields());
         if( bds==null){
             Logger.error(id+"(mf) -> Bd's null after buildarray");
             return "";
         }
         ops.forEach( op -> op.solve(bds) );
-        return insertBigDecimalsInData(bds,split);
+        return insertBigDecimalsInData(bds,rec);
     }
 
     /**
@@ -746,6 +870,30 @@ private BigDecimal[] buildBDArray(String[] data ){
             return MathUtils.toBigDecimals(data,highestI==-1?0:highestI); // Split the data and convert to big decimals
         }
     }
+    /**
+     * Double version of buildBDArray, NaN is used for the fields that aren't a number
+     * @param rec The data received, numbers already parsed by an earlier step are reused
+     * @return The created array or null if none of the fields is a number
+     */
+    private double[] buildDoubleArray( ParsedRecord rec ){
+        int max = highestI==-1?0:highestI;
+        var dbls = new double[max+1+temps.size()+referencedNums.size()];
+
+        int nans=0;
+        for( int a=0;a<=max;a++ ){
+            dbls[a] = rec.number(a);
+            if( Double.isNaN(dbls[a]) && a < rec.size() && NumberUtils.isCreatable(rec.field(a)) ) // Fe. hex, allowed in math
+                dbls[a] = NumberUtils.createNumber(rec.field(a)).doubleValue();
+            if( Double.isNaN(dbls[a]) )
+                nans++;
+        }
+        if( nans == max+1 )
+            return null;
+        // Temps start at zero, which is the default of the array
+        for (int a = 0; a < referencedNums.size();a++ )
+            dbls[max+1+temps.size()+a] = referencedNums.get(a).asDoubleValue();
+        return dbls;
+    }
     private Optional<BigDecimal[]> buildRefBdArray(){
         var refBds = new BigDecimal[referencedNums.size()+temps.size()];
 
@@ -881,26 +1029,67 @@ private String replaceTemps( String exp ){
      * If no BigDecimal value is found at a given index, the original string data is used as a fallback.
      *
      * @param bds An array of BigDecimal values to insert into the data. Each element corresponds to
-     *            an index in the `split` array.
-     * @param split An array of original string data that will be processed. If no BigDecimal value is
-     *              available for a particular index, the original string data will be retained.
+     *            a field in the record.
+     * @param rec The record that will be altered. If no BigDecimal value is available for a particular index,
+     *            the original field will be retained.
      * @return A string containing the modified data, with BigDecimal values inserted where available.
      */
-    private String insertBigDecimalsInData(BigDecimal[] bds, String[] split ){
-        StringJoiner join = new StringJoiner(delimiter); // prepare a joiner to rejoin the data
+    private String insertBigDecimalsInData(BigDecimal[] bds, ParsedRecord rec ){
         int validHighestIndex = (highestI == -1) ? 0 : highestI; // Determine the valid highest index
-        for( int a=0;a<split.length;a++){
-            if( a <= validHighestIndex ) {
-                // Add BigDecimal value if available, else use original data from split
-                join.add(bds[a] != null ? bds[a].toPlainString() : split[a]);
-            }else{
-                // For indices greater than the highest, add original split data
-                join.add(split[a]);
-            }
+        // For indices greater than the highest, the original field is kept
+        for( int a=0;a<rec.size() && a <= validHighestIndex;a++){
+            if( bds[a] != null ) // Add BigDecimal value if available, else keep the original field
+                rec.setField(a,bds[a].toPlainString());
         }
-        return appendSuffix( join.toString() );
+        return appendSuffix( rec );
     }
 
+    /**
+     * Double version of insertBigDecimalsInData, fields that weren't altered by an op keep their original text
+     * @param dbls The values after applying the ops
+     * @param formats The scale of each altered field, -1 if none and -2 if not altered
+     * @param rec The record that will be altered
+     * @return A string containing the altered data
+     */
+    private String insertDoublesInData( double[] dbls, int[] formats, ParsedRecord rec ){
+        var sb = new StringBuilder();
+        for( int a=0;a<formats.length;a++){
+            if( formats[a] != -2 && !Double.isNaN(dbls[a]) ){
+                sb.setLength(0);
+                rec.setNumber(a, dbls[a], appendDouble(sb,dbls[a],formats[a]).toString() );
+            }
+        }
+        return appendSuffix( rec );
+    }
+    /**
+     * Append a double without exponent, integers without decimals or with the given amount of decimals
+     * @param sb The builder to append to
+     * @param d The value to append
+     * @param scale The amount of decimals or -1 if not fixed
+     * @return The builder
+     */
+    private static StringBuilder appendDouble( StringBuilder sb, double d, int scale ){
+        double abs = Math.abs(d);
+        if( scale >= 0 && scale <= 9 && abs < 1e9 ){
+            long factor = (long)Math.pow(10,scale);
+            long val = Math.round(abs*factor);
+            if( d < 0 && val != 0 )
+                sb.append('-');
+            sb.append(val/factor);
+            if( scale > 0 ){
+                var dec = String.valueOf(val%factor);
+                sb.append('.');
+                sb.append("0".repeat(scale-dec.length())).append(dec);
+            }
+        }else if( d == Math.rint(d) && abs < 1e15 ){
+            sb.append((long)d);
+        }else if( abs >= 1e-3 && abs < 1e7 ){ // Range without exponent
+            sb.append(d);
+        }else{
+            sb.append(BigDecimal.valueOf(d).toPlainString());
+        }
+        return sb;
+    }
     /* ************************************* O P E R A T I O N ***************************************************** */
     /**
      * Storage class for everything related to an operation.
@@ -915,6 +1104,8 @@ public class Operation {
         String cmd ="";      // Command in which to replace the $ with the result
         NumericVal update;
         BigDecimal directSet;
+        MathProgram program; // fab compiled for double mode
+        double directDouble;
 
         public Operation(String ori,int index){
             this.ori=ori;
@@ -965,6 +1156,21 @@ public Operation(String ori, String value, int index ){
         public boolean isValid(){
             return op!=null || fab!=null;
         }
+        /**
+         * Prepare the operation for double mode
+         * @return True if it has a double version
+         */
+        boolean compile(){
+            if( op != null ) // Special types only exist for BigDecimal
+                return false;
+            if( fab != null ){
+                program = fab.compile().orElse(null);
+                return program != null;
+            }
+            if( directSet != null )
+                directDouble = directSet.doubleValue();
+            return true;
+        }
         public Operation scale(int scale ){
             this.scale=scale;
             return this;
@@ -1027,6 +1233,46 @@ public BigDecimal solve( BigDecimal[] data ){
                 Logger.info("Result of op: "+bd.toPlainString());
             return bd;
         }
+        /**
+         * Double version of solve
+         * @param data The data to use and alter
+         * @param formats The scale used for each altered field
+         * @return True if solved
+         */
+        public boolean solve( double[] data, int[] formats ){
+            double d;
+            boolean changeIndex=true;
+            if( program != null ){
+                d = program.solve(data);
+            }else if( directSet != null ){
+                d = directDouble;
+            }else if( index >= 0 && index < data.length ){
+                d = data[index];
+                changeIndex=false;
+            }else{
+                return false;
+            }
+            if( Double.isNaN(d) ){
+                showError(false," (mf) -> No valid result for "+ori);
+                return false;
+            }
+            if( scale != -1)
+                d = Tools.roundDouble(d,scale);
+
+            if( index>= 0 && index < data.length && changeIndex ) {
+                data[index] = d;
+                if( index < formats.length )
+                    formats[index] = scale;
+            }
+            if( update != null ) {
+                update.updateValue(d);
+            }else if( !cmd.isEmpty()){
+                dQueue.add(Datagram.system(cmd.replace("$", appendDouble(new StringBuilder(),d,scale))));
+            }
+            if(debug)
+                Logger.info("Result of op: "+d);
+            return true;
+        }
         private Optional<BigDecimal> solveWithOp(BigDecimal[] data){
             if (data.length <= index){
                 showError(false,"(mf) -> Tried to do an op with to few elements in the array (data=" + data.length + " vs index=" + index);
@@ -1062,7 +1308,7 @@ private Optional<BigDecimal> solveWithFab( BigDecimal[] data){
     @Override
     public String toString(){
         StringJoiner join = new StringJoiner("\r\n" );
-        join.add("math:"+id+ (sources.isEmpty()?"":" getting data from "+String.join( ";",sources)));
+        join.add("math:"+id+ (sources.isEmpty()?"":" getting data from "+String.join( ";",sources))+(doubleMode?" (double mode)":""));
         // Make sure to show the def's
         if( !defines.isEmpty()) {
             join.add(" Defines");
@@ -0,0 +1,372 @@
+package io.forward;
+
+import io.FanOut;
+import org.tinylog.Logger;
+import org.w3c.dom.Element;
+import util.data.ParsedRecord;
+import util.data.RealVal;
+import util.data.RealtimeValues;
+import util.xml.XMLdigger;
+import worker.Datagram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.StringJoiner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parses common NMEA 0183 sentences in a single pass over the line. The checksum is verified and the fields are parsed
+ * in place (no splitting or substrings), positions in ddmm.mmmm are converted to decimal degrees. The results are
+ * written to realvals named group_field, these are created the first time a sentence of that type is received.
+ * The next steps get either the values (fe. GGA,51.1234567,2.1234567,...) or the valid sentence itself.
+ */
+public class NmeaForward extends AbstractForward {
+
+    private enum KIND {NUMBER,LAT,LON,CHECK}
+
+    private static final ThreadLocal<double[]> scratch = ThreadLocal.withInitial( () -> new double[16] );
+
+    private final ArrayList<Sentence> sentences = new ArrayList<>();
+    private String group = "";
+    private boolean checksum = true;    // A checksum is required, if false it's only checked if present
+    private boolean raw = false;        // Give the sentence to the next steps instead of the values
+    private boolean fillVals = true;    // Write the results to the realvals
+
+    private final LongAdder parsed = new LongAdder();
+    private final LongAdder badChecksum = new LongAdder();
+    private final LongAdder unsupported = new LongAdder();  // Not a sentence or not a type that is parsed
+    private final LongAdder invalid = new LongAdder();      // Status not valid (fe. no fix)
+
+    public NmeaForward( Element ele, BlockingQueue<Datagram> dQueue, RealtimeValues rtvals ){
+        super(dQueue,rtvals);
+        readOk = readFromXML(ele);
+    }
+    @Override
+    protected boolean addData( String data ){
+        parse(data);
+        if( noTargets() ){
+            valid=false;
+            return false;
+        }
+        return true;
+    }
+    @Override
+    protected boolean addRecord( ParsedRecord rec ){
+        return addData(rec.line());
+    }
+    @Override
+    public boolean noTargets(){
+        return super.noTargets() && !fillVals;
+    }
+
+    /**
+     * Parse a single sentence, update the realvals and give the result to the next steps
+     * @param line The sentence fe. $GPHDT,123.4,T*3A
+     */
+    private void parse( String line ){
+        int start=0;
+        while( start < line.length() && line.charAt(start) != '$' && line.charAt(start) != '!' )
+            start++;
+        int end = line.length();
+        while( end > start && line.charAt(end-1) <= ' ' )
+            end--;
+        if( end-start < 7 ){ // Shortest is $xxXXX,
+            unsupported.increment();
+            return;
+        }
+        // Checksum
+        int star = -1;
+        int sum = 0;
+        for( int a=start+1;a<end;a++ ){
+            char c = line.charAt(a);
+            if( c=='*' ){
+                star=a;
+                break;
+            }
+            sum ^= c;
+        }
+        if( star == -1 ){
+            if( checksum ){
+                badChecksum.increment();
+                metrics.dropped();
+                return;
+            }
+        }else{
+            if( star+3 > end || Character.digit(line.charAt(star+1),16)*16+Character.digit(line.charAt(star+2),16) != sum ){
+                badChecksum.increment();
+                metrics.dropped();
+                if( debug )
+                    Logger.info(id()+" -> Bad checksum "+line);
+                return;
+            }
+            end = star;
+        }
+        // Type is the last three characters of the address, fe. GGA in $GPGGA
+        int comma = line.indexOf(',',start);
+        if( comma == -1 || comma > end || comma-start < 4 ){
+            unsupported.increment();
+            metrics.dropped();
+            return;
+        }
+        int key = key(line.charAt(comma-3),line.charAt(comma-2),line.charAt(comma-1));
+        var values = scratch.get();
+        boolean known = false;
+        for( var sentence : sentences ){
+            if( sentence.key != key )
+                continue;
+            known = true;
+            if( sentence.read(line,comma,end,values) ){
+                parsed.increment();
+                if( fillVals )
+                    sentence.apply(values);
+                forward(sentence,values,line,start,star==-1?end:star+3);
+                return;
+            }
+        }
+        if( known ){
+            invalid.increment();
+            metrics.dropped();
+        }else{
+            unsupported.increment();
+            metrics.dropped();
+        }
+    }
+    private void forward( Sentence sentence, double[] values, String line, int start, int end ){
+        if( targets.isEmpty() && nextSteps.isEmpty() && store == null && !log && !debug )
+            return; // Nothing needs the result, so don't create it
+        ParsedRecord rec;
+        if( raw ){
+            rec = ParsedRecord.of(line.substring(start,end),delimiter);
+        }else{
+            var texts = new String[sentence.names.length+1];
+            var numbers = new double[texts.length];
+            texts[0] = sentence.type;
+            numbers[0] = Double.NaN;
+            for( int a=0;a<sentence.names.length;a++ ){
+                numbers[a+1] = values[a];
+                texts[a+1] = format(values[a]);
+            }
+            rec = ParsedRecord.ofNumbers(texts,numbers,delimiter);
+        }
+        String data = rec.line();
+        if( debug )
+            Logger.info(id()+" -> Parsed "+data);
+        FanOut.write(targets,id(),data);
+        if( log )
+            Logger.tag("RAW").info( id() + "\t" + data);
+        applyDataToStore(rec);
+        passToSteps(rec);
+    }
+    private static String format( double value ){
+        if( Double.isNaN(value) )
+            return "";
+        if( value == Math.rint(value) && Math.abs(value) < 1e15 )
+            return String.valueOf((long)value);
+        return String.valueOf(value);
+    }
+    private static int key( char a, char b, char c ){
+        return (Character.toUpperCase(a)<<16) | (Character.toUpperCase(b)<<8) | Character.toUpperCase(c);
+    }
+    /**
+     * Convert ddmm.mmmm or dddmm.mmmm to decimal degrees
+     * @param value The value as it's in the sentence
+     * @param hemisphere N,S,E or W
+     * @return The degrees, negative for south and west
+     */
+    static double toDegrees( double value, char hemisphere ){
+        if( Double.isNaN(value) )
+            return value;
+        double deg = Math.floor(value/100);
+        double res = deg + (value-deg*100)/60;
+        res = Math.round(res*1e7)/1e7; // About 1cm
+        return hemisphere=='S'||hemisphere=='W'||hemisphere=='s'||hemisphere=='w' ? -res : res;
+    }
+
+    @Override
+    public boolean readFromXML( Element ele ){
+        parsedOk=true;
+        var dig = XMLdigger.goIn(ele);
+        if( !readBasicsFromXml(dig) )
+            return false;
+
+        group = dig.attr("group",id);
+        checksum = dig.attr("checksum",true);
+        raw = dig.attr("output","values").equalsIgnoreCase("raw");
+        fillVals = dig.attr("vals",true);
+
+        sentences.clear();
+        var types = dig.attr("types","");
+        if( types.isEmpty() ){
+            sentences.addAll(supported());
+        }else{
+            for( var type : types.split(",") ){
+                var t = type.trim().toUpperCase();
+                var found = supported().stream().filter( s -> s.type.equals(t) ).toList();
+                if( found.isEmpty() ){
+                    Logger.error(id+"(nf) -> Unsupported type "+type+", options are "+String.join(",",supportedTypes()));
+                    parsedOk=false;
+                    return false;
+                }
+                sentences.addAll(found);
+            }
+        }
+        rulesString.clear();
+        rulesString.add(new String[]{"","checksum",checksum?"Required":"Checked if present"});
+        for( var sentence : sentences )
+            rulesString.add(new String[]{"",sentence.type,sentence.toString()});
+        return true;
+    }
+    @Override
+    public String getRules(){
+        var join = new StringJoiner("\r\n");
+        join.add(super.getRules());
+        join.add("\tParsed "+parsed.sum()+", bad checksum "+badChecksum.sum()+", invalid status "+invalid.sum()
+                +", unsupported "+unsupported.sum());
+        return join.toString();
+    }
+    @Override
+    protected String getXmlChildTag(){
+        return "nmea";
+    }
+
+    /**
+     * The sentences that can be parsed, a type can occur more than once if a field decides what the values mean
+     * (fe. relative or true wind in MWV), the first that matches is used.
+     */
+    private ArrayList<Sentence> supported(){
+        var list = new ArrayList<Sentence>();
+        list.add( new Sentence("GGA", new Part(2,KIND.LAT,"lat"), new Part(4,KIND.LON,"lon"), new Part(6,"fix"),
+                    new Part(7,"sats"), new Part(8,"hdop"), new Part(9,"alt"), new Part(11,"geoid")) );
+        list.add( new Sentence("RMC", new Part(2,'A'), new Part(3,KIND.LAT,"lat"), new Part(5,KIND.LON,"lon"),
+                    new Part(7,"sog"), new Part(8,"cog")) );
+        list.add( new Sentence("GLL", new Part(1,KIND.LAT,"lat"), new Part(3,KIND.LON,"lon"), new Part(6,'A')) );
+        list.add( new Sentence("VTG", new Part(1,"cog"), new Part(5,"sog"), new Part(7,"sogkmh")) );
+        list.add( new Sentence("HDT", new Part(1,"heading")) );
+        list.add( new Sentence("HDG", new Part(1,"hdg")) );
+        list.add( new Sentence("VHW", new Part(1,"heading"), new Part(5,"stw")) );
+        list.add( new Sentence("MWV", new Part(1,"windangle_rel"), new Part(2,'R'), new Part(3,"windspeed_rel"), new Part(5,'A')) );
+        list.add( new Sentence("MWV", new Part(1,"windangle_true"), new Part(2,'T'), new Part(3,"windspeed_true"), new Part(5,'A')) );
+        list.add( new Sentence("DPT", new Part(1,"depth"), new Part(2,"depthoffset")) );
+        list.add( new Sentence("DBT", new Part(3,"depth")) );
+        list.add( new Sentence("MTW", new Part(1,"watertemp")) );
+        list.add( new Sentence("ROT", new Part(1,"rot"), new Part(2,'A')) );
+        return list;
+    }
+    private ArrayList<String> supportedTypes(){
+        var types = new ArrayList<String>();
+        supported().forEach( s -> { if( !types.contains(s.type) ) types.add(s.type); } );
+        return types;
+    }
+
+    /**
+     * A field of a sentence
+     * @param index Position of the field in the sentence, the address is 0
+     * @param kind What to do with it
+     * @param name Name of the value, or for a check the character the field should start with
+     */
+    private record Part( int index, KIND kind, String name ){
+        Part( int index, String name ){
+            this(index,KIND.NUMBER,name);
+        }
+        Part( int index, char check ){
+            this(index,KIND.CHECK,String.valueOf(check));
+        }
+    }
+
+    /**
+     * A sentence type and the fields taken from it
+     */
+    private class Sentence{
+        final String type;
+        final int key;
+        final Part[] parts;     // Sorted on index
+        final String[] names;   // Names of the values, in order
+        private volatile RealVal[] vals; // Created on first use
+
+        Sentence( String type, Part... parts ){
+            this.type=type;
+            this.key=key(type.charAt(0),type.charAt(1),type.charAt(2));
+            this.parts=parts;
+            names = Arrays.stream(parts).filter( p -> p.kind!=KIND.CHECK ).map(Part::name).toArray(String[]::new);
+        }
+        /**
+         * Read the values from the sentence
+         * @param line The sentence
+         * @param comma Index of the comma after the address
+         * @param end Index of the checksum star or the end
+         * @param values Array to put the values in, in the order of the names
+         * @return True if all the checks passed
+         */
+        boolean read( String line, int comma, int end, double[] values ){
+            int field = 1;
+            int from = comma+1;
+            int part = 0;
+            int value = 0;
+            for( int a=0;a<names.length;a++ )
+                values[a]=Double.NaN;
+            while( part < parts.length && from <= end ){
+                int to = from;
+                while( to < end && line.charAt(to) != ',' )
+                    to++;
+                while( part < parts.length && parts[part].index == field ){
+                    var p = parts[part];
+                    switch( p.kind ){
+                        case CHECK -> {
+                            if( from == to || line.charAt(from) != p.name.charAt(0) )
+                                return false;
+                        }
+                        case NUMBER -> values[value++] = ParsedRecord.parseDouble(line,from,to);
+                        case LAT, LON -> {
+                            char hemi = to+1 < end ? line.charAt(to+1) : ' ';
+                            values[value++] = toDegrees(ParsedRecord.parseDouble(line,from,to),hemi);
+                        }
+                    }
+                    part++;
+                }
+                field++;
+                from = to+1;
+            }
+            // Missing fields at the end are only a problem if there's a check on it
+            for( ;part<parts.length;part++ ){
+                if( parts[part].kind == KIND.CHECK )
+                    return false;
+            }
+            return true;
+        }
+        /**
+         * Write the values to the realvals, empty fields don't change the val
+         */
+        void apply( double[] values ){
+            if( vals == null )
+                createVals();
+            if( vals == null ) // No rtvals to add them to
+                return;
+            for( int a=0;a<vals.length;a++ ){
+                if( vals[a] != null && !Double.isNaN(values[a]) )
+                    vals[a].parseValue(values[a]);
+            }
+        }
+        private synchronized void createVals(){
+            if( vals != null || rtvals == null )
+                return;
+            var created = new RealVal[names.length];
+            for( int a=0;a<names.length;a++ ){
+                var rv = RealVal.newVal(group,names[a]);
+                if( rtvals.addRealVal(rv) == RESULT.EXISTS ){
+                    created[a] = rtvals.getRealVal(rv.id()).orElse(null);
+                }else{
+                    created[a] = rv;
+                }
+            }
+            vals = created;
+        }
+        public String toString(){
+            var join = new StringJoiner(", ");
+            for( var p : parts ){
+                join.add( p.kind==KIND.CHECK ? "f"+p.index+"="+p.name : group+"_"+p.name+(p.kind==KIND.NUMBER?"":" (deg)") );
+            }
+            return join.toString();
+        }
+    }
+}
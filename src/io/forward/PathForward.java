@@ -2,14 +2,14 @@
 
 import io.Writable;
 import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.tinylog.Logger;
 import org.w3c.dom.Element;
 import util.data.RealtimeValues;
 import util.data.ValStore;
 import util.data.ValTools;
 import util.database.QueryWriting;
-import util.database.SQLiteDB;
-import util.tools.FileTools;
 import util.tools.TimeTools;
 import util.xml.XMLdigger;
 import util.xml.XMLtools;
@@ -21,11 +21,16 @@
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.StringJoiner;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class PathForward {
 
@@ -33,7 +38,9 @@ public class PathForward {
 
     private final ArrayList<Writable> targets = new ArrayList<>(); // The targets to send the final result of the path to
     private final ArrayList<CustomSrc> customs=new ArrayList<>(); // The custom data sources
+    private final CopyOnWriteArrayList<Branch> branchList = new CopyOnWriteArrayList<>(); // Branches of the steps, if parallel
     private final HashMap<String,String> defines = new HashMap<>();
+    private Map<String,TextMatcher> matchers = new ConcurrentHashMap<>(); // Shared by the filters that get the same data
 
     enum SRCTYPE {REG,PLAIN,RTVALS,CMD,FILE,SQLITE,INVALID} // Possible custom sources
     RealtimeValues rtvals; // Reference to the realtimevalues
@@ -90,6 +97,9 @@ public String readFromXML( Element pathEle, Path workpath ){
         id = dig.attr("id","");
         String delimiter = dig.attr("delimiter","");
         this.src = dig.attr("src","");
+        var branches = dig.attr("branches","");
+        int inflight = dig.attr("inflight",1000);
+        var overflow = dig.attr("overflow","block");
 
         var importPathOpt = dig.attr("import",null,null);
         if( importPathOpt.isPresent() ) {
@@ -101,6 +111,9 @@ public String readFromXML( Element pathEle, Path workpath ){
                 if( id.isEmpty())
                     id=dig.attr("id","");
                 delimiter=dig.attr("delimiter",delimiter);
+                branches=dig.attr("branches",branches);
+                inflight=dig.attr("inflight",inflight);
+                overflow=dig.attr("overflow",overflow);
                 Logger.info(id+"(pf) -> Valid path script found at "+importPath);
             }else{
                 Logger.error(id+"(pf) -> No valid path script found: "+importPath);
@@ -124,8 +137,23 @@ public String readFromXML( Element pathEle, Path workpath ){
             steps.get(0).setAttribute("src",this.src);
 
         // Now process all the steps
+        matchers = new ConcurrentHashMap<>(); // Those of the old steps hold patterns that might be gone
         var validData = addSteps(steps, delimiter,null);
 
+        // Steps that get the same data can run in parallel, each on their own thread
+        branchList.clear();
+        if( branches.equalsIgnoreCase("parallel") && nettyGroup != null ){
+            final int size = inflight;
+            final var over = Branch.parseOverflow(overflow);
+            Supplier<Branch> branch = () -> {
+                var b = new Branch(nettyGroup.next(),size,over);
+                branchList.add(b);
+                return b;
+            };
+            AbstractForward.useBranches(stepsForward,branch);
+            stepsForward.forEach( step -> step.useBranches(branch) );
+        }
+
         if( !oldTargets.isEmpty()&&!stepsForward.isEmpty()){ // Restore old requests
             oldTargets.forEach(this::addTarget);
         }
@@ -203,6 +231,12 @@ private boolean addSteps( ArrayList<Element> steps, String delimiter, AbstractFo
                 case "math" ->   checkParent( parent,new MathForward(step, dQueue, rtvals,defines), prevTag );
                 case "editor" -> checkParent( parent,new EditorForward(step, dQueue, rtvals), prevTag );
                 case "cmd" -> checkParent( parent,new CmdForward(step,dQueue,rtvals), prevTag );
+                case "aggregate" -> checkParent( parent,new AggregateForward(step,dQueue,rtvals,nettyGroup), prevTag );
+                case "deadband" -> checkParent( parent,new DeadbandForward(step,dQueue,rtvals), prevTag );
+                case "join" -> checkParent( parent,new JoinForward(step,dQueue,rtvals,nettyGroup), prevTag );
+                case "binary" -> checkParent( parent,new BinaryForward(step,dQueue,rtvals), prevTag );
+                case "nmea" -> checkParent( parent,new NmeaForward(step,dQueue,rtvals), prevTag );
+                case "json" -> checkParent( parent,new JsonForward(step,dQueue,rtvals), prevTag );
                 case "defines" -> {
                     for( var ele :dig.currentSubs()){
                         defines.put(ele.getTagName(),ele.getTextContent());
@@ -230,6 +264,8 @@ private boolean addSteps( ArrayList<Element> steps, String delimiter, AbstractFo
         return reqData;
     }
     private AbstractForward checkParent( AbstractForward parent, AbstractForward child, String prevTag){
+        if( child instanceof FilterForward ff )
+            ff.useMatchers(matchers);
         if (parent==null){ // No parent so root of the path, so get the source of the path and it's a step
             stepsForward.add(child);
             child.addSource(src); // It's in the root, so add the path source
@@ -322,6 +358,29 @@ public String toString(){
     public ArrayList<Writable> getTargets(){
         return targets;
     }
+    /**
+     * Get the statistics of all the steps, indented to show the tree
+     * @param eol The line ending to use
+     * @return The listing
+     */
+    public String getStats( String eol ){
+        var join = new StringJoiner(eol);
+        join.add("Path: "+id+" src: "+(src.isEmpty()?customs.size()+" custom":src));
+        if( stepsForward==null || stepsForward.isEmpty() ){
+            join.add("No steps yet");
+        }else{
+            stepsForward.forEach( sf -> sf.addStats(join,""));
+        }
+        return join.toString();
+    }
+    public void tickStats(){
+        if( stepsForward!=null )
+            stepsForward.forEach(AbstractForward::tickStats);
+    }
+    public void resetStats(){
+        if( stepsForward!=null )
+            stepsForward.forEach(AbstractForward::resetStats);
+    }
     public void addTarget(Writable wr){
         var target = stepsForward.get(stepsForward.size()-1).getLastStep();
         target.addTarget(wr);
@@ -368,24 +427,36 @@ public void stop(){
         customs.clear();
     }
 
+    /**
+     * Check if a branch of this path is full, custom sources wait till there's room again
+     */
+    private boolean congested(){
+        for( var branch : branchList ){
+            if( branch.isFull() )
+                return true;
+        }
+        return false;
+    }
     private class CustomSrc{
         String pathOrData;
-        String path;
         SRCTYPE srcType;
         long intervalMillis;
+        long periodMicros;          // Period of the writes, derived from the rate if one is given
+        double rate=0;              // Lines per second, 0 if not set
         long delayMillis=0;
         ScheduledFuture<?> future;
-        ArrayList<String> buffer;
-        ArrayList<Path> files;
+        EventExecutor loop;         // All reads, writes and position updates are done on this thread
+        FileLineReader reader;      // Reads the lines of the file(s), keeps the position in between writes
+        SqlitePager pager;          // Reads the rows of the query page by page, keeps the last key in between writes
+        Path position;              // File that holds the position of the reader or pager, null if not resuming
+        boolean fast=false;         // Read as fast as possible instead of at a set interval
+        volatile boolean active=false;
 
-        long lineCount=1;
         long sendLines=0;
         int multiLine=1;
 
         String label="";
 
-        boolean readOnce=false;
-
         static long skipLines = 0; // How many lines to skip at the beginning of a file (fe to skip header)
         public CustomSrc( Element node){
             readFromElement(node);
@@ -396,6 +467,7 @@ public void readFromElement( Element sub ){
             var data = sub.getTextContent();
 
             intervalMillis = TimeTools.parsePeriodStringToMillis( dig.attr("interval","1s") );
+            periodMicros = intervalMillis*1000;
             delayMillis = TimeTools.parsePeriodStringToMillis( dig.attr("delay","10ms") );
 
             switch (sub.getTagName().replace("src","")) {
@@ -414,30 +486,41 @@ public void readFromElement( Element sub ){
                 case "file","files" ->  {
                     srcType = SRCTYPE.FILE;
                     skipLines = dig.attr("skip",0);
-                    lineCount=skipLines+1; // We'll skip these lines
-                    files = new ArrayList<>();
                     var p = Path.of(data);
                     if (!p.isAbsolute()) {
                         p = workPath.resolve(data);
                     }
-                    if (Files.isDirectory(p)) {
-                        try {
-                            try( var str = Files.list(p) ){
-                                str.forEach(files::add);
-                            }
-                        } catch (IOException e) {
-                            Logger.error(e);
-                        }
-                    } else {
-                        files.add(p);
-                    }
-                    buffer = new ArrayList<>();
-                    multiLine = dig.attr("multiline",1);
+                    reader = new FileLineReader(List.of(p),(int)skipLines);
+                    reader.onFinished( file -> {
+                        dQueue.add(Datagram.system("telnet:broadcast,info," + id + " processed " + file+" at "+ Instant.now()));
+                        Logger.info("Finished processing " + file);
+                    });
+                    readRate(dig);
+                    if( dig.attr("resume",false) )
+                        position = workPath.resolve("tmp").resolve(id+"_filesrc.pos");
                 }
                 case "sqlite" -> {
-                    path = data;
-                    buffer = new ArrayList<>();
+                    var table = dig.attr("table","");
+                    if( table.isEmpty() && !dig.hasAttr("key") ){ // A query result has no rowid
+                        srcType = SRCTYPE.INVALID;
+                        Logger.error(id + "(pf) -> sqlitesrc with a query needs a key column to page on");
+                        return;
+                    }
+                    if( table.isEmpty() && !dig.attr("unique",false) ){ // Rows with the same key would be skipped
+                        srcType = SRCTYPE.INVALID;
+                        Logger.error(id + "(pf) -> sqlitesrc with a query needs a unique key, add unique=\"true\" if it is");
+                        return;
+                    }
                     srcType = SRCTYPE.SQLITE;
+                    var p = Path.of(dig.attr("db",data));
+                    if (!p.isAbsolute()) {
+                        p = workPath.resolve(p);
+                    }
+                    pager = new SqlitePager(p, table, dig.attr("query",""), dig.attr("key","rowid"),
+                                            dig.attr("columns","*"), dig.attr("where",""), dig.attr("page",500));
+                    readRate(dig);
+                    if( dig.attr("resume",false) )
+                        position = workPath.resolve("tmp").resolve(id+"_sqlitesrc.pos");
                 }
                 default -> {
                     srcType = SRCTYPE.INVALID;
@@ -445,19 +528,67 @@ public void readFromElement( Element sub ){
                 }
             }
         }
+        /**
+         * Read the multiline and rate attributes, the rate in lines/s overrides interval and multiline.
+         * A rate of max means as fast as possible.
+         */
+        private void readRate( XMLdigger dig ){
+            multiLine = dig.attr("multiline",1);
+            var rate = dig.attr("rate","");
+            if( rate.equalsIgnoreCase("max") ){
+                fast=true;
+            }else if( !rate.isEmpty() ){
+                double lps = NumberUtils.toDouble(rate,0);
+                if( lps > 0 ){ // At most 100 writes/s, the period is calculated from the lines per write so the rate is kept
+                    this.rate = lps;
+                    multiLine = (int)Math.ceil(lps/100);
+                    periodMicros = Math.max(1,Math.round(multiLine*1_000_000/lps));
+                }else{
+                    Logger.error(id + "(pf) -> Invalid rate '"+rate+"' for the "+srcType+" src");
+                }
+            }
+        }
+        private boolean isPositional(){
+            return srcType==SRCTYPE.FILE || srcType==SRCTYPE.SQLITE;
+        }
         public void start(){
-            if( future==null || future.isDone())
-                future = nettyGroup.scheduleAtFixedRate(this::write,delayMillis,intervalMillis, TimeUnit.MILLISECONDS);
+            if( future==null || future.isDone()) {
+                if( loop == null )
+                    loop = nettyGroup.next();
+                if( isPositional() && !active && sendLines==0 )
+                    restorePosition();
+                active=true;
+                if( fast ){
+                    future = loop.schedule(this::writeFast,delayMillis,TimeUnit.MILLISECONDS);
+                }else {
+                    future = loop.scheduleAtFixedRate(this::write, delayMillis*1000, periodMicros, TimeUnit.MICROSECONDS);
+                }
+            }
         }
         public void stop(){
+            active=false;
             if( future!=null && !future.isCancelled())
-                future.cancel(true);
+                future.cancel(false);
+            if( loop == null || loop.inEventLoop() ){
+                release();
+            }else{ // Runs after a write that is busy, so the position matches what was written
+                loop.execute(this::release);
+            }
+        }
+        private void release(){
+            if( isPositional() )
+                storePosition();
+            if( pager != null )
+                pager.close();
         }
         public void write(){
+            if( !active )
+                return;
             targets.removeIf( x -> !x.isConnectionValid());
-            if( targets.isEmpty() )
+            if( targets.isEmpty() ) {
                 stop();
-
+                return;
+            }
             switch (srcType) {
                 case CMD ->
                         targets.forEach(t -> dQueue.add(Datagram.system(pathOrData).writable(t).toggleSilent()));
@@ -466,76 +597,108 @@ public void write(){
                     targets.forEach(x -> x.writeLine(write));
                 }
                 case PLAIN -> targets.forEach(x -> x.writeLine(pathOrData));
-                case SQLITE -> {
-                    if (buffer.isEmpty()) {
-                        if (readOnce) {
-                            stop();
-                            return;
-                        }
-                        var lite = SQLiteDB.createDB("custom", Path.of(path));
-                        var dataOpt = lite.doSelect(pathOrData);
-                        lite.disconnect(); //disconnect the database after retrieving the data
-                        if (dataOpt.isPresent()) {
-                            var data = dataOpt.get();
-                            readOnce = true;
-                            for (var d : data) {
-                                StringJoiner join = new StringJoiner(";");
-                                d.stream().map(Object::toString).forEach(join::add);
-                                buffer.add(join.toString());
-                            }
-                        }else{
-                            Logger.error("Tried to read from db but failed: "+path);
-                        }
-                    } else {
-                        String line = buffer.remove(0);
-                        targets.forEach(wr -> wr.writeLine(line));
-                    }
+                case FILE, SQLITE -> {
+                    if( !congested() ) // Skip this time if a branch is full, so the src doesn't outrun the steps
+                        writeLines(multiLine);
                 }
-                case FILE -> {
-                    try {
-                        for (int a = 0; a < multiLine; a++) {
-                            if (buffer.isEmpty()) {
-                                // If the list of files is empty, stop
-                                if (files.isEmpty()) {
-                                    future.cancel(true);
-                                    dQueue.add(Datagram.system("telnet:broadcast,info," + id + " finished at "+ Instant.now()));
-                                    return;
-                                }
-
-                                buffer.addAll(FileTools.readLines(files.get(0), lineCount, maxBufferSize));
-                                lineCount += buffer.size();
-                                if( lineCount/1000==0)
-                                    Logger.info("Read "+lineCount+" lines");
-                                if (buffer.size() < maxBufferSize) { // Buffer wasn't full, so file read till end
-                                    dQueue.add(Datagram.system("telnet:broadcast,info," + id + " processed " + files.get(0)+" at "+ Instant.now()));
-                                    Logger.info("Finished processing " + files.get(0));
-                                    files.remove(0);
-                                    lineCount = 1+skipLines; // First line is at 1, so add any that need to be skipped
-                                    if (buffer.isEmpty()) {
-                                        if (!files.isEmpty()) {
-                                            Logger.info("Started processing " + files.get(0)+ " at "+Instant.now() );
-                                            // Buffer isn't full, so fill it up
-                                            buffer.addAll(FileTools.readLines(files.get(0), lineCount, maxBufferSize-buffer.size()));
-                                            lineCount += buffer.size();
-                                        } else {
-                                            future.cancel(true);
-                                            dQueue.add(Datagram.system("telnet:broadcast,info," + id + " finished at "+ Instant.now()));
-                                            return;
-                                        }
-                                    }
-                                }
-                            }
-                            String line = buffer.remove(0);
-                            targets.forEach(wr -> wr.writeLine(line));
-                            if (!label.isEmpty()) {
-                                dQueue.add(Datagram.build(line).label(label));
-                            }
-                            sendLines++;
-                        }
-                    } catch (Exception e) {
-                        Logger.error(e);
-                    }
+            }
+        }
+        /**
+         * Keep writing batches of lines from the file(s) or query, giving other tasks on the eventloop a chance in between
+         */
+        private void writeFast(){
+            if( !active )
+                return;
+            targets.removeIf( x -> !x.isConnectionValid());
+            if( targets.isEmpty() ) {
+                stop();
+                return;
+            }
+            if( congested() ){ // Wait till the branches have room again
+                future = loop.schedule(this::writeFast,10,TimeUnit.MILLISECONDS);
+                return;
+            }
+            if( writeLines(maxBufferSize) && active )
+                future = loop.schedule(this::writeFast,0,TimeUnit.MILLISECONDS);
+        }
+        /**
+         * Write the next lines of the file(s) or query to the targets
+         * @param count The amount of lines to write
+         * @return True if there are more lines, false if all the files or rows were read
+         */
+        private boolean writeLines( int count ){
+            for (int a = 0; a < count; a++) {
+                if( a > 0 && congested() ) // Continue once there's room
+                    return true;
+                String line = srcType==SRCTYPE.FILE ? reader.next() : pager.next();
+                if( line == null && pager != null && pager.failed() ){ // Keep the position, try again on the next start
+                    Logger.error(id+"(pf) -> Failed to read from "+pager+", stopping");
+                    stop();
+                    return false;
                 }
+                if( line == null ){ // All files or rows read
+                    active=false;
+                    if( future != null )
+                        future.cancel(false);
+                    clearPosition();
+                    dQueue.add(Datagram.system("telnet:broadcast,info," + id + " finished at "+ Instant.now()));
+                    return false;
+                }
+                targets.forEach(wr -> wr.writeLine(line));
+                if (!label.isEmpty()) {
+                    dQueue.offer(Datagram.build(line).label(label));
+                }
+                sendLines++;
+                if( sendLines%10000==0 ) {
+                    Logger.info(id+"(pf) -> Read " + sendLines + " lines");
+                    storePosition();
+                }
+            }
+            return true;
+        }
+        /**
+         * Store the position of the file reader or the last key of the pager, so it can be resumed later
+         */
+        private void storePosition(){
+            if( position == null )
+                return;
+            String pos;
+            if( srcType==SRCTYPE.SQLITE ){
+                pos = pager.position();
+            }else{
+                pos = reader.currentFile()==null?null:reader.currentFile()+";"+reader.currentEntry()+";"+reader.offset()+";"+reader.lines();
+            }
+            if( pos == null )
+                return;
+            try {
+                Files.createDirectories(position.getParent());
+                Files.writeString(position, pos);
+            } catch (IOException e) {
+                Logger.error(id+"(pf) -> Failed to store the file position: "+e.getMessage());
+            }
+        }
+        private void restorePosition(){
+            if( position == null || Files.notExists(position) )
+                return;
+            try {
+                if( srcType==SRCTYPE.SQLITE ){
+                    pager.seek(Files.readString(position).trim());
+                    return;
+                }
+                var pos = Files.readString(position).trim().split(";",-1);
+                if( pos.length == 4 && reader.seek(Path.of(pos[0]),pos[1],NumberUtils.toLong(pos[2]),NumberUtils.toLong(pos[3])) )
+                    Logger.info(id+"(pf) -> Resuming "+pos[0]+" at byte "+pos[2]);
+            } catch (IOException e) {
+                Logger.error(id+"(pf) -> Failed to read the file position: "+e.getMessage());
+            }
+        }
+        private void clearPosition(){
+            if( position == null )
+                return;
+            try {
+                Files.deleteIfExists(position);
+            } catch (IOException e) {
+                Logger.error(e);
             }
         }
         public String toString(){
@@ -544,11 +707,13 @@ public String toString(){
                 shortData = pathOrData.substring(0,pathOrData.length()>20?20:pathOrData.length()-1);
 
             var interval = TimeTools.convertPeriodToString(intervalMillis, TimeUnit.MILLISECONDS);
+            var pace = fast ? "as fast as possible" : rate > 0 ? rate+" lines/s" : multiLine+" lines every "+interval;
             return switch( srcType ){
                 case REG,PLAIN,RTVALS -> "Shows "+shortData+" every "+interval;
                 case CMD -> "Show result of '"+shortData+"' every "+interval;
-                case FILE -> "Reads from "+files.size()+" files, every "+interval;
-                case SQLITE -> "Shows the result of a query";
+                case FILE -> "Reads from "+reader.filesLeft()+"/"+reader.fileCount()+" files, "
+                                +pace+", "+sendLines+" lines sent";
+                case SQLITE -> "Reads "+pager+", "+pace+", "+sendLines+" rows sent";
                 case INVALID -> "Invalid src";
             };
         }
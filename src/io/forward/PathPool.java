@@ -11,6 +11,7 @@
 import org.tinylog.Logger;
 import org.w3c.dom.Element;
 import util.database.QueryWriting;
+import util.tools.TimeTools;
 import util.xml.XMLdigger;
 import util.xml.XMLfab;
 import util.xml.XMLtools;
@@ -18,6 +19,8 @@
 
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class PathPool implements Commandable {
 
@@ -26,6 +29,7 @@ public class PathPool implements Commandable {
     private final RealtimeValues rtvals;
     private final EventLoopGroup nettyGroup;
     private final QueryWriting qw;
+    private ScheduledFuture<?> statsDump; // Periodic dump of the step statistics to the info log
 
     public PathPool(BlockingQueue<Datagram> dQueue, RealtimeValues rtvals, EventLoopGroup group, QueryWriting qw){
         this.dQueue=dQueue;
@@ -33,6 +37,15 @@ public PathPool(BlockingQueue<Datagram> dQueue, RealtimeValues rtvals, EventLoop
         this.qw=qw;
         nettyGroup=group;
         readPathsFromXML();
+        if( nettyGroup != null ) // Update the output rates of the steps
+            nettyGroup.scheduleAtFixedRate(this::tickStats,1,1,TimeUnit.SECONDS);
+    }
+    private void tickStats(){
+        try {
+            new ArrayList<>(paths.values()).forEach(PathForward::tickStats);
+        }catch( Exception e ){ // Don't let an exception stop the ticks
+            Logger.error(e);
+        }
     }
     /* **************************************** G E N E R A L ************************************************** */
     /**
@@ -41,7 +54,7 @@ public PathPool(BlockingQueue<Datagram> dQueue, RealtimeValues rtvals, EventLoop
     public void readPathsFromXML(){
         var xmlOpt = XMLtools.readXML(Paths.settings());
         if( xmlOpt.isEmpty()) {
-            dQueue.add(Datagram.build("ForwardPool -> Failed to read xml at "+Paths.settings()).label("fail"));
+            dQueue.offer(Datagram.build("ForwardPool -> Failed to read xml at "+Paths.settings()).label("fail"));
             return;
         }
 
@@ -85,6 +98,15 @@ public void readPathsFromXML(){
                             path.readFromXML(pathEle,Paths.settings().getParent());
                         });
         Logger.info("Finished loading paths");
+
+        // Optional periodic dump of the step statistics
+        if( statsDump != null )
+            statsDump.cancel(false);
+        var secs = TimeTools.parsePeriodStringToSeconds( XMLdigger.goIn(Paths.settings(),"dcafs","paths").attr("statslog","0s") );
+        if( secs > 0 && nettyGroup != null ) {
+            statsDump = nettyGroup.scheduleAtFixedRate(() -> new ArrayList<>(paths.values())
+                                        .forEach(p -> Logger.info(p.getStats("\r\n"))), secs, secs, TimeUnit.SECONDS);
+        }
     }
     @Override
     public String replyToCommand(String cmd, String args, Writable wr, boolean html) {
@@ -144,6 +166,8 @@ public String replyToPathCmd(String cmd, Writable wr, boolean html ){
                         .add( "pf:reload/reloadall -> Reload all the paths")
                         .add( "pf:id,reload -> reload the path with the given id")
                         .add( "pf:list -> List all the currently loaded paths")
+                        .add( "pf:stats<,id> -> Show the counters and timing of each step of all paths or the given one")
+                        .add( "pf:stats,id,reset -> Reset the counters and timing of the steps of the given path")
                         .add( "pf:id,debug<,stepnr/stepid> -> Request the data from a single step in the path (nr:0=first; -1=custom src)")
                         .add( "pf:clear -> Remove all the paths from XML!");
                 return LookAndFeel.formatCmdHelp(help.toString(),html);
@@ -170,6 +194,23 @@ public String replyToPathCmd(String cmd, Writable wr, boolean html ){
                 paths.values().forEach(pf -> pf.removeTarget(wr));
                 return "Stopped sending to " + wr.id();
             }
+            case "stats" -> { // Counters and timing of each step
+                var eol = html ? "<br>" : "\r\n";
+                if( args.length == 1 ){
+                    var join = new StringJoiner(eol+eol);
+                    join.setEmptyValue("No paths yet");
+                    paths.values().forEach( p -> join.add(p.getStats(eol)));
+                    return join.toString();
+                }
+                var pf = paths.get(args[1]);
+                if( pf == null )
+                    return "! No such path: "+args[1];
+                if( args.length == 3 && args[2].equals("reset") ){
+                    pf.resetStats();
+                    return "Reset the stats of "+args[1];
+                }
+                return pf.getStats(eol);
+            }
             case "list" -> { // Get a listing of all the steps in the path
                 String green=html?"":TelnetCodes.TEXT_GREEN;
                 String reg=html?"":TelnetCodes.TEXT_DEFAULT;
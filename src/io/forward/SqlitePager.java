@@ -0,0 +1,144 @@
+package io.forward;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.tinylog.Logger;
+import util.database.SQLiteDB;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.StringJoiner;
+
+/**
+ * Reads the result of a query on a sqlite database page by page, so only a single page is kept in memory.
+ * Paging is done on a key column (keyset pagination) instead of with an offset, so each page is a lookup on the key and
+ * the position is just the last key read. This also means rows added while reading are picked up if their key is higher.
+ * For a table the rowid is added to a key that isn't the rowid, so rows with the same key aren't skipped at a page break.
+ */
+class SqlitePager implements Closeable {
+
+    private final Path db;
+    private SQLiteDB lite;          // Opened on the first fetch
+    private final String first;     // Query for the first page
+    private final String next;      // Query for the pages after the last key
+    private final String info;
+    private final boolean withRowid;    // Paging on key and rowid instead of just the key
+
+    private final ArrayDeque<String> page = new ArrayDeque<>();
+    private final ArrayDeque<Object[]> keys = new ArrayDeque<>();  // Key (and rowid) of each row in the page
+    private Object[] lastKey=null;    // Key of the last row fetched, null if none fetched yet
+    private Object[] passedKey=null;  // Key of the last row passed on
+    private boolean done=false;
+    private boolean failed=false;   // Last fetch failed, next one will try again
+
+    /**
+     * Create a pager for a table or query
+     * @param db The path to the database
+     * @param table The table to read from, if empty the query is used instead
+     * @param query A select query to read from, only used if table is empty
+     * @param key The column to order and page on, should be indexed (fe. rowid or a timestamp). For a table the rowid
+     *            is added if this isn't the rowid, for a query it has to be a unique column in the result
+     * @param columns The columns to read, comma separated
+     * @param where Extra condition for the rows to read, empty if none
+     * @param size The amount of rows in a page
+     */
+    SqlitePager( Path db, String table, String query, String key, String columns, String where, int size ){
+        this.db=db;
+        withRowid = !table.isEmpty() && !key.equalsIgnoreCase("rowid");
+        var from = table.isEmpty() ? "("+query+")" : table;
+        var order = withRowid ? key+",rowid" : key;
+        var select = "SELECT "+order+","+columns+" FROM "+from;
+        var cond = where.isEmpty() ? "" : " AND ("+where+")";
+        var end = " ORDER BY "+order+" LIMIT "+Math.max(1,size)+";";
+        first = select + (where.isEmpty()?"":" WHERE ("+where+")") + end;
+        next = select + " WHERE "+(withRowid?"("+order+") > (?,?)":key+" > ?") + cond + end;
+        info = (table.isEmpty()?"query":table)+" in "+db.getFileName()+" on "+order+", pages of "+size;
+    }
+    /**
+     * Get the next row, fetching the next page when the current one is used up
+     * @return The row with the columns joined with ; or null if all rows are read or the query failed
+     */
+    String next(){
+        if( page.isEmpty() && !done )
+            fetch();
+        var line = page.poll();
+        if( line != null )
+            passedKey = keys.poll();
+        return line;
+    }
+    private void fetch(){
+        if( lite == null )
+            lite = SQLiteDB.createDB("src_"+db.getFileName(), db);
+        var res = lastKey==null ? lite.doPreparedSelect(first) : lite.doPreparedSelect(next,lastKey);
+        failed = res.isEmpty();
+        if( failed )
+            return;
+        var data = res.get();
+        if( data.isEmpty() ){
+            done=true;
+            return;
+        }
+        int cols = withRowid ? 2 : 1;
+        for( var record : data ){
+            var join = new StringJoiner(";");
+            for( int a=cols;a<record.size();a++ ){ // First column(s) are the key
+                var val = record.get(a);
+                join.add( val==null?"":val.toString() );
+            }
+            page.add(join.toString());
+            keys.add(record.subList(0,cols).toArray());
+        }
+        lastKey = keys.peekLast();
+    }
+    /**
+     * Continue after the given position instead of from the start
+     * @param pos The last key that was read, or rowid;key if paging on both
+     */
+    void seek( String pos ){
+        page.clear();
+        keys.clear();
+        done=false;
+        failed=false;
+        if( withRowid ){
+            var parts = pos.split(";",2); // rowid first, the key might contain a ;
+            if( parts.length != 2 ){
+                Logger.error("Invalid position for "+info+": "+pos+", starting from the beginning");
+                lastKey = null;
+                passedKey = null;
+                return;
+            }
+            lastKey = new Object[]{toValue(parts[1]),toValue(parts[0])};
+        }else{
+            lastKey = new Object[]{toValue(pos)};
+        }
+        passedKey = lastKey;
+        Logger.info("Resuming "+info+" after "+pos);
+    }
+    private static Object toValue( String value ){
+        return NumberUtils.isCreatable(value) ? NumberUtils.createNumber(value) : value;
+    }
+    /**
+     * Get the key of the last row that was passed on, this is the position to resume from
+     * @return The key (rowid;key if paging on both) or null if nothing read yet or all rows were read
+     */
+    String position(){
+        if( passedKey==null || (done && page.isEmpty()) )
+            return null;
+        if( withRowid )
+            return passedKey[1]+";"+passedKey[0];
+        return String.valueOf(passedKey[0]);
+    }
+    boolean failed(){
+        return failed;
+    }
+    @Override
+    public void close(){
+        if( lite != null )
+            lite.disconnect();
+        lite = null; // Opened again if reading continues
+    }
+    @Override
+    public String toString(){
+        return info;
+    }
+}
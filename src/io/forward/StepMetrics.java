@@ -0,0 +1,148 @@
+package io.forward;
+
+import util.tools.Histogram;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Lock free counters for a step in a path.
+ * Only one in SAMPLE invocations is timed, the time is kept in a histogram (in ns). The time spent in the next steps is
+ * subtracted, so the time shown is the time spent in the step itself.
+ * Out and dropped are counted separately, because a step can give more or less lines than it receives.
+ */
+class StepMetrics {
+
+    private static final int SAMPLE = 16;   // Time one in this many invocations, should be a power of two
+    private static final int BITS = 40;  // Times up to 2^40 ns (about 18 minutes) are distinguished
+    private static final ThreadLocal<Frame> frames = ThreadLocal.withInitial(Frame::new);
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();   // Data rejected by the step (filtered, suppressed or failed)
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder sampledNanos = new LongAdder();
+    private final Histogram time = new Histogram(BITS);
+    private final AtomicInteger timing = new AtomicInteger();   // Timed invocations in progress
+
+    /* Rate, updated by tick */
+    private long lastPassed = 0;
+    private long lastTick = System.nanoTime();
+    private volatile double passRate = 0;
+
+    /**
+     * The timed step that is running on a thread, used to add the time spent in the next steps to the right one
+     */
+    private static class Frame{
+        StepMetrics step;
+        long downstream;
+    }
+
+    /**
+     * Count an invocation and decide if it should be timed
+     * @return True if it should be timed with timed(...)
+     */
+    boolean count(){
+        calls.increment();
+        return (ThreadLocalRandom.current().nextInt() & (SAMPLE-1)) == 0;
+    }
+    /**
+     * Run the work and record the time it took, minus the time handed to the next steps
+     * @param work The processing done by the step
+     * @return The result of the work
+     */
+    boolean timed( BooleanSupplier work ){
+        var frame = frames.get();
+        var prevStep = frame.step;
+        long prevDown = frame.downstream;
+        frame.step=this;
+        frame.downstream=0;
+        timing.incrementAndGet();
+        long start = System.nanoTime();
+        try{
+            return work.getAsBoolean();
+        }finally{
+            long total = System.nanoTime()-start;
+            record( total-frame.downstream );
+            timing.decrementAndGet();
+            frame.step=prevStep;
+            frame.downstream=prevDown;
+        }
+    }
+    /**
+     * Mark the start of handing data to the next steps
+     * @return The start time or 0 if the current invocation on this thread isn't timed
+     */
+    long handOff(){
+        if( timing.get() == 0 || frames.get().step != this )
+            return 0;
+        return System.nanoTime();
+    }
+    /**
+     * Mark the end of handing data to the next steps, the time is excluded from the time of this step
+     * @param start The value given by handOff
+     */
+    void handedOff( long start ){
+        if( start != 0 )
+            frames.get().downstream += System.nanoTime()-start;
+    }
+    void passed(){
+        passed.increment();
+    }
+    /**
+     * Count data that was rejected by the step, fe. didn't pass a filter or couldn't be processed
+     */
+    void dropped(){
+        dropped.increment();
+    }
+    private void record( long nanos ){
+        nanos = Math.max(1,nanos);
+        samples.increment();
+        sampledNanos.add(nanos);
+        time.record(nanos);
+    }
+    /**
+     * Update the output rate, this should be called on a fixed interval (fe. every second)
+     */
+    synchronized void tick(){
+        long now = System.nanoTime();
+        double secs = (now-lastTick)/1e9;
+        if( secs <= 0 )
+            return;
+        long pass = passed.sum();
+        passRate = (pass-lastPassed)/secs;
+        lastPassed = pass;
+        lastTick = now;
+    }
+    /**
+     * Estimate the total time spent in the step, based on the samples
+     * @return The time in ns
+     */
+    long totalNanos(){
+        long s = samples.sum();
+        return s==0 ? 0 : sampledNanos.sum()*calls.sum()/s;
+    }
+    void reset(){
+        calls.reset();
+        passed.reset();
+        dropped.reset();
+        samples.reset();
+        sampledNanos.reset();
+        time.reset();
+        synchronized (this) {
+            lastPassed = 0;
+        }
+    }
+    /**
+     * Get a readable overview of the metrics
+     * @return The overview on a single line
+     */
+    public String toString(){
+        long s = samples.sum();
+        return calls.sum()+" in, "+passed.sum()+" out, "+dropped.sum()+" dropped, "+String.format("%.1f/s out",passRate)
+                +", time "+Histogram.formatNanos(totalNanos())+" total, "+(s==0?"-":Histogram.formatNanos(sampledNanos.sum()/s))+" avg, p99<"
+                +Histogram.formatNanos(time.percentile(0.99));
+    }
+}
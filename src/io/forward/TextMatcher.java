@@ -0,0 +1,207 @@
+package io.forward;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Aho-Corasick matcher for the start, end and contain rules of all the filters that get data from the same source.
+ * Scanning a line once gives the result for every pattern. The result of the last line is kept, so the other filters on
+ * that source that get the same line don't need to scan it again. The matchers are kept by the path, so they are
+ * replaced on a reload.
+ */
+class TextMatcher {
+
+    static final int MIN_PATTERNS = 4; // Below this amount, the String methods are faster than a scan
+    static final int START=0, END=1, CONTAIN=2;
+
+    private final ArrayList<String> patterns = new ArrayList<>();
+    private volatile int size=0;
+    private volatile Automaton automaton;   // Null if it needs to be (re)build
+    private volatile Scan last;             // Result of the last line scanned
+
+    /**
+     * Add a pattern, if it was added before, the existing one is used
+     * @param pattern The text to look for
+     * @return The id of the pattern
+     */
+    synchronized int register( String pattern ){
+        int index = patterns.indexOf(pattern);
+        if( index != -1 )
+            return index;
+        patterns.add(pattern);
+        automaton=null;
+        last=null; // Scanned without this pattern
+        size=patterns.size();
+        return size-1;
+    }
+    int size(){
+        return size;
+    }
+    /**
+     * Scan the line for all the patterns, if it's the same line as last time, that result is returned
+     * @param line The line to scan
+     * @return The result
+     */
+    Scan scan( String line ){
+        var l = last;
+        if( l != null && l.line == line && l.patterns == size ) // Same object, so it's the same line given to another filter
+            return l;
+        var auto = automaton;
+        if( auto == null )
+            auto = build();
+        var s = auto.scan(line);
+        last = s;
+        return s;
+    }
+    private synchronized Automaton build(){
+        if( automaton == null )
+            automaton = new Automaton(patterns);
+        return automaton;
+    }
+
+    /**
+     * Result of scanning a line, a bit per pattern for each of start, end and contain
+     */
+    static class Scan{
+        private final String line;
+        private final int patterns;
+        private final long[][] bits;
+
+        private Scan( String line, int patterns ){
+            this.line=line;
+            this.patterns=patterns;
+            bits = new long[3][(patterns+63)/64];
+        }
+        private void set( int mode, int id ){
+            bits[mode][id>>6] |= 1L<<id;
+        }
+        boolean has( int mode, int id ){
+            return id>>6 < bits[mode].length && (bits[mode][id>>6] & 1L<<id) != 0;
+        }
+    }
+
+    /**
+     * The actual state machine, can't be altered after building
+     */
+    private static class Automaton{
+        private final int[] ascii = new int[128];                       // Alphabet index of an ascii char
+        private final HashMap<Character,Integer> other = new HashMap<>();  // Alphabet index of the other chars
+        private final int[][] delta;    // Next state for each state and alphabet index
+        private final int[][] out;      // Patterns that end in each state
+        private final int[] lengths;
+        private final int[] empty;      // Patterns that match anything
+
+        Automaton( ArrayList<String> patterns ){
+            lengths = new int[patterns.size()];
+            int alphabet = 1; // 0 is used for chars that aren't in any pattern
+            for( var p : patterns ){
+                for( char c : p.toCharArray() ){
+                    if( c < 128 ){
+                        if( ascii[c]==0 )
+                            ascii[c]=alphabet++;
+                    }else if( !other.containsKey(c) ){
+                        other.put(c,alphabet++);
+                    }
+                }
+            }
+            // Build the trie
+            var next = new ArrayList<int[]>();
+            var outs = new ArrayList<int[]>();
+            next.add(newState(alphabet));
+            outs.add(new int[0]);
+            var emptyIds = new ArrayList<Integer>();
+            for( int id=0;id<patterns.size();id++ ){
+                var p = patterns.get(id);
+                lengths[id]=p.length();
+                if( p.isEmpty() ){
+                    emptyIds.add(id);
+                    continue;
+                }
+                int state=0;
+                for( char c : p.toCharArray() ){
+                    int index = index(c);
+                    if( next.get(state)[index] == -1 ){
+                        next.get(state)[index] = next.size();
+                        next.add(newState(alphabet));
+                        outs.add(new int[0]);
+                    }
+                    state = next.get(state)[index];
+                }
+                outs.set(state, append(outs.get(state),id));
+            }
+            empty = emptyIds.stream().mapToInt(Integer::intValue).toArray();
+
+            // Add the failure links, breadth first so the link of the parent is always known
+            var fail = new int[next.size()];
+            var queue = new ArrayDeque<Integer>();
+            var root = next.get(0);
+            for( int a=0;a<alphabet;a++ ){
+                if( root[a] == -1 ){
+                    root[a]=0;
+                }else{
+                    fail[root[a]]=0;
+                    queue.add(root[a]);
+                }
+            }
+            while( !queue.isEmpty() ){
+                int state = queue.poll();
+                var trans = next.get(state);
+                outs.set(state, concat(outs.get(state),outs.get(fail[state])));
+                for( int a=0;a<alphabet;a++ ){
+                    int target = trans[a];
+                    if( target == -1 ){
+                        trans[a] = next.get(fail[state])[a]; // Follow the failure link, so no lookups while scanning
+                    }else{
+                        fail[target] = next.get(fail[state])[a];
+                        queue.add(target);
+                    }
+                }
+            }
+            delta = next.toArray(new int[0][]);
+            out = outs.toArray(new int[0][]);
+        }
+        private static int[] newState( int alphabet ){
+            var state = new int[alphabet];
+            Arrays.fill(state,-1);
+            return state;
+        }
+        private static int[] append( int[] ids, int id ){
+            var res = Arrays.copyOf(ids,ids.length+1);
+            res[ids.length]=id;
+            return res;
+        }
+        private static int[] concat( int[] a, int[] b ){
+            if( b.length==0 )
+                return a;
+            var res = Arrays.copyOf(a,a.length+b.length);
+            System.arraycopy(b,0,res,a.length,b.length);
+            return res;
+        }
+        private int index( char c ){
+            return c < 128 ? ascii[c] : other.getOrDefault(c,0);
+        }
+        Scan scan( String line ){
+            var scan = new Scan(line,lengths.length);
+            for( int id : empty ){
+                scan.set(START,id);
+                scan.set(END,id);
+                scan.set(CONTAIN,id);
+            }
+            int state=0;
+            int last = line.length()-1;
+            for( int i=0;i<=last;i++ ){
+                state = delta[state][index(line.charAt(i))];
+                for( int id : out[state] ){
+                    scan.set(CONTAIN,id);
+                    if( i+1 == lengths[id] )
+                        scan.set(START,id);
+                    if( i == last )
+                        scan.set(END,id);
+                }
+            }
+            return scan;
+        }
+    }
+}
@@ -394,7 +394,7 @@ private void processDcafsMtext( String body , String originRoom, Room room, Stri
                 sendMessage(originRoom, "Stored " + res + " as " + split[1]);
             }
         }else { // Respond to commands
-            var d = Datagram.build(body).label("matrix").origin(originRoom + "|" + from);
+            var d = Datagram.build(body).label("matrix").origin(originRoom + "|" + from).control();
             d.writable(Objects.requireNonNullElse(room, this));
             dQueue.add(d);
         }
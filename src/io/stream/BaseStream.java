@@ -1,11 +1,12 @@
 package io.stream;
 
+import io.FanOut;
+import io.Transport;
 import io.Writable;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.concurrent.FutureListener;
 import org.tinylog.Logger;
 import org.w3c.dom.Element;
@@ -22,6 +23,7 @@
 import java.util.Optional;
 import java.util.StringJoiner;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledFuture;
 import java.util.stream.Collectors;
 
@@ -40,7 +42,7 @@ public abstract class BaseStream {
     protected long openedStamp;
     protected long passed = -1;							    // Time passed (in ms) between the last two received messages
 
-    protected ArrayList<Writable> targets = new ArrayList<>();
+    protected final CopyOnWriteArrayList<Writable> targets = new CopyOnWriteArrayList<>(); // Read by the event loop while altered
     protected ArrayList<StreamListener> listeners = new ArrayList<>();
 
     protected String eol="\r\n";
@@ -54,6 +56,8 @@ public abstract class BaseStream {
     protected boolean addDataOrigin=false;
     protected ScheduledFuture<?> reconnectFuture=null;
     protected ArrayList<TriggerAction> triggeredActions = new ArrayList<>();
+    protected final StreamMetrics metrics = new StreamMetrics(); // Counters for rate, bytes, errors and latency
+    protected boolean mirrorStats=false;
 
     public enum TRIGGER{OPEN,IDLE,CLOSE,HELLO,WAKEUP, IDLE_END}
 
@@ -86,6 +90,7 @@ protected boolean readFromXML( Element stream ){
         priority = dig.peekAt("priority").value( 1);	 // Determine priority of the sensor
         log = dig.peekAt("log").value(true);
         addDataOrigin = dig.peekAt("prefixorigin").value(false);
+        mirrorStats = dig.peekAt("mirrorstats").value(false); // Copy the metrics to rtvals
         // delimiter
         String deli = dig.peekAt("eol").value("\r\n");
         if( deli.equalsIgnoreCase("\\0"))
@@ -136,6 +141,16 @@ public void setLabel( String label ){
     public String getLabel( ){
         return label;
     }
+    /**
+     * Get the counters of the data received by this stream
+     * @return The metrics of this stream
+     */
+    public StreamMetrics getMetrics(){
+        return metrics;
+    }
+    public boolean mirrorsStats(){
+        return mirrorStats;
+    }
     public void setPriority(int priority ){
 		this.priority=priority;
     }
@@ -188,10 +203,12 @@ public synchronized boolean addTarget(Writable writable ){
         return true;
     }
     public boolean removeTarget(Writable wr ){
+		FanOut.remove(wr);
 		return targets.remove(wr);
 	}
 	public int clearTargets(){
         int total=targets.size();
+        targets.forEach(FanOut::remove);
         targets.clear();
         return total;
     }
@@ -323,7 +340,7 @@ protected boolean connectIPSock(Bootstrap bootstrap, InetSocketAddress ipsock ){
     }
     protected Bootstrap createBootstrap(){
         var bootstrap = new Bootstrap();
-        bootstrap.group(eventLoopGroup).channel(NioSocketChannel.class)
+        bootstrap.group(eventLoopGroup).channel(Transport.socketChannel())
                 .option(ChannelOption.SO_KEEPALIVE, true)
                 .option(ChannelOption.TCP_NODELAY, true)
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 6000);
@@ -0,0 +1,354 @@
+package io.stream;
+
+import io.FanOut;
+import org.tinylog.Logger;
+import org.w3c.dom.Element;
+import util.tools.Tools;
+import util.xml.XMLdigger;
+import worker.Datagram;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stream that generates lines based on a template at a set rate, meant to stress test paths, stores and databases.
+ * The template can contain fields between {} that are filled in for each line:
+ * - {counter} or {counter:start:step}
+ * - {sine:amplitude:period in s:offset}
+ * - {walk:start:step} for a random walk
+ * - {random:min:max}
+ * - {time} hhmmss.ss (like nmea), {timestamp} yyyy-MM-dd HH:mm:ss.SSS and {epoch} in millis
+ */
+public class GeneratorStream extends BaseStream {
+
+    enum FORMAT{CSV,NMEA,BINARY}
+
+    private double rate;            // Lines per second
+    private long count;             // Amount of lines to generate, 0 means endless
+    private int decimals;           // Decimals used for the generated values
+    private FORMAT format;
+    private byte[] header;          // Header used for the binary format
+    private String template;
+    private ArrayList<Field> fields;
+
+    private volatile boolean running = false;
+    private volatile Thread worker;
+    private volatile boolean rateChanged = false;
+    private long generated = 0;
+
+    public GeneratorStream(BlockingQueue<Datagram> dQueue, Element stream) {
+        super(dQueue,stream);
+    }
+
+    @Override
+    protected boolean readExtraFromXML(Element stream) {
+        var dig = XMLdigger.goIn(stream);
+
+        rate = Math.max(0.001, dig.peekAt("rate").value(1.0));
+        count = Math.max(0, dig.peekAt("count").value(0));
+        decimals = dig.peekAt("decimals").value(3);
+        log = dig.peekAt("log").value(false); // Generated data is normally not worth logging
+        var head = dig.peekAt("header").value("");
+        header = head.isEmpty() ? new byte[0] : Tools.fromHexStringToBytes(head);
+
+        var form = dig.peekAt("format").value("csv").toUpperCase();
+        try {
+            format = FORMAT.valueOf(form);
+        }catch( IllegalArgumentException e ){
+            Logger.error(id+"(gen) -> Unknown format "+form+", using csv");
+            format = FORMAT.CSV;
+        }
+        template = dig.peekAt("template").value("{counter}");
+        fields = parseTemplate(template);
+        return !fields.isEmpty();
+    }
+
+    /**
+     * Change the rate while generating
+     * @param rate The new rate in lines per second
+     */
+    public void setRate( double rate ){
+        this.rate = Math.max(0.001,rate);
+        rateChanged = true;
+    }
+
+    @Override
+    public boolean connect() {
+        if( running )
+            return true;
+        running = true;
+        generated = 0;
+        worker = new Thread(this::generate,"generator-"+id);
+        worker.setDaemon(true);
+        worker.start();
+        openedStamp = Instant.now().toEpochMilli();
+        applyTriggeredAction(TRIGGER.OPEN);
+        return true;
+    }
+
+    @Override
+    public boolean disconnect() {
+        running = false;
+        if( worker != null )
+            worker.interrupt();
+        return true;
+    }
+
+    @Override
+    public boolean isConnectionValid() {
+        return running;
+    }
+
+    @Override
+    public long getLastTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String getInfo() {
+        return "GENERATOR [" + id + "|" + label + "] " + format.toString().toLowerCase() + " " + template
+                + " at " + rate + "/s (" + String.format("%.1f", metrics.messageRate()) + "/s achieved)";
+    }
+
+    @Override
+    protected String getType() {
+        return "generator";
+    }
+
+    @Override
+    protected void flagIdle() {
+        // Nothing to do
+    }
+
+    /* ******************************************** Generating ******************************************************** */
+    private boolean isActive(){
+        return running && worker == Thread.currentThread() && !Thread.currentThread().isInterrupted();
+    }
+    private void generate(){
+        Logger.info(id+"(gen) -> Starting generation at "+rate+" lines/s");
+        var line = new StringBuilder(128);
+        long start = System.nanoTime();
+        long produced = 0; // Lines produced since start
+
+        while( isActive() && (count==0 || generated < count) ){
+            if( rateChanged ){ // Start over to use the new rate
+                rateChanged = false;
+                start = System.nanoTime();
+                produced = 0;
+            }
+            long elapsed = System.nanoTime()-start;
+            long due = (long)(elapsed/1e9*rate);
+            if( due-produced > rate ){ // More than a second behind, don't try to catch up on that
+                Logger.warn(id+"(gen) -> Can't keep up with "+rate+"/s, skipping "+(due-produced)+" lines");
+                produced = due;
+            }
+            while( produced < due && (count==0 || generated < count) ){
+                line.setLength(0);
+                build(line);
+                emit(line);
+                produced++;
+                generated++;
+            }
+            // Wait till the next line is due, but not longer than 100ms to check for changes
+            long next = start + (long)((produced+1)*1e9/rate);
+            long wait = Math.min(next-System.nanoTime(),100_000_000L);
+            if( wait > 0 )
+                LockSupport.parkNanos(wait);
+        }
+        Logger.info(id+"(gen) -> Stopped after "+generated+" lines");
+        if( worker != Thread.currentThread() )
+            return;
+        running = false;
+        listeners.forEach( l -> l.notifyClosed(id));
+    }
+    private void build( StringBuilder line ){
+        if( format == FORMAT.NMEA )
+            line.append('$');
+        for( var field : fields )
+            field.appendTo(line);
+        if( format == FORMAT.NMEA ){
+            int checksum = 0;
+            for( int a=1;a<line.length();a++ )
+                checksum ^= line.charAt(a);
+            line.append('*');
+            line.append(Character.toUpperCase(Character.forDigit((checksum>>4)&0xF,16)));
+            line.append(Character.toUpperCase(Character.forDigit(checksum&0xF,16)));
+        }
+    }
+    private void emit( StringBuilder line ){
+        long start = System.nanoTime();
+
+        if( format == FORMAT.BINARY ){
+            var bytes = toBinary();
+            metrics.received(bytes.length);
+            if( !targets.isEmpty() ) {
+                FanOut.writeBytes(targets, bytes, start, metrics.latencySink());
+            }else{
+                metrics.recordLatencySince(start);
+            }
+        }else{
+            var data = line.toString();
+            metrics.received(data.length());
+            if( !label.isEmpty() )
+                dQueue.offer( Datagram.build(data).label(label).priority(priority).origin(id) );
+            if( log )
+                Logger.tag("RAW").warn( id + "\t" + data );
+            if( !targets.isEmpty() ) {
+                FanOut.write(targets, id, data, start, metrics.latencySink());
+            }else{
+                metrics.recordLatencySince(start);
+            }
+        }
+        if( !targets.isEmpty() )
+            targets.removeIf(wr -> !wr.isConnectionValid());
+        timestamp = Instant.now().toEpochMilli();
+    }
+
+    /**
+     * Convert the last generated values to a frame with the header followed by each value as a 4 byte float
+     * @return The frame
+     */
+    private byte[] toBinary(){
+        int values = 0;
+        for( var field : fields ){
+            if( field.type != Field.TYPE.TEXT )
+                values++;
+        }
+        var buffer = ByteBuffer.allocate(header.length+values*4);
+        buffer.put(header);
+        for( var field : fields ){
+            if( field.type != Field.TYPE.TEXT )
+                buffer.putFloat((float)field.last);
+        }
+        return buffer.array();
+    }
+
+    /* ******************************************** Template ******************************************************** */
+    private ArrayList<Field> parseTemplate( String template ){
+        var list = new ArrayList<Field>();
+        int pos = 0;
+        while( pos < template.length() ){
+            int open = template.indexOf('{',pos);
+            if( open == -1 ){
+                list.add(Field.text(template.substring(pos)));
+                break;
+            }
+            if( open != pos )
+                list.add(Field.text(template.substring(pos,open)));
+            int close = template.indexOf('}',open);
+            if( close == -1 ){
+                Logger.error(id+"(gen) -> Missing } in template: "+template);
+                return new ArrayList<>();
+            }
+            var field = Field.parse(template.substring(open+1,close),decimals);
+            if( field == null ){
+                Logger.error(id+"(gen) -> Unknown field in template: "+template.substring(open,close+1));
+                return new ArrayList<>();
+            }
+            list.add(field);
+            pos = close+1;
+        }
+        return list;
+    }
+    private static class Field{
+        enum TYPE{TEXT,COUNTER,SINE,WALK,RANDOM,TIME,TIMESTAMP,EPOCH}
+        private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+        TYPE type;
+        String text="";
+        double a,b,c;       // Meaning depends on the type
+        double last;        // Last generated value
+        double scale;       // Used to round to the decimals
+        long startNanos = System.nanoTime();
+
+        static Field text( String text ){
+            var f = new Field();
+            f.type=TYPE.TEXT;
+            f.text=text;
+            return f;
+        }
+        static Field parse( String def, int decimals ){
+            var split = def.split(":");
+            var f = new Field();
+            f.scale = Math.pow(10,decimals);
+            try {
+                f.type = TYPE.valueOf(split[0].toUpperCase());
+            }catch( IllegalArgumentException e ){
+                return null;
+            }
+            f.a = split.length > 1 ? Tools.parseDouble(split[1], 0) : 0;
+            f.b = split.length > 2 ? Tools.parseDouble(split[2], 1) : 1;
+            f.c = split.length > 3 ? Tools.parseDouble(split[3], 0) : 0;
+            switch( f.type ){
+                case COUNTER -> {
+                    f.b = split.length > 2 ? f.b : 1; // step
+                    f.last = f.a - f.b;
+                }
+                case WALK -> f.last = f.a;
+                case SINE -> f.b = f.b <= 0 ? 1 : f.b; // period can't be 0
+                case RANDOM -> f.b = split.length > 2 ? f.b : 100;
+                default -> {}
+            }
+            return f;
+        }
+        void appendTo( StringBuilder sb ){
+            switch( type ){
+                case TEXT -> sb.append(text);
+                case COUNTER -> {
+                    last += b;
+                    if( last == Math.rint(last) ){
+                        sb.append((long)last);
+                    }else{
+                        appendValue(sb,last);
+                    }
+                }
+                case SINE -> {
+                    double t = (System.nanoTime()-startNanos)/1e9;
+                    last = a*Math.sin(2*Math.PI*t/b)+c;
+                    appendValue(sb,last);
+                }
+                case WALK -> {
+                    last += (ThreadLocalRandom.current().nextDouble()*2-1)*b;
+                    appendValue(sb,last);
+                }
+                case RANDOM -> {
+                    last = a + ThreadLocalRandom.current().nextDouble()*(b-a);
+                    appendValue(sb,last);
+                }
+                case TIME -> {
+                    var now = LocalTime.now(ZoneOffset.UTC);
+                    last = now.toSecondOfDay();
+                    pad(sb,now.getHour());
+                    pad(sb,now.getMinute());
+                    pad(sb,now.getSecond()).append('.');
+                    pad(sb,now.getNano()/10_000_000);
+                }
+                case TIMESTAMP -> {
+                    var now = LocalDateTime.now(ZoneOffset.UTC);
+                    last = now.toEpochSecond(ZoneOffset.UTC);
+                    STAMP.formatTo(now,sb);
+                }
+                case EPOCH -> {
+                    last = System.currentTimeMillis();
+                    sb.append((long)last);
+                }
+            }
+        }
+        private void appendValue( StringBuilder sb, double val ){
+            sb.append( Math.round(val*scale)/scale );
+        }
+        private static StringBuilder pad( StringBuilder sb, int val ){
+            if( val < 10 )
+                sb.append('0');
+            return sb.append(val);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package io.stream;
 
+import io.FanOut;
 import io.Writable;
 import org.tinylog.Logger;
 import org.w3c.dom.Element;
@@ -44,21 +45,23 @@ public boolean writeLine(String origin, String data) {
         return processData(data);
     }
     private boolean processData( String msg ){
+        long start = System.nanoTime();
         if( readerIdle ){
             readerIdle=false;
 		    listeners.forEach( l-> l.notifyActive(id));
 	   }	
        if (msg != null && !(msg.isBlank() && clean)) { //make sure that the received data is not 'null' or an empty string           
+            metrics.received(msg.length());
             if(!label.isEmpty()) {
                 var d = Datagram.build(msg).priority(priority).label(label).writable(this);
-                dQueue.add(d);
+                dQueue.offer(d);
             }
             // Log anything and everything (except empty strings)
             if( !msg.isBlank() && log )		// If the message isn't an empty string and logging is enabled, store the data with logback
         	    Logger.tag("RAW").warn( id() + "\t" + msg );
 
 			if( !targets.isEmpty() ){
-                targets.forEach(dt -> eventLoopGroup.submit( () -> dt.writeLine(id,msg)) );
+                FanOut.write(targets,id,msg,start,metrics.latencySink());
                 targets.removeIf(wr -> !wr.isConnectionValid() ); // Clear inactive
 			}
 		
@@ -0,0 +1,347 @@
+package io.stream;
+
+import io.netty.channel.EventLoopGroup;
+import org.tinylog.Logger;
+import org.w3c.dom.Element;
+import util.data.RealVal;
+import util.data.RealtimeValues;
+import util.math.MathUtils;
+import util.tools.TimeTools;
+import util.xml.XMLdigger;
+
+import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Polls the registers defined in the poll node of a modbus stream and writes the results to realvals.
+ * Registers of the same slave and function that are close to each other are combined into a single read request and
+ * the requests are send back to back. For rtu there's only one request on the bus at a time, for tcp multiple
+ * requests can be in flight because the transaction id is used to match the reply.
+ */
+public class ModbusPoller {
+
+    enum DATATYPE{INT16,UINT16,INT32,UINT32,FLOAT32}
+
+    private final String id;
+    private final boolean tcp;
+    private Predicate<byte[]> sender;  // Writes a complete frame (so with crc or mbap header)
+
+    private long interval = 1000;   // Time between the start of poll cycles in ms
+    private long timeout = 250;     // Max time to wait for a reply in ms
+    private int maxGap = 4;         // Max unused registers between two that are read in the same request
+    private int maxRegs = 125;      // Max registers in a single request (limit of the modbus spec)
+    private int maxInFlight = 8;    // Max requests waiting for a reply (tcp only)
+
+    private final ArrayList<Register> registers = new ArrayList<>();
+    private final ArrayList<Block> blocks = new ArrayList<>();
+
+    private final ArrayDeque<Block> pending = new ArrayDeque<>();         // Blocks still to request this cycle
+    private final HashMap<Integer,Request> inFlight = new HashMap<>();   // Requests waiting for a reply, key is tid
+    private int tid = 0;
+    private EventLoopGroup eventLoop;
+    private ScheduledFuture<?> cycleFuture;
+
+    /* Stats */
+    private long cycleStart = 0;
+    private long lastCycle = 0;     // Duration of the last complete cycle in µs
+    private long requests = 0;
+    private long replies = 0;
+    private long timeouts = 0;
+    private long exceptions = 0;
+    private long overruns = 0;      // Cycles skipped because the previous one wasn't finished yet
+
+    private record Register( int slave, int function, int address, DATATYPE type, double scale, String group, String name ){
+        int size(){
+            return type==DATATYPE.INT16||type==DATATYPE.UINT16?1:2;
+        }
+    }
+    private record Request( Block block, long sent ){}
+
+    private ModbusPoller( String id, boolean tcp ){
+        this.id=id;
+        this.tcp=tcp;
+    }
+
+    /**
+     * Read the poll node of a modbus stream
+     * @param id The id of the stream
+     * @param poll The poll node
+     * @param tcp True if this is used for modbus tcp, false for rtu
+     * @return The poller or an empty optional if no valid registers were found
+     */
+    public static Optional<ModbusPoller> readFromXML( String id, Element poll, boolean tcp ){
+        var poller = new ModbusPoller(id,tcp);
+        var dig = XMLdigger.goIn(poll);
+
+        poller.interval = Math.max(10,TimeTools.parsePeriodStringToMillis(dig.attr("interval","1s")));
+        poller.timeout = Math.max(1,TimeTools.parsePeriodStringToMillis(dig.attr("timeout","250ms")));
+        poller.maxGap = Math.max(0,dig.attr("maxgap",poller.maxGap));
+        poller.maxRegs = Math.min(125,Math.max(1,dig.attr("maxregs",poller.maxRegs)));
+        poller.maxInFlight = Math.max(1,dig.attr("inflight",poller.maxInFlight));
+
+        for( var slaveDig : dig.digOut("slave") ){
+            int slave = slaveDig.attr("id",-1);
+            if( slave < 0 || slave > 247 ){
+                Logger.error(id+"(mb) -> Invalid slave id, skipping it");
+                continue;
+            }
+            var group = slaveDig.attr("group",id);
+            for( var reg : slaveDig.digOut("register") ){
+                var name = reg.attr("name","");
+                int address = reg.attr("address",-1);
+                if( name.isEmpty() || address < 0 || address > 0xFFFF ){
+                    Logger.error(id+"(mb) -> Register without name or valid address for slave "+slave);
+                    continue;
+                }
+                int function = reg.attr("type","holding").equalsIgnoreCase("input")?4:3;
+                DATATYPE type;
+                try {
+                    type = DATATYPE.valueOf(reg.attr("datatype","int16").toUpperCase());
+                }catch( IllegalArgumentException e ){
+                    Logger.error(id+"(mb) -> Unknown datatype for "+name+", using int16");
+                    type = DATATYPE.INT16;
+                }
+                poller.registers.add( new Register(slave,function,address,type,reg.attr("scale",1.0),group,name) );
+            }
+        }
+        if( poller.registers.isEmpty() ){
+            Logger.error(id+"(mb) -> No valid registers found in the poll node");
+            return Optional.empty();
+        }
+        poller.buildBlocks();
+        Logger.info(id+"(mb) -> Polling "+poller.registers.size()+" registers with "+poller.blocks.size()+" requests every "+poller.interval+"ms");
+        return Optional.of(poller);
+    }
+
+    /**
+     * Combine the registers into the least amount of read requests
+     */
+    private void buildBlocks(){
+        blocks.clear();
+        registers.sort( Comparator.comparingInt(Register::slave).thenComparingInt(Register::function).thenComparingInt(Register::address));
+
+        Block block = null;
+        for( var reg : registers ){
+            int end = reg.address()+reg.size(); // First register after this one
+            if( block != null && block.slave==reg.slave() && block.function==reg.function()
+                    && reg.address()-block.end() <= maxGap && end-block.start <= maxRegs ){
+                block.add(reg);
+            }else{
+                block = new Block(reg);
+                blocks.add(block);
+            }
+        }
+        blocks.forEach( b -> b.buildFrame(tcp) );
+    }
+
+    /**
+     * Create the realvals for all the registers
+     * @param rtvals The realtimevalues to add them to
+     */
+    public void linkRealVals( RealtimeValues rtvals ){
+        for( var block : blocks ){
+            for( int a=0;a<block.regs.size();a++ ){
+                var reg = block.regs.get(a);
+                var rv = RealVal.newVal(reg.group(),reg.name());
+                rtvals.addRealVal(rv);
+                block.vals[a] = rtvals.getRealVal(rv.id()).orElse(rv); // Use the existing one if any
+            }
+        }
+    }
+
+    /**
+     * Set the function used to write a complete frame to the bus
+     * @param sender Writes the frame and returns true if that worked
+     */
+    public void setSender( Predicate<byte[]> sender ){
+        this.sender=sender;
+    }
+
+    /**
+     * Start polling
+     * @param eventLoop The eventloop used for the cycle and the timeouts
+     */
+    public synchronized void start( EventLoopGroup eventLoop ){
+        stop();
+        this.eventLoop=eventLoop;
+        cycleFuture = eventLoop.scheduleAtFixedRate(this::startCycle,interval,interval,TimeUnit.MILLISECONDS);
+    }
+    public synchronized void stop(){
+        if( cycleFuture != null )
+            cycleFuture.cancel(false);
+        cycleFuture=null;
+        pending.clear();
+        inFlight.clear();
+    }
+
+    /* ************************************* Polling ******************************************************** */
+    private synchronized void startCycle(){
+        if( !pending.isEmpty() || !inFlight.isEmpty() ){ // Previous isn't done yet
+            overruns++;
+            return;
+        }
+        cycleStart = System.nanoTime();
+        pending.addAll(blocks);
+        sendNext();
+    }
+    private void sendNext(){
+        int limit = tcp?maxInFlight:1; // Rtu is a shared bus, so only one at a time
+        while( inFlight.size() < limit && !pending.isEmpty() ){
+            var block = pending.poll();
+            tid = (tid+1) & 0xFFFF;
+            var request = new Request(block,System.nanoTime());
+            inFlight.put(tid,request);
+            requests++;
+            if( sender == null || !sender.test(block.frame(tid)) ){ // Not connected, so no use continuing this cycle
+                pending.clear();
+                inFlight.clear();
+                return;
+            }
+            int key = tid;
+            eventLoop.schedule( () -> timedOut(key,request), timeout, TimeUnit.MILLISECONDS);
+        }
+        if( pending.isEmpty() && inFlight.isEmpty() && cycleStart != 0 ){
+            lastCycle = (System.nanoTime()-cycleStart)/1000;
+            cycleStart = 0;
+        }
+    }
+    private synchronized void timedOut( int key, Request request ){
+        if( inFlight.remove(key,request) ){
+            timeouts++;
+            Logger.debug(id+"(mb) -> No reply from slave "+request.block().slave+" for register "+request.block().start);
+            sendNext();
+        }
+    }
+
+    /**
+     * Process a reply, this should get every complete frame received by the stream
+     * @param data The array containing the frame
+     * @param length The length of the frame, without the crc for rtu
+     * @return True if it was a reply to one of the poll requests, false if it's something else
+     */
+    public synchronized boolean handleReply( byte[] data, int length ){
+        int pdu = tcp?7:1;  // Index of the function code
+        if( length < pdu+2 )
+            return false;
+
+        Request request;
+        if( tcp ){
+            int key = ((data[0]&0xFF)<<8) | (data[1]&0xFF);
+            request = inFlight.get(key);
+            if( request == null || request.block().slave != (data[6]&0xFF) )
+                return false;
+            inFlight.remove(key);
+        }else{
+            if( inFlight.size() != 1 )
+                return false;
+            var entry = inFlight.entrySet().iterator().next();
+            request = entry.getValue();
+            if( request.block().slave != (data[0]&0xFF) || request.block().function != (data[1]&0x7F) )
+                return false;
+            inFlight.remove(entry.getKey());
+        }
+        replies++;
+        int function = data[pdu]&0xFF;
+        if( (function & 0x80) != 0 ){
+            exceptions++;
+            Logger.warn(id+"(mb) -> Slave "+request.block().slave+" replied with exception "+(data[pdu+1]&0xFF)
+                            +" for register "+request.block().start);
+        }else if( (data[pdu+1]&0xFF) < request.block().count()*2 || length < pdu+2+request.block().count()*2 ){
+            Logger.error(id+"(mb) -> Reply of slave "+request.block().slave+" is too short");
+        }else{
+            request.block().apply(data,pdu+2);
+        }
+        sendNext();
+        return true;
+    }
+
+    /**
+     * Get a single line overview of the poller
+     * @return The overview
+     */
+    public synchronized String getStatus(){
+        return blocks.size()+" requests/"+interval+"ms, last cycle "+(lastCycle/1000.0)+"ms, "+requests+" sent, "
+                + replies+" replies, "+timeouts+" timeouts, "+exceptions+" exceptions, "+overruns+" overruns";
+    }
+
+    /* ************************************* Blocks ******************************************************** */
+    /**
+     * Consecutive registers of a single slave that are read with a single request
+     */
+    private static class Block{
+        final int slave;
+        final int function;
+        final int start;
+        int end;    // First register after the block, a register can extend past the ones added after it
+        final ArrayList<Register> regs = new ArrayList<>();
+        RealVal[] vals;
+        byte[] frame;
+
+        Block( Register reg ){
+            slave = reg.slave();
+            function = reg.function();
+            start = reg.address();
+            end = start+1;
+            add(reg);
+        }
+        void add( Register reg ){
+            regs.add(reg);
+            end = Math.max( end, reg.address()+reg.size() );
+        }
+        int end(){
+            return end;
+        }
+        int count(){
+            return end()-start;
+        }
+        void buildFrame( boolean tcp ){
+            vals = new RealVal[regs.size()];
+            int cnt = count();
+            byte[] pdu = {(byte)slave,(byte)function,(byte)(start>>8),(byte)start,(byte)(cnt>>8),(byte)cnt};
+            if( tcp ){ // MBAP header: transaction id (filled in when sent), protocol 0 and length, then the pdu
+                frame = new byte[12];
+                frame[5] = 6;
+                System.arraycopy(pdu,0,frame,6,pdu.length);
+            }else{ // Rtu is the pdu followed by the crc, which doesn't change so calculate it once
+                frame = MathUtils.calcCRC16_modbus(pdu,true);
+            }
+        }
+        byte[] frame( int tid ){
+            if( frame.length != 12 )
+                return frame;
+            var copy = frame.clone();
+            copy[0] = (byte)(tid>>8);
+            copy[1] = (byte)tid;
+            return copy;
+        }
+        /**
+         * Convert the registers in the reply and update the realvals
+         * @param data The reply
+         * @param offset Index of the first register in the reply
+         */
+        void apply( byte[] data, int offset ){
+            for( int a=0;a<regs.size();a++ ){
+                var reg = regs.get(a);
+                int pos = offset+(reg.address()-start)*2;
+                int hi = ((data[pos]&0xFF)<<8) | (data[pos+1]&0xFF);
+                double val = switch( reg.type() ){
+                    case INT16 -> (short)hi;
+                    case UINT16 -> hi;
+                    case INT32, UINT32, FLOAT32 -> {
+                        int lo = ((data[pos+2]&0xFF)<<8) | (data[pos+3]&0xFF);
+                        int full = (hi<<16) | lo;
+                        if( reg.type()==DATATYPE.INT32 )
+                            yield full;
+                        if( reg.type()==DATATYPE.UINT32 )
+                            yield Integer.toUnsignedLong(full);
+                        yield Float.intBitsToFloat(full);
+                    }
+                };
+                if( vals[a] != null )
+                    vals[a].value(val*reg.scale());
+            }
+        }
+    }
+}
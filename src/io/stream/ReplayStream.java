@@ -0,0 +1,269 @@
+package io.stream;
+
+import das.Paths;
+import io.FanOut;
+import org.tinylog.Logger;
+import org.w3c.dom.Element;
+import util.tools.Tools;
+import util.xml.XMLdigger;
+import worker.Datagram;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Stream that reads the raw log files (plain or gzipped) and emits the lines again with the original stream id.
+ * The lines can be replayed in realtime, a multiple of it or as fast as possible.
+ */
+public class ReplayStream extends BaseStream {
+
+    private static final DateTimeFormatter RAW_STAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private Path path;              // The file or folder with files to replay
+    private String source;          // Only replay lines of this stream id, empty means all
+    private double speed;           // Multiplier for the time between lines, 0 means as fast as possible
+    private boolean loop;           // Start over when all files are done
+    private boolean inject;         // Also give the lines to the targets of the stream with the original id
+
+    private Function<String,Optional<BaseStream>> streamLookup = id -> Optional.empty();
+    private volatile boolean running = false;
+    private volatile Thread worker;
+    private long linesDone = 0;
+    private String currentFile = "";
+
+    public ReplayStream(BlockingQueue<Datagram> dQueue, Element stream) {
+        super(dQueue,stream);
+    }
+
+    @Override
+    protected boolean readExtraFromXML(Element stream) {
+        var dig = XMLdigger.goIn(stream);
+
+        path = dig.peekAt("path").value(Paths.storage()).orElse(null);
+        source = dig.peekAt("source").value("");
+        var sp = dig.peekAt("speed").value("1");
+        speed = sp.equalsIgnoreCase("max") ? 0 : Math.max(0, Tools.parseDouble(sp, 1));
+        loop = dig.peekAt("loop").value(false);
+        inject = dig.peekAt("inject").value(false);
+        log = dig.peekAt("log").value(false); // The data is already in the raw logs, so default to not logging it again
+
+        if( path == null ){
+            Logger.error(id+"(replay) -> No valid path given");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Set the function used to find the original stream, for its label and if inject is used, its targets
+     * @param lookup Function that returns the stream for a given id
+     */
+    public void setStreamLookup( Function<String,Optional<BaseStream>> lookup ){
+        streamLookup = lookup;
+    }
+
+    @Override
+    public boolean connect() {
+        if( running )
+            return true;
+        if( path == null || Files.notExists(path) ){
+            Logger.error(id+"(replay) -> Path doesn't exist: "+path);
+            return false;
+        }
+        running = true;
+        linesDone = 0;
+        worker = new Thread(this::replay,"replay-"+id);
+        worker.setDaemon(true);
+        worker.start();
+        openedStamp = Instant.now().toEpochMilli();
+        applyTriggeredAction(TRIGGER.OPEN);
+        return true;
+    }
+
+    @Override
+    public boolean disconnect() {
+        running = false;
+        if( worker != null )
+            worker.interrupt();
+        return true;
+    }
+
+    @Override
+    public boolean isConnectionValid() {
+        return running;
+    }
+
+    @Override
+    public long getLastTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String getInfo() {
+        return "REPLAY [" + id + "|" + label + "] " + path + " at " + (speed==0?"max":speed+"x")
+                + (running ? " ("+linesDone+" lines, "+currentFile+")" : " (done)");
+    }
+
+    @Override
+    protected String getType() {
+        return "replay";
+    }
+
+    @Override
+    protected void flagIdle() {
+        // Nothing to do
+    }
+
+    /* ******************************************** Replaying ******************************************************** */
+
+    /**
+     * Get the files to replay, if the path is a folder this are all the raw files in it (and sub folders) sorted on
+     * date and count.
+     * @return The sorted list of files
+     */
+    private List<Path> listFiles(){
+        var files = new ArrayList<Path>();
+        if( Files.isDirectory(path) ){
+            try( var stream = Files.walk(path) ){
+                stream.filter(Files::isRegularFile)
+                        .filter( p -> p.getFileName().toString().contains("_RAW_") )
+                        .forEach(files::add);
+            } catch (IOException e) {
+                Logger.error(id+"(replay) -> Failed to list "+path+": "+e.getMessage());
+            }
+            files.sort(Comparator.comparing(ReplayStream::sortKey));
+        }else{
+            files.add(path);
+        }
+        return files;
+    }
+
+    /**
+     * Make a key that sorts the raw files on date and then on count, fe. 2025-02-01_RAW_10.log.gz -> 2025-02-01_000010
+     */
+    private static String sortKey( Path file ){
+        var name = file.getFileName().toString();
+        int index = name.indexOf("_RAW_");
+        if( index == -1 )
+            return name;
+        var count = name.substring(index+5).replaceAll("\\D.*","");
+        return name.substring(0,index)+"_"+"0".repeat(Math.max(0,6-count.length()))+count;
+    }
+    private static BufferedReader openReader( Path file ) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if( file.getFileName().toString().endsWith(".gz") )
+            in = new GZIPInputStream(in,65536);
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8),65536);
+    }
+
+    private void replay(){
+        Logger.info(id+"(replay) -> Starting replay of "+path);
+        long firstStamp = -1;  // Timestamp of the first line in ms
+        long startNanos = 0;   // Moment the first line was replayed
+
+        do{
+            for( var file : listFiles() ){
+                if( !isActive() )
+                    break;
+                currentFile = file.getFileName().toString();
+                try( var reader = openReader(file) ){
+                    String line;
+                    while( isActive() && (line = reader.readLine()) != null ){
+                        // Format is [yyyy-MM-dd HH:mm:ss.SSS]\tid\tdata
+                        int end = line.indexOf("]\t");
+                        int tab = end == -1 ? -1 : line.indexOf('\t', end + 2);
+                        if( !line.startsWith("[") || tab == -1 )
+                            continue; // Not a raw line, or a continuation of a multiline message
+                        var origin = line.substring(end+2,tab);
+                        if( !source.isEmpty() && !source.equalsIgnoreCase(origin) )
+                            continue;
+
+                        if( speed != 0 ){
+                            long stamp = parseStamp(line.substring(1,end));
+                            if( stamp != -1 ) {
+                                if (firstStamp == -1) {
+                                    firstStamp = stamp;
+                                    startNanos = System.nanoTime();
+                                }
+                                long due = startNanos + (long) ((stamp - firstStamp) * 1_000_000 / speed);
+                                long wait = due - System.nanoTime();
+                                if (wait > 0)
+                                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                            }
+                        }
+                        emit(origin, line.substring(tab+1));
+                    }
+                } catch (IOException e) {
+                    Logger.error(id+"(replay) -> Failed reading "+file+": "+e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            firstStamp = -1; // A new loop starts timing over
+        }while( loop && isActive() );
+
+        Logger.info(id+"(replay) -> Replay finished after "+linesDone+" lines");
+        if( worker != Thread.currentThread() ) // Replaced by a newer replay, so nothing else to do
+            return;
+        running = false;
+        listeners.forEach( l -> l.notifyClosed(id)); // Applies the close triggers
+    }
+    /**
+     * Check if the current thread is the one that should be replaying, after a reload the old one should stop
+     * @return True if it should continue
+     */
+    private boolean isActive(){
+        return running && worker == Thread.currentThread() && !Thread.currentThread().isInterrupted();
+    }
+    private static long parseStamp( String stamp ){
+        try {
+            return LocalDateTime.parse(stamp, RAW_STAMP).toInstant(ZoneOffset.UTC).toEpochMilli();
+        }catch( DateTimeParseException e ){
+            return -1;
+        }
+    }
+
+    /**
+     * Give a replayed line to the targets and if requested, to those of the original stream
+     * @param origin The id of the stream that originally received the line
+     * @param data The line
+     */
+    private void emit( String origin, String data ){
+        long start = System.nanoTime();
+        metrics.received(data.length());
+        linesDone++;
+
+        // The original stream is needed for its label, inject only decides if its targets get the line as well
+        var ori = label.isEmpty() || inject ? streamLookup.apply(origin) : Optional.<BaseStream>empty();
+        var lbl = label.isEmpty() ? ori.map(BaseStream::getLabel).orElse("") : label;
+        if( !lbl.isEmpty() )
+            dQueue.offer( Datagram.build(data).label(lbl).priority(priority).origin(origin) );
+
+        if( log )
+            Logger.tag("RAW").warn( id + "\t" + data );
+
+        if( !targets.isEmpty() ) {
+            FanOut.write(targets, origin, data, start, metrics.latencySink());
+            targets.removeIf(wr -> !wr.isConnectionValid());
+        }
+        ori.filter( bs -> inject && bs != this && !bs.targets.isEmpty() )
+           .ifPresent( bs -> FanOut.write(bs.targets, origin, data) );
+
+        timestamp = Instant.now().toEpochMilli();
+    }
+}
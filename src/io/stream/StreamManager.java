@@ -2,13 +2,14 @@
 
 import das.Commandable;
 import das.Paths;
+import io.FanOut;
+import io.Transport;
 import io.Writable;
 import io.collector.CollectorFuture;
 import io.collector.ConfirmCollector;
 import io.collector.StoreCollector;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.stream.serialport.ModbusStream;
 import io.stream.serialport.MultiStream;
 import io.stream.serialport.SerialStream;
@@ -70,10 +71,11 @@ public StreamManager(BlockingQueue<Datagram> dQueue, EventLoopGroup nettyGroup,
 		this.dQueue = dQueue;
 		this.eventLoopGroup = nettyGroup;
 		this.rtvals=rtvals;
+		scheduler.scheduleAtFixedRate(this::tickMetrics,1,1,TimeUnit.SECONDS);
 	}
 
 	public StreamManager(BlockingQueue<Datagram> dQueue, RealtimeValues rtvals) {
-		this(dQueue, new NioEventLoopGroup(), rtvals);
+		this(dQueue, Transport.newGroup(0,"streams"), rtvals);
 	}
 
 	/**
@@ -107,6 +109,39 @@ public Optional<Writable> getWritable(String id ){
 
 	/* **************************** S T A T U S ************************************************************************/
 
+	/**
+	 * Update the rates of the metrics of all streams and mirror those to rtvals if requested
+	 */
+	private void tickMetrics(){
+		try {
+			for (var stream : List.copyOf(streams.values())) {
+				var metrics = stream.getMetrics();
+				if (stream.mirrorsStats() != metrics.isMirroring()) {
+					if (stream.mirrorsStats()) {
+						metrics.mirrorTo(stream.id(), rtvals);
+					} else {
+						metrics.stopMirror();
+					}
+				}
+				metrics.tick();
+			}
+		}catch( Exception e ){ // Don't let an exception stop the scheduled task
+			Logger.error(e);
+		}
+	}
+
+	/**
+	 * Get the metrics of all the streams
+	 * @param eol The eol to use
+	 * @return Per stream the rates, totals, errors and latency percentiles
+	 */
+	public String getStats( String eol ){
+		var join = new StringJoiner(eol);
+		join.setEmptyValue("No streams defined (yet)");
+		streams.values().forEach( bs -> join.add( bs.id()+" -> "+bs.getMetrics()));
+		return join.toString();
+	}
+
 	/**
 	 * Request a string holding info regarding the status of each connection
 	 *
@@ -514,6 +549,7 @@ public BaseStream addStreamFromXML( Element stream ){
 				if (XMLtools.hasChildByTag(stream, "address")) { // Address means tcp
 					ModbusTCPStream mbtcp = new ModbusTCPStream(dQueue, stream);
 					mbtcp.setEventLoopGroup(eventLoopGroup);
+					mbtcp.setRealtimeValues(rtvals);
 					mbtcp.addListener(this);
 					bootstrapTCP = mbtcp.setBootstrap(bootstrapTCP);
 					mbtcp.reconnectFuture = scheduler.schedule(new DoConnection(mbtcp), 0, TimeUnit.SECONDS);
@@ -521,6 +557,7 @@ public BaseStream addStreamFromXML( Element stream ){
 				} else {
 					ModbusStream modbus = new ModbusStream(dQueue, stream);
 					modbus.setEventLoopGroup(eventLoopGroup);
+					modbus.setRealtimeValues(rtvals);
 					modbus.addListener(this);
 					modbus.reconnectFuture = scheduler.schedule(new DoConnection(modbus), 0, TimeUnit.SECONDS);
 					return modbus;
@@ -546,6 +583,21 @@ public BaseStream addStreamFromXML( Element stream ){
 				local.reconnectFuture = scheduler.schedule(new DoConnection(local), 0, TimeUnit.SECONDS);
 				return local;
 			}
+			case "replay" -> {
+				ReplayStream replay = new ReplayStream(dQueue, stream);
+				replay.setEventLoopGroup(eventLoopGroup);
+				replay.setStreamLookup(this::getStream);
+				replay.addListener(this);
+				replay.reconnectFuture = scheduler.schedule(new DoConnection(replay), 0, TimeUnit.SECONDS);
+				return replay;
+			}
+			case "generator" -> {
+				GeneratorStream gen = new GeneratorStream(dQueue, stream);
+				gen.setEventLoopGroup(eventLoopGroup);
+				gen.addListener(this);
+				gen.reconnectFuture = scheduler.schedule(new DoConnection(gen), 0, TimeUnit.SECONDS);
+				return gen;
+			}
 			default -> Logger.error("No such type defined: "+type);
 		}
 		return null;
@@ -687,6 +739,8 @@ private String doSingleCmd( String cmd, boolean html){
 				yield join.toString();
 			}
 			case "status" -> getStatus();
+			case "fanout" -> FanOut.getStatus(html?"<br>":"\r\n");
+			case "stats" -> getStats(html?"<br>":"\r\n");
 			case "" -> getStreamList(html);
 			default ->  "! No such cmd in ss: " + cmd;
 		};
@@ -704,15 +758,19 @@ private String getCmdHelp(boolean html){
 				.add( "ss -> Get a list of all streams with indexes for sending data")
 				.add( "ss:buffers -> Get confirm buffers.")
 				.add( "ss:status -> Get streamlist.")
-				.add( "ss:requests -> Get an overview of all the datarequests held by the streams");
+				.add( "ss:requests -> Get an overview of all the datarequests held by the streams")
+				.add( "ss:fanout -> Get the waiting, dropped and lag of the mailboxes of all targets")
+				.add( "ss:stats -> Get the rates, totals, errors and latency of all streams");
 		join.add("Alter the stream settings")
 				.add( "ss:id,ttl,value -> Alter the ttl")
 				.add( "ss:id,prefixorigin,true/false -> Do/don't add the id of the data origin to lines received ")
 				.add( "ss:id,eol,value -> Alter the eol string")
 				.add( "ss:id,baudrate,value -> Alter the baudrate of a serial/modbus stream")
+				.add( "ss:id,rate,value -> Alter the lines per second of a generator stream")
 				.add( "ss:id,addwrite,when:data -> Add a triggered write, possible when are hello (stream opened) and wakeup (stream idle)")
 				.add( "ss:id,addcmd,when:data -> Add a triggered cmd, options for 'when' are open,idle,!idle,close")
-				.add( "ss:id,echo,on/off -> Sets if the data received on this stream will be returned to sender");
+				.add( "ss:id,echo,on/off -> Sets if the data received on this stream will be returned to sender")
+				.add( "ss:id,stats(,reset) -> Get (or reset) the rates, totals, errors and latency of the stream");
 		join.add( "Route data from or to a stream")
 				.add( "ss:forward,source,id -> Forward the data from a source to the stream, source can be any object that accepts a writable")
 				.add( "ss:connect,id1,if2 -> Data is interchanged between the streams with the given id's")
@@ -829,6 +887,18 @@ private String doAlterUseCmd( String[] cmds, XMLdigger dig){
 				fab.alterChild("serialsettings", ((SerialStream) stream).getSerialSettings()).build();
 				return "Altered the baudrate";
 			}
+			case "rate" -> {
+				if (!(stream instanceof GeneratorStream gen))
+					return "! Not a generator, no rate to change";
+				if (cmds.length < 3)
+					return "! Not enough arguments given: ss:id,rate,value";
+				var rate = Tools.parseDouble(cmds[2], -1);
+				if (rate <= 0)
+					return "! Invalid rate given: " + cmds[2];
+				gen.setRate(rate);
+				fab.alterChild("rate", cmds[2]).build();
+				return "Rate altered to " + cmds[2] + "/s";
+			}
 			case "label" -> {
 				if( cmds[2].isEmpty()||cmds[2].equalsIgnoreCase("void")){
 					fab.removeChild("label").build();
@@ -918,6 +988,13 @@ private String doAlterUseCmd( String[] cmds, XMLdigger dig){
 				fab.build();
 				return "Echo altered";
 			}
+			case "stats" -> {
+				if (cmds.length == 3 && cmds[2].equals("reset")) {
+					stream.getMetrics().reset();
+					return "Stats of " + cmds[0] + " reset";
+				}
+				return cmds[0] + " -> " + stream.getMetrics();
+			}
 			case "reloadstore"-> {
 				if (reloadStore(cmds[0]))
 					return "Reloaded the store of " + cmds[0];
@@ -0,0 +1,159 @@
+package io.stream;
+
+import util.data.RealVal;
+import util.data.RealtimeValues;
+import util.tools.Histogram;
+
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * Lock free counters for the data received by a stream.
+ * The latency is kept in a histogram (in µs), so the percentiles are known without having to store every sample.
+ */
+public class StreamMetrics {
+
+    private static final int BITS = 40; // Latencies up to 2^40 µs (almost two weeks) are distinguished
+
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder framingErrors = new LongAdder();
+    private final LongAdder droppedBytes = new LongAdder();
+    private final Histogram latency = new Histogram(BITS);
+    private final LongConsumer latencySink = this::recordLatency; // Made once so recording doesn't allocate
+
+    /* Rates, updated by tick */
+    private long lastMessages = 0;
+    private long lastBytes = 0;
+    private long lastTick = System.nanoTime();
+    private volatile double messageRate = 0;
+    private volatile double byteRate = 0;
+
+    /* Mirroring to rtvals */
+    private RealVal[] mirror;
+
+    /**
+     * Count a received message
+     * @param size The amount of bytes in the message
+     */
+    public void received( int size ){
+        messages.increment();
+        bytes.add(size);
+    }
+    public void framingError(){
+        framingErrors.increment();
+    }
+    public void dropped( int size ){
+        droppedBytes.add(size);
+    }
+    /**
+     * Add a latency sample to the histogram
+     * @param start The System.nanoTime() at which the message was received
+     */
+    public void recordLatencySince( long start ){
+        recordLatency( System.nanoTime()-start );
+    }
+    /**
+     * Add a latency sample to the histogram
+     * @param nanos The latency in nanoseconds
+     */
+    public void recordLatency( long nanos ){
+        latency.record(nanos/1000);
+    }
+
+    /**
+     * Get the consumer that records a latency in nanoseconds, for use by the fanout
+     * @return The consumer
+     */
+    public LongConsumer latencySink(){
+        return latencySink;
+    }
+    /**
+     * Update the rates and if enabled, the rtvals. This should be called on a fixed interval (fe. every second)
+     */
+    public synchronized void tick(){
+        long now = System.nanoTime();
+        double secs = (now-lastTick)/1e9;
+        if( secs <= 0 )
+            return;
+        long msg = messages.sum();
+        long b = bytes.sum();
+        messageRate = (msg-lastMessages)/secs;
+        byteRate = (b-lastBytes)/secs;
+        lastMessages = msg;
+        lastBytes = b;
+        lastTick = now;
+
+        if( mirror != null ){
+            mirror[0].value(messageRate);
+            mirror[1].value(byteRate);
+            mirror[2].value(framingErrors.sum());
+            mirror[3].value(percentile(0.99));
+        }
+    }
+
+    /**
+     * Mirror the rates, errors and 99th percentile latency to realvals in the group with the stream id
+     * @param group The group to use
+     * @param rtvals The realtimevalues to add them to
+     */
+    public synchronized void mirrorTo( String group, RealtimeValues rtvals ){
+        String[] names = {"msgrate","byterate","errors","latency_p99"};
+        mirror = new RealVal[names.length];
+        for( int a=0;a<names.length;a++ ){
+            var rv = RealVal.newVal(group,names[a]);
+            rtvals.addRealVal(rv);
+            mirror[a] = rtvals.getRealVal(rv.id()).orElse(rv); // Use the existing one if any
+        }
+    }
+    public synchronized void stopMirror(){
+        mirror=null;
+    }
+    public synchronized boolean isMirroring(){
+        return mirror!=null;
+    }
+
+    /**
+     * Get the amount of messages per second, as calculated during the last tick
+     * @return The rate
+     */
+    public double messageRate(){
+        return messageRate;
+    }
+    /**
+     * Get the upper bound of the bucket that holds the given percentile
+     * @param fraction The percentile as fraction fe. 0.99
+     * @return The latency in µs or 0 if no samples yet
+     */
+    public long percentile( double fraction ){
+        return latency.percentile(fraction);
+    }
+    public void reset(){
+        messages.reset();
+        bytes.reset();
+        framingErrors.reset();
+        droppedBytes.reset();
+        latency.reset();
+        synchronized (this) {
+            lastMessages = 0;
+            lastBytes = 0;
+        }
+    }
+
+    /**
+     * Get a readable overview of the metrics
+     * @return The overview on a single line
+     */
+    public String toString(){
+        var join = new StringJoiner(", ");
+        join.add(String.format("%.1f msg/s",messageRate))
+            .add(String.format("%.1f B/s",byteRate))
+            .add(messages.sum()+" msg")
+            .add(bytes.sum()+" B")
+            .add(framingErrors.sum()+" framing errors")
+            .add(droppedBytes.sum()+" B dropped")
+            .add("latency(µs) p50<"+percentile(0.5)+" p90<"+percentile(0.9)+" p99<"+percentile(0.99));
+        return join.toString();
+    }
+}
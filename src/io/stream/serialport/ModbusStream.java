@@ -1,10 +1,12 @@
 package io.stream.serialport;
 
-import org.apache.commons.lang3.ArrayUtils;
+import io.stream.ModbusPoller;
 import org.tinylog.Logger;
 import org.w3c.dom.Element;
+import util.data.RealtimeValues;
 import util.math.MathUtils;
 import util.tools.Tools;
+import util.xml.XMLdigger;
 import worker.Datagram;
 
 import java.time.Instant;
@@ -12,9 +14,10 @@
 
 public class ModbusStream extends SerialStream{
 
-    private final byte[] rec = new byte[128];
+    private final byte[] rec = new byte[256]; // Max size of a rtu frame
     private int index = 0;
     private boolean readyForWorker=false;
+    private ModbusPoller poller; // Polls the registers in the poll node, if any
 
     public ModbusStream(BlockingQueue<Datagram> dQueue, Element stream) {
         super(dQueue,stream);
@@ -26,7 +29,38 @@ public String getType(){
     }
     @Override
     public String getInfo() {
-        return "MODBUS [" + id + "] " + serialPort + " | " + getSerialSettings();
+        return "MODBUS [" + id + "] " + serialPort + " | " + getSerialSettings() + (poller==null?"":" | poll "+poller.getStatus());
+    }
+    @Override
+    protected boolean readExtraFromXML(Element stream) {
+        if( !super.readExtraFromXML(stream) )
+            return false;
+        poller = XMLdigger.goIn(stream).peekAndUse("poll")
+                        .flatMap( poll -> ModbusPoller.readFromXML(id,poll,false) ).orElse(null);
+        if( poller != null )
+            poller.setSender(this::write); // The frames already contain the crc
+        return true;
+    }
+    /**
+     * Create the realvals that receive the polled registers
+     * @param rtvals The realtimevalues to add them to
+     */
+    public void setRealtimeValues( RealtimeValues rtvals ){
+        if( poller != null )
+            poller.linkRealVals(rtvals);
+    }
+    @Override
+    public boolean connect() {
+        boolean ok = super.connect();
+        if( ok && poller != null && eventLoopGroup != null )
+            poller.start(eventLoopGroup);
+        return ok;
+    }
+    @Override
+    public boolean disconnect() {
+        if( poller != null )
+            poller.stop();
+        return super.disconnect();
     }
     @Override
     protected void processListenerEvent(byte[] data){
@@ -41,6 +75,10 @@ protected void processListenerEvent(byte[] data){
         timestamp = Instant.now().toEpochMilli();    		    // Store the timestamp of the received message
         
         for( byte b : data ){
+            if( index == rec.length ){ // Can't be valid, so start over
+                metrics.framingError();
+                index = 0;
+            }
             rec[index] = b;
             index++;   
         }
@@ -48,9 +86,13 @@ protected void processListenerEvent(byte[] data){
         if( index < 4) // can't do anything with it yet anyway
             return;
 
-        switch( rec[1] ){
+        if( (rec[1]&0x80) != 0 ){ // Exception reply is slave, function, code and crc
+            if( index == 5 )
+                readyForWorker=true;
+        }else switch( rec[1] ){
             case 0x03: // Register read
-                if( index == 5+rec[2] ) // Received all the data
+            case 0x04: // Input register read
+                if( index == 5+(rec[2]&0xFF) ) // Received all the data
                     readyForWorker=true;
             break;
             case 0x06: // reply?
@@ -71,9 +113,11 @@ protected void processListenerEvent(byte[] data){
                 Logger.tag("RAW").warn( id + "\t[hex] " + Tools.fromBytesToHexString(rec,0,index) );
 
             if( verifyCRC( rec, index ) ){
-                forwardData(Tools.fromBytesToHexString(rec,0,index-2));
+                if( poller == null || !poller.handleReply(rec,index-2) ) // Replies to the poller aren't forwarded
+                    forwardData(Tools.fromBytesToHexString(rec,0,index-2));
                 readyForWorker=false;
             }else{
+                metrics.framingError();
                 Logger.error(id+"(mb) -> Message failed CRC check: "+Tools.fromBytesToHexString(rec,0,index));
             }
             index=0;
@@ -85,7 +129,7 @@ public synchronized boolean writeBytes(byte[] data) {
         return write(data);
     }
     private boolean verifyCRC( byte[] data,int length){
-        byte[] crc = MathUtils.calcCRC16_modbus( ArrayUtils.subarray(data,0,length-2), false);
-        return crc[0]==data[length-2] && crc[1]==data[length-1];
+        int crc = MathUtils.calcCRC16_modbus(data,0,length-2);
+        return (byte)crc==data[length-2] && (byte)(crc>>>8)==data[length-1];
     }
 }
\ No newline at end of file
@@ -14,6 +14,7 @@
 
 import java.time.Instant;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Variant of the StreamHandler class that is
@@ -192,7 +193,7 @@ protected void processMessageEvent(byte[] data){
 
         // Implement the use of labels
         if( !label.isEmpty() && dQueue !=null ) { // No use adding to queue without label
-            dQueue.add( Datagram.build(msg).label(label).priority(priority).writable(this) );
+            dQueue.offer( Datagram.build(msg).label(label).priority(priority).writable(this) );
         }
 
         forwardData(msg);
@@ -209,9 +210,12 @@ protected void forwardData( String message){
     }
 
     private void forwardData(byte[] data) {
+        long start = System.nanoTime();
+        metrics.received(data.length);
         Logger.info("Received: " + new String(data));
         if (!targets.isEmpty()) {
             try {
+                var left = new AtomicInteger(targets.size()); // Latency is recorded once all targets got it
                 targets.forEach(dt -> eventLoopGroup.submit(() -> {
                     try {
                         if (dt.id().contains("telnet")) {
@@ -222,6 +226,8 @@ private void forwardData(byte[] data) {
                     } catch (Exception e) {
                         Logger.error(id + " -> Something bad while writeLine to " + dt.id(), e);
                     }
+                    if( left.decrementAndGet() == 0 )
+                        metrics.recordLatencySince(start);
                 }));
                 targets.removeIf(wr -> !wr.isConnectionValid()); // Clear inactive
             } catch (Exception e) {
@@ -1,6 +1,7 @@
 package io.stream.tcp;
 
 import io.Writable;
+import io.stream.ModbusPoller;
 import io.netty.channel.ChannelHandlerContext;
 import org.tinylog.Logger;
 import util.tools.Tools;
@@ -17,6 +18,7 @@ public class ModbusTCP extends TcpHandler{
     private final byte[] header=new byte[]{0,1,0,0,0,0,0};
     private final String[] origin = new String[]{"","","","reg","AI",""};
     private Long passed;
+    private ModbusPoller poller;
 
     public ModbusTCP(String id, BlockingQueue<Datagram> dQueue) {
         super(id, dQueue);
@@ -25,8 +27,16 @@ public ModbusTCP( String id,BlockingQueue<Datagram> dQueue, Writable writable ){
         this(id,dQueue);
         this.writable=writable;
     }
+    /**
+     * Set the poller that should get the replies first
+     * @param poller The poller
+     */
+    public void setPoller( ModbusPoller poller ){
+        this.poller=poller;
+    }
     @Override
     public void channelRead0(ChannelHandlerContext ctx, byte[] data) {
+        metrics.received(data.length);
 
         if( idle ){
             idle=false;
@@ -53,9 +63,13 @@ public void channelRead0(ChannelHandlerContext ctx, byte[] data) {
             }
         }
 
-        if( index < 6 || index < rec[4]*256+rec[5]+6) // Wait for length info and length content
+        if( index < 6 || index < (rec[4]&0xFF)*256+(rec[5]&0xFF)+6) // Wait for length info and length content
             return;
 
+        if( poller != null && poller.handleReply(rec,index) ){ // Reply to a poll request
+            index=0;
+            return;
+        }
         switch( rec[7] ){
             case 0x03: // Register read
             case 0x04: // Analog read?
@@ -113,6 +127,17 @@ public boolean writeBytes(byte[] data) {
     public boolean writeLine(String data) {
        return writeBytes(data.getBytes());
     }
+    /**
+     * Write a frame that already contains the mbap header
+     * @param frame The complete frame
+     * @return True if written
+     */
+    public boolean writeFrame(byte[] frame) {
+        if( channel==null || !channel.isActive() )
+            return false;
+        channel.writeAndFlush(frame);
+        return true;
+    }
     public byte[] getHeader(){
         return header;
     }
@@ -5,15 +5,17 @@
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.FixedLengthFrameDecoder;
 import io.netty.handler.codec.bytes.ByteArrayDecoder;
 import io.netty.handler.codec.bytes.ByteArrayEncoder;
 import io.netty.util.concurrent.FutureListener;
+import io.stream.ModbusPoller;
 import org.tinylog.Logger;
 import org.w3c.dom.Element;
 import util.LookAndFeel;
+import util.data.RealtimeValues;
 import util.tools.Tools;
+import util.xml.XMLdigger;
 import util.xml.XMLtools;
 import worker.Datagram;
 
@@ -22,6 +24,8 @@
 
 public class ModbusTCPStream extends TcpStream{
 
+    private ModbusPoller poller; // Polls the registers in the poll node, if any
+
     public ModbusTCPStream(BlockingQueue<Datagram> dQueue, Element stream) {
         super(dQueue,stream);
 
@@ -38,8 +42,31 @@ public boolean readExtraFromXML(Element stream) {
         }
         ipsock = new InetSocketAddress( address.substring(0,address.lastIndexOf(":")),
                     Tools.parseInt( address.substring(address.lastIndexOf(":")+1) , -1) );
+
+        poller = XMLdigger.goIn(stream).peekAndUse("poll")
+                        .flatMap( poll -> ModbusPoller.readFromXML(id,poll,true) ).orElse(null);
+        if( poller != null )
+            poller.setSender( frame -> handler instanceof ModbusTCP mb && mb.writeFrame(frame) );
         return true;
     }
+    /**
+     * Create the realvals that receive the polled registers
+     * @param rtvals The realtimevalues to add them to
+     */
+    public void setRealtimeValues( RealtimeValues rtvals ){
+        if( poller != null )
+            poller.linkRealVals(rtvals);
+    }
+    @Override
+    public String getInfo() {
+        return super.getInfo() + (poller==null?"":" | poll "+poller.getStatus());
+    }
+    @Override
+    public boolean disconnect() {
+        if( poller != null )
+            poller.stop();
+        return super.disconnect();
+    }
     @Override
     public boolean connect() {
         ChannelFuture f;
@@ -70,8 +97,11 @@ public void initChannel(SocketChannel ch){
                     handler = new ModbusTCP( id, dQueue, ModbusTCPStream.this );
                     handler.setPriority(priority);
                     handler.setTargets(targets);
+                    handler.setMetrics(metrics);
                     handler.setStreamListeners( listeners );
                     handler.setEventLoopGroup(eventLoopGroup);
+                    if( poller != null )
+                        ((ModbusTCP)handler).setPoller(poller);
                     ch.pipeline().addLast( handler );
                 }catch( io.netty.channel.ChannelPipelineException e ){
                     Logger.error(id+" -> Issue trying to use handler for "+id);
@@ -79,7 +109,10 @@ public void initChannel(SocketChannel ch){
                 }
             }
         });
-        return connectIPSock(bootstrap,ipsock);
+        boolean ok = connectIPSock(bootstrap,ipsock);
+        if( ok && poller != null )
+            poller.start(eventLoopGroup);
+        return ok;
     }
 
 }
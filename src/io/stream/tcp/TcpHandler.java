@@ -1,15 +1,19 @@
 package io.stream.tcp;
 
+import io.FanOut;
 import io.Writable;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
 import io.netty.handler.codec.TooLongFrameException;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.stream.StreamListener;
+import io.stream.StreamMetrics;
 import org.tinylog.Logger;
 import worker.Datagram;
 
 import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
@@ -35,12 +39,15 @@ public class TcpHandler extends SimpleChannelInboundHandler<byte[]>{
     protected InetSocketAddress remote;
     protected Writable writable;
     protected List<Writable> targets;
+    protected StreamMetrics metrics = new StreamMetrics(); // Replaced by the one of the stream if any
 
     protected EventLoopGroup eventLoopGroup;
 
     String eol="\r\n";
     boolean udp=false;
 
+    private static final Charset CHARSET = Charset.defaultCharset(); // Same charset new String(byte[]) would use
+
     public TcpHandler( String id,BlockingQueue<Datagram> dQueue ){
         this.id=id;
         this.dQueue=dQueue;
@@ -52,6 +59,9 @@ public TcpHandler( String id, BlockingQueue<Datagram> dQueue, Writable writable
     public void setTargets(List<Writable> targets){
         this.targets = targets;
     }
+    public void setMetrics( StreamMetrics metrics ){
+        this.metrics = metrics;
+    }
     public long getTimestamp(){
         return timeStamp;
     }
@@ -87,7 +97,8 @@ public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         // Close the connection when an exception is raised, but don't send messages if it's related to remote ignore	
 		String address = ctx.channel().remoteAddress().toString();
 
-		if (cause instanceof TooLongFrameException){	
+		if (cause instanceof TooLongFrameException){
+			metrics.framingError();
 			Logger.warn(id+" -> Unexpected exception caught: "+cause.getMessage(), true);
 			ctx.flush();
 		}else if( cause instanceof java.net.PortUnreachableException){
@@ -141,8 +152,21 @@ public void channelUnregistered(ChannelHandlerContext ctx) {
         // Don't care about this     
     }
     @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if( msg instanceof ByteBuf buf ){ // No ByteArrayDecoder in the pipeline, so work on the (pooled) frame directly
+            try {
+                channelReadBuf(buf);
+            }finally{
+                buf.release(); // The frame was retained by the framer, so release it when done
+            }
+        }else{
+            super.channelRead(ctx,msg);
+        }
+    }
+    @Override
     public void channelRead0(ChannelHandlerContext ctx, byte[] data) throws Exception {
-       
+       long start = System.nanoTime();
+       metrics.received(data.length);
        String msg = new String( data );	// Convert the raw data to a readable string
 	   
 	   if( idle ){
@@ -155,33 +179,101 @@ public void channelRead0(ChannelHandlerContext ctx, byte[] data) throws Exceptio
             msg = msg.replace("\r", "");   // Remove carriage return characters
             msg = msg.replace("\0","");    // Remove null characters
 
-            // Log anything and everything (except empty strings)
-            if( !msg.isBlank() && log ) {        // If the message isn't an empty string and logging is enabled, store the data with logback
-               Logger.tag("RAW").warn( id + "\t" + msg);
-            }
+            processMessage(msg,new String(data),start);
+        }else{
+            metrics.dropped(data.length);
+        }
+	}
 
-            // Implement the use of labels
-            if( !label.isEmpty() && dQueue !=null ) { // No use adding to queue without label
-               dQueue.add( Datagram.build(msg)
-                       .label(label)
-                       .origin(id)
-                       .priority(priority)
-                       .writable(writable)
-                       .toggleSilent()
-                       );
-            }
+    /**
+     * Process a frame that is still in the buffer given by the framer. The control characters are stripped in place
+     * and the content is only decoded once, that single String is then shared by the datagram, the raw log and targets.
+     * @param buf The frame to process, this isn't released here
+     */
+    protected void channelReadBuf( ByteBuf buf ){
+        long start = System.nanoTime();
+        int size = buf.readableBytes();
+        metrics.received(size);
+        if( idle ){
+            idle=false;
+            listeners.forEach( l-> l.notifyActive(id));
+        }
+        stripControlChars(buf);
+        if( isBlank(buf) ) {
+            metrics.dropped(size);
+            return;
+        }
+        var msg = buf.toString(CHARSET); // The only decode done for this frame
+        processMessage(msg,msg,start);
+    }
 
-            // Forward data to targets
-			if( !targets.isEmpty() ){
-                String tosend=new String(data);
-                targets.parallelStream().forEach( wr -> wr.writeLine(id,tosend));// Concurrent sending to multiple writables
-                targets.removeIf(wr -> !wr.isConnectionValid() ); // Clear inactive
-			}
+    /**
+     * Log, queue and forward a received message
+     * @param msg The message after removal of control characters
+     * @param toTargets The data to give to the targets
+     * @param start The System.nanoTime() at which the frame was received
+     */
+    private void processMessage( String msg, String toTargets, long start ){
+        // Log anything and everything (except empty strings)
+        if( !msg.isBlank() && log ) {        // If the message isn't an empty string and logging is enabled, store the data with logback
+            Logger.tag("RAW").warn( id + "\t" + msg);
+        }
 
-            // Keep the timestamp of the last message
-            timeStamp = Instant.now().toEpochMilli();    		// Store the timestamp of the received message
+        // Implement the use of labels
+        if( !label.isEmpty() && dQueue !=null ) { // No use adding to queue without label
+            dQueue.offer( Datagram.build(msg)
+                    .label(label)
+                    .origin(id)
+                    .priority(priority)
+                    .writable(writable)
+                    .toggleSilent()
+            );
         }
-	}
+
+        // Forward data to targets
+        if( !targets.isEmpty() ){
+            // Each target has its own mailbox, so a slow one doesn't stall this. Latency is recorded once all wrote it.
+            FanOut.write(targets,id,toTargets,start,metrics.latencySink());
+            targets.removeIf(wr -> !wr.isConnectionValid() ); // Clear inactive
+            FanOut.throttle(channel,targets); // Stop reading while the forwards can't keep up
+        }else{
+            metrics.recordLatencySince(start);
+        }
+
+        // Keep the timestamp of the last message
+        timeStamp = Instant.now().toEpochMilli();    		// Store the timestamp of the received message
+    }
+
+    /**
+     * Remove all \r, \n and \0 from the readable bytes of the buffer by compacting the other bytes to the front
+     * @param buf The buffer to alter
+     */
+    private static void stripControlChars( ByteBuf buf ){
+        int write = buf.readerIndex();
+        for( int read = buf.readerIndex(); read < buf.writerIndex(); read++ ){
+            byte b = buf.getByte(read);
+            if( b == '\n' || b == '\r' || b == 0 )
+                continue;
+            if( write != read )
+                buf.setByte(write,b);
+            write++;
+        }
+        buf.writerIndex(write);
+    }
+
+    /**
+     * Check if the readable part of the buffer only contains whitespace, same as String.isBlank for ascii
+     * @param buf The buffer to check
+     * @return True if nothing but whitespace was found
+     */
+    private static boolean isBlank( ByteBuf buf ){
+        for( int i = buf.readerIndex(); i < buf.writerIndex(); i++ ){
+            byte b = buf.getByte(i);
+            if( b < 0x09 || (b > 0x0D && b < 0x1C) || b > 0x20 ) // Anything but the whitespace of Character.isWhitespace
+                return false;
+        }
+        return true;
+    }
     public boolean writeString(String data) {
         if( channel==null || !channel.isActive() )
             return false;
@@ -3,13 +3,12 @@
 import das.Paths;
 import io.stream.BaseStream;
 import io.stream.StreamListener;
+import io.Transport;
 import io.Writable;
 import das.Commandable;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.DelimiterBasedFrameDecoder;
 import io.netty.handler.codec.Delimiters;
 import io.netty.handler.codec.bytes.ByteArrayDecoder;
@@ -35,7 +34,7 @@ public class TcpServer implements StreamListener, Commandable {
 
 	private final HashMap<String,TransDefault> defaults = new HashMap<>();
 
-	private final EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+	private final EventLoopGroup bossGroup = Transport.newGroup(1,"trans-boss");
 	private final EventLoopGroup workerGroup;
 
 	private final ArrayList<TransHandler> clients = new ArrayList<>();
@@ -124,7 +123,7 @@ private void run(int port) {
 		// Netty
 		try {
 			ServerBootstrap b = new ServerBootstrap();
-			b.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class).option(ChannelOption.SO_BACKLOG, 50)
+			b.group(bossGroup, workerGroup).channel(Transport.serverSocketChannel()).option(ChannelOption.SO_BACKLOG, 50)
 					.childHandler(new ChannelInitializer<SocketChannel>() {
 						@Override
 						public void initChannel(SocketChannel ch){
@@ -1,11 +1,10 @@
 package io.stream.tcp;
 
+import io.Transport;
 import io.Writable;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.DelimiterBasedFrameDecoder;
 import io.netty.handler.codec.Delimiters;
 import io.netty.handler.codec.bytes.ByteArrayDecoder;
@@ -15,6 +14,7 @@
 import org.tinylog.Logger;
 import org.w3c.dom.Element;
 import util.tools.Tools;
+import util.xml.XMLdigger;
 import util.xml.XMLtools;
 import worker.Datagram;
 
@@ -27,9 +27,10 @@ public class TcpServerStream extends BaseStream implements Writable, StreamListe
     private InetSocketAddress ipsock;
     private ChannelFuture serverFuture;
     private final ArrayList<TcpHandler> clients = new ArrayList<>();
-    private final EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+    private final EventLoopGroup bossGroup = Transport.newGroup(1,"tcpserver-boss");
     private int nr=0;
     private boolean serverOk=false;
+    private boolean zeroCopy; // Process the frames as ByteBuf, no initializer because it is set during super()
     public TcpServerStream(BlockingQueue<Datagram> dQueue, Element stream) {
         super(dQueue,stream);
     }
@@ -42,7 +43,7 @@ public boolean connect() {
         // Netty
         try {
             ServerBootstrap b = new ServerBootstrap();
-            b.group(bossGroup, eventLoopGroup).channel(NioServerSocketChannel.class).option(ChannelOption.SO_BACKLOG, 50)
+            b.group(bossGroup, eventLoopGroup).channel(Transport.serverSocketChannel()).option(ChannelOption.SO_BACKLOG, 50)
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         public void initChannel(SocketChannel ch){
@@ -51,7 +52,8 @@ public void initChannel(SocketChannel ch){
                             // char,
                             // strip
                             // delimiter
-                            ch.pipeline().addLast("decoder", new ByteArrayDecoder());
+                            if( !zeroCopy ) // Without decoder the handler receives the frame as ByteBuf
+                                ch.pipeline().addLast("decoder", new ByteArrayDecoder());
                             ch.pipeline().addLast("encoder", new ByteArrayEncoder());
 
                             if( clients.size() > 5 ){
@@ -62,6 +64,7 @@ public void initChannel(SocketChannel ch){
                             handler.setPriority(priority);
                             handler.setLabel(label);
                             handler.setTargets(targets);
+                            handler.setMetrics(metrics);
                             handler.addStreamListener( TcpServerStream.this );
                             handler.setEventLoopGroup(eventLoopGroup);
                             clients.add(handler);
@@ -120,6 +123,7 @@ public boolean readExtraFromXML(Element stream) {
             Logger.error(id + " -> No EOL defined");
             return false;
         }
+        zeroCopy = XMLdigger.goIn(stream).peekAt("zerocopy").value(false);
 
         // Address
         String address = XMLtools.getChildStringValueByTag( stream, "address", "");
@@ -9,7 +9,6 @@
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.DelimiterBasedFrameDecoder;
 import io.netty.handler.codec.FixedLengthFrameDecoder;
 import io.netty.handler.codec.bytes.ByteArrayDecoder;
@@ -19,6 +18,7 @@
 import org.w3c.dom.Element;
 import util.LookAndFeel;
 import util.tools.Tools;
+import util.xml.XMLdigger;
 import util.xml.XMLtools;
 import worker.Datagram;
 
@@ -32,6 +32,7 @@ public class TcpStream extends BaseStream implements Writable {
     ByteBuf[] deli;
     Bootstrap bootstrap;        // Bootstrap for TCP connections
     static int bufferSize = 2048;     // How many bytes are stored before a dump
+    boolean zeroCopy;                 // Process the frames as ByteBuf, no initializer because it is set during super()
 
     public TcpStream(BlockingQueue<Datagram> dQueue, Element stream) {
         super(dQueue,stream);
@@ -85,7 +86,8 @@ public void initChannel(SocketChannel ch) {
                         Logger.error(id + " -> Deli still null, assuming fixed size...");
                         ch.pipeline().addLast("framer", new FixedLengthFrameDecoder(3) );
                     }
-                    ch.pipeline().addLast( "decoder", new ByteArrayDecoder() );
+                    if( !zeroCopy ) // Without decoder the handler receives the frame as ByteBuf
+                        ch.pipeline().addLast( "decoder", new ByteArrayDecoder() );
                     ch.pipeline().addLast( "encoder", new ByteArrayEncoder() );
                     boolean idle=false;
                     if( handler != null ) {
@@ -97,6 +99,7 @@ public void initChannel(SocketChannel ch) {
                     handler.setPriority(priority);
                     handler.setLabel(label);
                     handler.setTargets(targets);
+                    handler.setMetrics(metrics);
                     handler.setStreamListeners( listeners );
                     handler.setEventLoopGroup(eventLoopGroup);
                     if( idle )
@@ -150,6 +153,7 @@ public boolean readExtraFromXML(Element stream) {
             return false;
         }
         deli = new ByteBuf[]{ Unpooled.copiedBuffer( eol.getBytes())};
+        zeroCopy = XMLdigger.goIn(stream).peekAt("zerocopy").value(false);
         return true;
     }
 
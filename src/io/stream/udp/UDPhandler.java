@@ -1,6 +1,8 @@
 package io.stream.udp;
 
+import io.FanOut;
 import io.Writable;
+import io.stream.StreamMetrics;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
@@ -26,6 +28,7 @@ public class UDPhandler extends SimpleChannelInboundHandler<DatagramPacket> {
     private long timestamp=-1L;
     
     protected List<Writable> targets;
+    private StreamMetrics metrics = new StreamMetrics();
     private boolean readerIdle=false;
 
     /* Constructor */
@@ -41,6 +44,9 @@ public void setID( String id){
     public void setTargets( List<Writable> targets ){
         this.targets=targets;
     }
+    public void setMetrics( StreamMetrics metrics ){
+        this.metrics = metrics;
+    }
     /**
      *
      * @param delim the delim to set
@@ -60,6 +66,7 @@ public void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
             readerIdle=false;
         }
         timestamp = Instant.now().toEpochMilli();
+        long start = System.nanoTime();
         int l = buf.writerIndex();              // No need to look in the bytes that were already in there
         buf.writeBytes(packet.content());       // Add the received data to the buffer, this removes it from the packet...
        
@@ -76,12 +83,19 @@ public void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
             String chunk = process.toString(CharsetUtil.UTF_8);     // Convert the binary data to readable ascii
 
             // Early return if chunk is blank
-            if (chunk.isBlank()) break;
+            if (chunk.isBlank()) {
+                metrics.dropped(pos);
+                break;
+            }
+            metrics.received(pos);
 
             // Handle targets if there actually are any
             if( !targets.isEmpty() ){
-                targets.forEach( dt -> dt.writeLine(chunk) );
-                targets.removeIf( wr -> !wr.isConnectionValid() ); // Clear inactive
+                // A udp server can have multiple channels sharing the targets, that list is safe for that
+                FanOut.write(targets, null, chunk, start, metrics.latencySink());
+                targets.removeIf(wr -> !wr.isConnectionValid()); // Clear inactive
+            }else{
+                metrics.recordLatencySince(start);
             }
 
             if(debug)
@@ -94,6 +108,8 @@ public void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
         }
         if( channel == null )           // If the channel is still null, 
             channel = ctx.channel();    // Get the channel from the latest data (to send a reply if needed etc)
+        if( !targets.isEmpty() )
+            FanOut.throttle(ctx.channel(),targets); // Stop reading while the forwards can't keep up
     }
     /**
      * Find the delimiter in the chunk of received data
@@ -1,24 +1,26 @@
 package io.stream.udp;
 
+import io.Transport;
 import io.stream.BaseStream;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.socket.nio.NioDatagramChannel;
-import io.netty.util.concurrent.Future;
 import org.tinylog.Logger;
 import org.w3c.dom.Element;
-import util.xml.XMLtools;
+import util.xml.XMLdigger;
 import worker.Datagram;
 
+import java.util.ArrayList;
 import java.util.concurrent.BlockingQueue;
 
 public class UdpServer extends BaseStream {
 
   EventLoopGroup group;
   int port;
-  UDPhandler handler;
-  Future<?> serverFuture;
+  int channels;  // Amount of channels bound to the port, more than one requires SO_REUSEPORT (so epoll)
+  final ArrayList<Channel> bound = new ArrayList<>();
+  final ArrayList<UDPhandler> handlers = new ArrayList<>();
 
   public UdpServer(BlockingQueue<Datagram> dQueue, Element stream ) {
     super(dQueue,stream);
@@ -26,60 +28,88 @@ public UdpServer(BlockingQueue<Datagram> dQueue, Element stream ) {
   public UdpServer( String id, int port, BlockingQueue<Datagram> dQueue ){
       super(id,dQueue);
       this.port=port;
+      this.channels=1;
   }
   public void setEventLoopGroup( EventLoopGroup group ){
     this.group=group;
   }
 
-  class RunServer implements Runnable{ 
-    @Override
-    public void run() {
-      try {
-        Bootstrap b = new Bootstrap();
-
-        handler = new UDPhandler(dQueue);
-        handler.setTargets(targets);
-        
-        b.group(group).channel(NioDatagramChannel.class).option(ChannelOption.SO_BROADCAST, true).handler(handler);
-        b.bind(port).sync().channel().closeFuture().await();
-      } catch (InterruptedException e) {
-        Logger.error(e);
-        Logger.error("InterruptedException for UDP server on port " + port);
-        // Restore interrupted state...
-        Thread.currentThread().interrupt();
-      }
-    }
-  }
   @Override
   protected boolean readExtraFromXML(Element stream) {
-    port = XMLtools.getChildIntValueByTag(stream, "port", -1);
+    var dig = XMLdigger.goIn(stream);
+    port = dig.peekAt("port").value(-1);
+    channels = Math.max(1, dig.peekAt("channels").value(1));
     return port != -1;
   }
 
   @Override
   public boolean connect() {
-    serverFuture = group.submit(new RunServer());
+    if( group == null ){
+      Logger.error(id+" -> No eventloopgroup yet");
+      return false;
+    }
+    disconnect(); // Make sure nothing is still bound
+
+    var b = new Bootstrap();
+    b.group(group).channel(Transport.datagramChannel()).option(ChannelOption.SO_BROADCAST, true);
+
+    int count = channels;
+    if( count > 1 && !Transport.reusePort(b) ){
+      Logger.warn(id+" -> Multiple channels require the epoll transport, using a single one");
+      count = 1;
+    }
+    // Each channel gets its own handler and thus its own eventloop thread, the kernel spreads the packets over them
+    for( int a=0;a<count;a++ ){
+      var handler = new UDPhandler(dQueue);
+      handler.setID(id);
+      handler.setTargets(targets);
+      handler.setMetrics(metrics);
+      b.handler(handler);
+
+      var f = b.bind(port).awaitUninterruptibly();
+      if( !f.isSuccess() ){
+        Logger.error(id+" -> Failed to bind to port "+port+": "+f.cause());
+        disconnect();
+        return false;
+      }
+      synchronized (bound) {
+        bound.add(f.channel());
+        handlers.add(handler);
+      }
+    }
+    Logger.info(id+" -> Listening on port "+port+" with "+count+" channel"+(count==1?"":"s"));
     return true;
   }
 
   @Override
   public boolean disconnect() {
-    return serverFuture.cancel(true);
+    synchronized (bound) {
+      if( bound.isEmpty() )
+        return false;
+      bound.forEach(Channel::close);
+      bound.clear();
+      handlers.clear();
+    }
+    return true;
   }
 
   @Override
   public boolean isConnectionValid() {
-    return serverFuture != null;
+    synchronized (bound) {
+      return bound.stream().anyMatch(Channel::isActive);
+    }
   }
 
   @Override
   public long getLastTimestamp() {
-    return handler.getTimestamp();
+    synchronized (bound) {
+      return handlers.stream().mapToLong(UDPhandler::getTimestamp).max().orElse(-1L);
+    }
   }
 
   @Override
   public String getInfo() {
-    return "UDP server ["+id+"|"+label+"] listens on "+ port;
+    return "UDP server ["+id+"|"+label+"] listens on "+ port + (channels>1?" ("+channels+" channels)":"");
   }
 
   @Override
@@ -91,4 +121,4 @@ protected String getType() {
   protected void flagIdle() {
 
   }
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package io.stream.udp;
 
 import io.stream.BaseStream;
+import io.Transport;
 import io.Writable;
 import io.stream.tcp.TcpHandler;
 import io.netty.bootstrap.Bootstrap;
@@ -8,7 +9,7 @@
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.DatagramChannel;
 import io.netty.handler.codec.bytes.ByteArrayDecoder;
 import io.netty.handler.codec.bytes.ByteArrayEncoder;
 import io.netty.util.concurrent.FutureListener;
@@ -48,7 +49,7 @@ public Bootstrap setBootstrap( Bootstrap strap ){
             }
             bootstrapUDP = new Bootstrap();
             bootstrapUDP.group(group)
-                         .channel(NioDatagramChannel.class)
+                         .channel(Transport.datagramChannel())
                          .option(ChannelOption.SO_BROADCAST, true);
         }else{
             this.bootstrapUDP=strap;
@@ -64,13 +65,13 @@ public boolean connect() {
 
         if( bootstrapUDP == null ){
             bootstrapUDP = new Bootstrap();
-            bootstrapUDP.group(group).channel(NioDatagramChannel.class).option(ChannelOption.SO_BROADCAST, true);
+            bootstrapUDP.group(group).channel(Transport.datagramChannel()).option(ChannelOption.SO_BROADCAST, true);
         }
         Logger.debug("Port and IP defined for UDP, meaning writing so connecting channel...?");
         bootstrapUDP.option(ChannelOption.SO_REUSEADDR,true);
-        bootstrapUDP.handler( new ChannelInitializer<NioDatagramChannel>() {
+        bootstrapUDP.handler( new ChannelInitializer<DatagramChannel>() {
             @Override
-            public void initChannel(NioDatagramChannel ch) {
+            public void initChannel(DatagramChannel ch) {
                 ch.pipeline().addLast( "decoder", new ByteArrayDecoder() );
                 ch.pipeline().addLast( "encoder", new ByteArrayEncoder() );
 
@@ -78,6 +79,7 @@ public void initChannel(NioDatagramChannel ch) {
                     handler.disconnect();	
                 handler = new TcpHandler( id, dQueue, UdpStream.this );
                 handler.setTargets(targets);
+                handler.setMetrics(metrics);
                 handler.setStreamListeners(listeners);
                 handler.toggleUDP();
                 ch.pipeline().addLast( handler ); 
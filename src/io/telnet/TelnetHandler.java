@@ -96,7 +96,7 @@ public void channelActive(ChannelHandlerContext ctx) {
 			showWelcomeMessage();
 
 			if (!start.isEmpty()) { // Send the init cmds
-				dQueue.add( Datagram.build(start).label(LABEL).writable(this).origin("telnet:" + channel.remoteAddress().toString()).toggleSilent() );
+				dQueue.add( Datagram.build(start).label(LABEL).writable(this).origin("telnet:" + channel.remoteAddress().toString()).toggleSilent().control() );
 			}
 		}else{
 			writeLine(TelnetCodes.TEXT_RED + "Issue in settings.xml, can't start up properly! Please fix! " + TelnetCodes.TEXT_ORANGE);
@@ -174,6 +174,7 @@ public void channelRead0(ChannelHandlerContext ctx, byte[] data) {
 						.label(LABEL)
 						.writable(this)
 						.origin("telnet:"+channel.remoteAddress().toString())
+						.control()
 		);
 	}
 
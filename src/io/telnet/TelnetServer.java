@@ -2,15 +2,14 @@
 
 import das.Commandable;
 import das.Paths;
+import io.Transport;
 import io.Writable;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.bytes.ByteArrayDecoder;
 import io.netty.handler.codec.bytes.ByteArrayEncoder;
 import io.netty.handler.timeout.ReadTimeoutHandler;
@@ -34,7 +33,7 @@
  */
 public class TelnetServer implements Commandable {
 
-    EventLoopGroup bossGroup = new NioEventLoopGroup(1);	// Server thread group
+    EventLoopGroup bossGroup = Transport.newGroup(1,"telnet-boss");	// Server thread group
     EventLoopGroup workerGroup;	// Worker thread group
 
     ChannelFuture telnetFuture;
@@ -91,7 +90,7 @@ public void run(){
             
         ServerBootstrap b = new ServerBootstrap();			// Server bootstrap connection
         b.group(bossGroup, workerGroup)						// Adding thread groups to the connection
-            .channel(NioServerSocketChannel.class)			// Setting up the connection/channel
+            .channel(Transport.serverSocketChannel())			// Setting up the connection/channel
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     public void initChannel(SocketChannel ch){
@@ -0,0 +1,360 @@
+package util.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A line that is split once and then handed from step to step in a path, so each step doesn't need to split it again.
+ * The fields are kept as positions in the original line and only turned into a String when asked. Numbers parsed from
+ * a field are cached, so a filter and a math that follows it only parse once.
+ * A step that alters a field marks the record dirty, the line is then joined again the first time it's requested.
+ * Splitting gives the same result as String.split(delimiter) so this can replace it without changing the behaviour.
+ */
+public class ParsedRecord {
+
+    private static final ConcurrentHashMap<String,Pattern> patterns = new ConcurrentHashMap<>();
+    private static final double[] POW10 = {1,1e1,1e2,1e3,1e4,1e5,1e6,1e7,1e8,1e9,1e10,1e11,1e12,1e13,1e14,1e15,1e16,1e17,1e18};
+    private static final String REGEX_CHARS = ".$|()[{^?*+\\";
+
+    private String line;
+    private final String delimiter;
+
+    private int[] bounds;       // Start and end of each field in the line, so field i is [2i,2i+1]
+    private String[] fields;    // Field text, filled in when requested or altered
+    private double[] numbers;   // Cached numbers
+    private boolean[] parsed;   // Flags which numbers are cached
+    private boolean dirty=false;
+
+    private ParsedRecord( String line, String delimiter ){
+        this.line=line;
+        this.delimiter=delimiter;
+    }
+    /**
+     * Create a record, the split only happens when a field is requested
+     * @param line The line received
+     * @param delimiter The delimiter (regex, like String.split) for the fields
+     * @return The record
+     */
+    public static ParsedRecord of( String line, String delimiter ){
+        return new ParsedRecord(line,delimiter);
+    }
+    /**
+     * Create a record from values that are already known, fe. decoded from binary data. The fields and numbers are
+     * filled in, so later steps don't need to split or parse.
+     * @param texts The text of each field
+     * @param numbers The number of each field, NaN if not a number
+     * @param delimiter The delimiter to join the fields with
+     * @return The record
+     */
+    public static ParsedRecord ofNumbers( String[] texts, double[] numbers, String delimiter ){
+        char single = literalChar(delimiter);
+        var sep = single != 0 ? String.valueOf(single) : delimiter;
+        var join = new StringBuilder(texts.length*8);
+        var bounds = new int[texts.length*2];
+        for( int a=0;a<texts.length;a++ ){
+            if( a!=0 )
+                join.append(sep);
+            bounds[2*a]=join.length();
+            join.append(texts[a]);
+            bounds[2*a+1]=join.length();
+        }
+        var rec = new ParsedRecord(join.toString(),delimiter);
+        rec.bounds=bounds;
+        rec.fields=texts.clone();
+        rec.numbers=numbers.clone();
+        rec.parsed=new boolean[texts.length];
+        Arrays.fill(rec.parsed,true);
+        return rec;
+    }
+    /**
+     * Get this record split on the given delimiter. If it's the same delimiter this record is returned otherwise a
+     * new one based on the current line.
+     * @param delimiter The delimiter needed
+     * @return This record or a new one
+     */
+    public ParsedRecord as( String delimiter ){
+        if( this.delimiter.equals(delimiter) )
+            return this;
+        return new ParsedRecord(line(),delimiter);
+    }
+    /**
+     * Make a copy that can be altered without affecting this one, the split and cached numbers are kept
+     * @return The copy
+     */
+    public ParsedRecord copy(){
+        var rec = new ParsedRecord(line,delimiter);
+        rec.dirty=dirty;
+        if( bounds != null ){
+            rec.bounds=bounds;  // Never altered, so can be shared
+            rec.fields=fields.clone();
+            rec.numbers=numbers.clone();
+            rec.parsed=parsed.clone();
+        }
+        return rec;
+    }
+    public String delimiter(){
+        return delimiter;
+    }
+    /**
+     * Get the line, if any field was altered it's joined again first
+     * @return The line
+     */
+    public String line(){
+        if( dirty ){
+            char single = literalChar(delimiter); // Join with the char instead of the escaped version
+            var sep = single != 0 ? String.valueOf(single) : delimiter;
+            var join = new StringBuilder(line.length()+16);
+            for( int a=0;a<fields.length;a++ ){
+                if( a!=0 )
+                    join.append(sep);
+                join.append(field(a));
+            }
+            line = join.toString();
+            dirty=false;
+            split(); // Positions need to match the new line
+        }
+        return line;
+    }
+    /**
+     * Replace the whole line, this clears the split and the cached numbers
+     * @param line The new line
+     */
+    public void replaceLine( String line ){
+        this.line=line;
+        dirty=false;
+        bounds=null;
+        fields=null;
+        numbers=null;
+        parsed=null;
+    }
+    /**
+     * Get the amount of fields after splitting
+     * @return The amount of fields
+     */
+    public int size(){
+        if( bounds == null )
+            split();
+        return fields.length;
+    }
+    /**
+     * Get the text of a field
+     * @param index The index of the field
+     * @return The text
+     * @throws ArrayIndexOutOfBoundsException if there's no field at the index, same as with a split array
+     */
+    public String field( int index ){
+        if( bounds == null )
+            split();
+        var f = fields[index];
+        if( f == null ){
+            f = line.substring(bounds[2*index],bounds[2*index+1]);
+            fields[index]=f;
+        }
+        return f;
+    }
+    /**
+     * Get all the fields, this is the same as the result of String.split(delimiter).
+     * The array is the one used by the record, alter fields with setField instead.
+     * @return The fields
+     */
+    public String[] fields(){
+        int size = size();
+        for( int a=0;a<size;a++ )
+            field(a);
+        return fields;
+    }
+    /**
+     * Get a field as a number, the result is cached so later steps don't need to parse it again
+     * @param index The index of the field
+     * @return The number or NaN if not a number or there's no field at that index
+     */
+    public double number( int index ){
+        if( index < 0 || index >= size() )
+            return Double.NaN;
+        if( !parsed[index] ){
+            numbers[index] = parseDouble(field(index));
+            parsed[index]=true;
+        }
+        return numbers[index];
+    }
+    /**
+     * Get the number of a field only if it was already parsed or given
+     * @param index The index of the field
+     * @return The number or NaN if not known yet
+     */
+    public double cached( int index ){
+        if( bounds == null || index < 0 || index >= fields.length || !parsed[index] )
+            return Double.NaN;
+        return numbers[index];
+    }
+    /**
+     * Replace the text of a field, the number cache of it is cleared
+     * @param index The index of the field
+     * @param text The new text
+     */
+    public void setField( int index, String text ){
+        if( bounds == null )
+            split();
+        fields[index]=text;
+        parsed[index]=false;
+        dirty=true;
+    }
+    /**
+     * Replace a field with a number and the text of that number
+     * @param index The index of the field
+     * @param value The number
+     * @param text The text for the number
+     */
+    public void setNumber( int index, double value, String text ){
+        setField(index,text);
+        numbers[index]=value;
+        parsed[index]=true;
+    }
+    /* ************************************** Splitting ********************************************************** */
+    private void split(){
+        int[] found;
+        char single = literalChar(delimiter);
+        if( single != 0 ){
+            found = splitOnChar(single);
+        }else if( !delimiter.isEmpty() && delimiter.chars().noneMatch( c -> REGEX_CHARS.indexOf(c)!=-1) ){
+            found = splitOnText(delimiter);
+        }else{
+            found = splitOnPattern(patterns.computeIfAbsent(delimiter,Pattern::compile));
+        }
+        bounds=found;
+        int size = found.length/2;
+        fields=new String[size];
+        numbers=new double[size];
+        parsed=new boolean[size];
+    }
+    /**
+     * Check if the delimiter is a single literal character, same conditions as the fast path of String.split
+     * @return The character or 0 if not a single character
+     */
+    private static char literalChar( String delimiter ){
+        if( delimiter.length()==1 && REGEX_CHARS.indexOf(delimiter.charAt(0))==-1 )
+            return delimiter.charAt(0);
+        if( delimiter.length()==2 && delimiter.charAt(0)=='\\' && !Character.isLetterOrDigit(delimiter.charAt(1))
+                && !Character.isSurrogate(delimiter.charAt(1)) )
+            return delimiter.charAt(1);
+        return 0;
+    }
+    private int[] splitOnChar( char c ){
+        var found = new int[16];
+        int count=0;
+        int start=0;
+        int pos;
+        while( (pos=line.indexOf(c,start)) != -1 ){
+            found = add(found,count++,start,pos);
+            start=pos+1;
+        }
+        if( count==0 ) // No match, so the whole line
+            return new int[]{0,line.length()};
+        found = add(found,count++,start,line.length());
+        return trim(found,count);
+    }
+    private int[] splitOnText( String text ){
+        var found = new int[16];
+        int count=0;
+        int start=0;
+        int pos;
+        while( (pos=line.indexOf(text,start)) != -1 ){
+            found = add(found,count++,start,pos);
+            start=pos+text.length();
+        }
+        if( count==0 )
+            return new int[]{0,line.length()};
+        found = add(found,count++,start,line.length());
+        return trim(found,count);
+    }
+    private int[] splitOnPattern( Pattern pattern ){
+        var found = new int[16];
+        int count=0;
+        int start=0;
+        var m = pattern.matcher(line);
+        while( m.find() ){
+            if( start==0 && m.start()==0 && m.end()==0 ) // No leading empty field for a zero width match at the start
+                continue;
+            found = add(found,count++,start,m.start());
+            start=m.end();
+        }
+        if( count==0 )
+            return new int[]{0,line.length()};
+        found = add(found,count++,start,line.length());
+        return trim(found,count);
+    }
+    private static int[] add( int[] found, int index, int start, int end ){
+        if( 2*index+1 >= found.length )
+            found = Arrays.copyOf(found,found.length*2);
+        found[2*index]=start;
+        found[2*index+1]=end;
+        return found;
+    }
+    /**
+     * Remove the trailing empty fields, like String.split does
+     */
+    private static int[] trim( int[] found, int count ){
+        while( count > 0 && found[2*count-2]==found[2*count-1] )
+            count--;
+        return Arrays.copyOf(found,2*count);
+    }
+    /**
+     * Parse a double without the cost of an exception for the common case of text, same rules as Double.parseDouble
+     * (so surrounding whitespace, NaN and Infinity are allowed)
+     * @param number The text to parse
+     * @return The number or NaN if not a number
+     */
+    public static double parseDouble( String number ){
+        int a=0;
+        while( a < number.length() && number.charAt(a) <= ' ' )
+            a++;
+        if( a == number.length() )
+            return Double.NaN;
+        char c = number.charAt(a); // Quick check to skip text without the cost of an exception, N(aN) and I(nfinity) pass
+        if( (c<'0'||c>'9') && c!='-' && c!='+' && c!='.' && c!='N' && c!='I' )
+            return Double.NaN;
+        try {
+            return Double.parseDouble(number);
+        }catch( NumberFormatException e ){
+            return Double.NaN;
+        }
+    }
+    /**
+     * Parse a double from a part of a text without creating a substring for plain decimals (fe. -12.345), anything else
+     * (whitespace, exponent, too many digits) is handed to parseDouble(String)
+     * @param text The text that holds the number
+     * @param from Index of the first character
+     * @param to Index after the last character
+     * @return The number or NaN if empty or not a number
+     */
+    public static double parseDouble( String text, int from, int to ){
+        if( from >= to )
+            return Double.NaN;
+        int a = from;
+        char c = text.charAt(a);
+        boolean neg = c=='-';
+        if( c=='-' || c=='+' )
+            a++;
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;  // Digits after the point, -1 if no point yet
+        for( ;a<to;a++ ){
+            c = text.charAt(a);
+            if( c >= '0' && c <= '9' && digits < 18 ){
+                mantissa = mantissa*10 + (c-'0');
+                digits++;
+                if( decimals != -1 )
+                    decimals++;
+            }else if( c=='.' && decimals == -1 ){
+                decimals = 0;
+            }else{
+                return parseDouble(text.substring(from,to));
+            }
+        }
+        if( digits == 0 )
+            return Double.NaN;
+        double res = decimals <= 0 ? mantissa : mantissa/POW10[decimals];
+        return neg ? -res : res;
+    }
+}
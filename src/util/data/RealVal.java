@@ -72,14 +72,7 @@ public boolean parseValue( String val ){
         var res = NumberUtils.toDouble(val,Double.NaN);
 
         if(!Double.isNaN(res)){
-            if( parseOp != null) {
-                res = parseOp.solveFor(res);
-                if( Double.isNaN(res))
-                    Logger.error(id()+" -> Failed to parse "+val+" with "+parseOp.getOri());
-            }
-            rawValue=res;
-            value(res);
-            return true;
+            return parseValue(res);
         }else if( Double.isNaN(defVal) ){
             value(defVal);
             return true;
@@ -87,6 +80,22 @@ public boolean parseValue( String val ){
         Logger.error(id() + " -> Failed to parse "+val);
         return false;
     }
+    /**
+     * Same as parseValue but for a number that was already parsed (fe. decoded from binary), the parse op is applied
+     * @param res The number
+     * @return True
+     */
+    public boolean parseValue( double res ){
+        if( parseOp != null) {
+            var ori = res;
+            res = parseOp.solveFor(res);
+            if( Double.isNaN(res))
+                Logger.error(id()+" -> Failed to parse "+ori+" with "+parseOp.getOri());
+        }
+        rawValue=res;
+        value(res);
+        return true;
+    }
     public void resetValue(){
         value=defVal;
     }
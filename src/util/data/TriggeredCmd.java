@@ -2,7 +2,7 @@
 
 import util.math.MathUtils;
 import java.util.function.Consumer;
-import java.util.function.Function;
+import java.util.function.DoublePredicate;
 import java.util.function.Supplier;
 
 /**
@@ -16,7 +16,7 @@
 public class TriggeredCmd {
     private String cmd;
     private TRIGGERTYPE type;
-    private Function<Double, Boolean> comp;
+    private DoublePredicate comp;
     private boolean triggered = false;
     enum TRIGGERTYPE {ALWAYS,CHANGED,STDEV,COMP}
 
@@ -58,18 +58,12 @@ public <U extends Number> boolean check(U val, U prev, Consumer<String> cmdConsu
                 return false;
             }
             case COMP -> {
-                // Explicitly cast val to double if it's a valid Number
-                if (val instanceof Double) {
-                    ok = comp.apply((Double) val); // Cast val to Double explicitly
-                } else {
-                    // Handle other cases for val not being Double
-                    ok = comp.apply(val.doubleValue()); // Use doubleValue() for other Number types
-                }
+                ok = comp.test(val.doubleValue());
             }
             case STDEV -> {
                 var sd = stdevSupplier.get();
                 if (Double.isNaN(sd)) return false;
-                ok = comp.apply(sd);
+                ok = comp.test(sd);
             }
             default -> {
                 return false;
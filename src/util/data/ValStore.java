@@ -294,7 +294,34 @@ public int mapSize(){
     }
     /* ************************************************************************************************ */
     public boolean apply(String line){
-        var items = line.split(delimiter);
+        return apply(line,line.split(delimiter));
+    }
+    /**
+     * Apply a record that was already split by an earlier step, if it was split on another delimiter it's split again
+     * @param rec The record to apply
+     * @return True if ok to write to the database
+     */
+    public boolean apply(ParsedRecord rec){
+        var items = rec.as(delimiter);
+        if( !map && items.size() >= rtvals.size() ){ // Use the numbers that are already known instead of the text
+            boolean dbOk = true;
+            for (int a = 0; a < rtvals.size() && dbOk; a++) {
+                var val = rtvals.get(a);
+                if( val == null )
+                    continue;
+                double d = items.cached(a);
+                if( val instanceof RealVal rv && !Double.isNaN(d) ){
+                    dbOk = rv.parseValue(d);
+                }else{
+                    dbOk = val.parseValue(items.field(a));
+                }
+            }
+            doCalVals();
+            return dbOk;
+        }
+        return apply(items.line(),items.fields());
+    }
+    private boolean apply(String line, String[] items){
         boolean dbOk; // Ok to apply db write
         if( map ){
             if( items.length<2) {
@@ -387,6 +414,24 @@ public void setValueAt(int index, BigDecimal d){
             val.parseValue(d.toPlainString());
         }
     }
+    public void setValueAt(int index, double d){
+        if( map)
+            return;
+        if( index>=rtvals.size() ) {
+            Logger.error(id + " -> Tried to set index "+index+" but only "+rtvals.size()+" items");
+            return;
+        }
+        var val = rtvals.get(index);
+        if( val == null )
+            return;
+        if( val instanceof RealVal) {
+            ((RealVal) val).value(d);
+        }else if( val instanceof IntegerVal ){
+            ((IntegerVal) val).value((int)d);
+        }else{
+            val.parseValue( d==Math.rint(d) ? String.valueOf((long)d) : String.valueOf(d) );
+        }
+    }
     public void setValueAt(int index, String d){
         if( map)
             return;
@@ -484,6 +484,36 @@ public Optional<List<List<Object>>> doSelect(String query, boolean includeNames
         }
         return Optional.of(data);
     }
+    /**
+     * Run a select query with parameters, fe. to page through a table with 'WHERE rowid > ? LIMIT 500'
+     * @param query The query with a ? for each parameter
+     * @param params The values for the parameters, in order
+     * @return The records or an empty optional if connecting or the query failed
+     */
+    public Optional<List<List<Object>>> doPreparedSelect( String query, Object... params ){
+        if( !isValid(1) && !connect(false) ){
+            Logger.error( id+"(db) -> Couldn't connect to database: "+id);
+            return Optional.empty();
+        }
+        var data = new ArrayList<List<Object>>();
+        try( PreparedStatement ps = con.prepareStatement(query) ){
+            for( int a=0;a<params.length;a++ )
+                ps.setObject(a+1,params[a]);
+            ResultSet rs = ps.executeQuery();
+            int cols = rs.getMetaData().getColumnCount();
+            while( rs.next() ){
+                var record = new ArrayList<>(cols);
+                for( int a=0;a<cols;a++ ){
+                    record.add(rs.getObject(a+1));
+                }
+                data.add( record );
+            }
+        } catch (SQLException e) {
+            Logger.error(id+"(db) -> Error running query: "+query+" -> "+e.getMessage());
+            return Optional.empty();
+        }
+        return Optional.of(data);
+    }
     public Optional<TableInsert> getTableInsert( String tableid ){
         int index = tableid.indexOf(":");
         if( index != -1)
@@ -22,6 +22,7 @@ public class MathFab {
     boolean showError=true;
     String ori="";
     boolean valid;
+    MathProgram program; // Double version of the steps
 
     public MathFab( String formula ){
         valid=build(formula)!=null;
@@ -173,15 +174,31 @@ private MathFab build(String formula ){
             steps.add( x ); // and add it to the steps list
         }
         resultIndex = subFormulas.size()-1;// note that the result of the formula will be in the that position
+        program = MathProgram.compile(subFormulas);
         return this;
     }
 
+    /**
+     * Get the program that solves the formula using doubles instead of BigDecimals
+     * @return The program or an empty optional if the formula isn't valid or couldn't be compiled
+     */
+    public Optional<MathProgram> compile(){
+        if( !valid )
+            return Optional.empty();
+        return Optional.ofNullable(program);
+    }
     /**
      * Solve the build equation using the given values
      * @param val The values to use
      * @return The result
      */
     public double solveFor(Double[] val){
+        if( program != null ){
+            var dbls = new double[val.length];
+            for(int a=0;a<val.length;a++)
+                dbls[a]=val[a];
+            return program.solve(dbls);
+        }
         var bds = new BigDecimal[val.length];
         for(int a=0;a<val.length;a++)
             bds[a]=BigDecimal.valueOf(val[a]);
@@ -190,6 +207,8 @@ public double solveFor(Double[] val){
         return bdOpt.map(BigDecimal::doubleValue).orElse(Double.NaN);
     }
     public double solveFor( double val ){
+        if( program != null )
+            return program.solve(val);
         BigDecimal[] bd = {BigDecimal.valueOf(val)};
         var bdOpt = solve( bd );
         return bdOpt.map(BigDecimal::doubleValue).orElse(Double.NaN);
@@ -256,12 +275,12 @@ public Optional<BigDecimal> solve(BigDecimal[] data ) throws ArrayIndexOutOfBoun
     }
     public static void test(){
         double d1 = MathFab.newFormula("(15*i0)/65+3*i1").solveFor(new Double[]{10.0,3.5});
-        if( d1 != 12.80769231 ) {
+        if( Math.abs(d1-12.80769231) > 1e-8 ) {
             Logger.error("Not received expected result from first formula, got "+d1+" instead of 12.80769231")   ;
             return;
         }
         d1 = MathFab.newFormula("(15+i0)^2-16*i1+16+25+36+58+i2/5").solveFor(new Double[]{5.0,65.0,86.0});
-        if( d1 != -487.8 ) {
+        if( Math.abs(d1+487.8) > 1e-8 ) {
             Logger.error("Not received expected result from second formula, got " + d1+" instead of -487.8");
             return;
         }
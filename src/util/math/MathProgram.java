@@ -0,0 +1,289 @@
+package util.math;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.tinylog.Logger;
+import util.tools.Tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Expression compiled to a list of instructions that work on a double[] register file, so no objects are created while
+ * solving. This is shared by MathFab, CheckBlock, FilterForward and TriggeredCmd.
+ * The register file is laid out as [constants | intermediate results | inputs], so the index of every operand is known
+ * when compiling. Steps that only depend on constants are calculated once while compiling (constant folding).
+ */
+public class MathProgram {
+
+    /* Opcodes */
+    static final int ADD=0, SUB=1, MUL=2, DIV=3, MOD=4, POW=5, MINABS=6, DIFF=7, SCALE=8, LN=9, COSD=10, COSR=11,
+            SIND=12, SINR=13, ABS=14, LT=15, LE=16, GT=17, GE=18, EQ=19, NE=20, NOT=21, COPY=22;
+
+    private final int[] opcodes;
+    private final int[] dest;      // Register index for the result of the instruction
+    private final int[] left;      // Register index of the left operand
+    private final int[] right;     // Register index of the right operand
+    private final double[] init;   // Initial content of the register file, holds the constants and folded results
+    private final int result;      // Register index of the result
+    private final int requiredInputs;
+
+    // Register file per thread, shared by all programs because solving never nests
+    private static final ThreadLocal<double[]> registers = ThreadLocal.withInitial( () -> new double[32] );
+
+    private MathProgram( int[] opcodes, int[] dest, int[] left, int[] right, double[] init, int result, int requiredInputs ){
+        this.opcodes=opcodes;
+        this.dest=dest;
+        this.left=left;
+        this.right=right;
+        this.init=init;
+        this.result=result;
+        this.requiredInputs=requiredInputs;
+    }
+
+    /**
+     * Compile the sub formulas. Each sub formula is {first,second,operator}, where first and second are a number, an
+     * input (i0) or the result of an earlier sub formula (o0).
+     * Operators: + - * / % ^ ~ (abs of the min) diff (abs of the difference) scale ln ° (first is the function) and the
+     * comparisons < <= > >= == != that result in 1 or 0. If one of the operands is empty the other one is copied, if the
+     * first starts with a ! or the operator is ! it's inverted instead (1 or more becomes 0 and the rest 1).
+     * @param subFormulas The sub formulas, the result of the last one is the result of the formula
+     * @return The program or null if something couldn't be converted
+     */
+    public static MathProgram compile( List<String[]> subFormulas ){
+        if( subFormulas.isEmpty() )
+            return null;
+        var subs = new ArrayList<String[]>();
+        for( var sub : subFormulas )
+            subs.add(normalize(sub));
+        int steps = subs.size();
+
+        // First pass, count the constants to know where the intermediates and inputs start
+        int constCount=0;
+        for( var sub : subs ){
+            for( int o=0;o<2;o++ ){
+                if( NumberUtils.isCreatable(sub[o]) )
+                    constCount++;
+            }
+        }
+        int inputStart = constCount + steps;
+        var init = new double[inputStart];
+        var folded = new boolean[steps];
+
+        int[] opcodes = new int[steps];
+        int[] dest = new int[steps];
+        int[] left = new int[steps];
+        int[] right = new int[steps];
+        int count=0;     // Instructions emitted
+        int consts=0;    // Constants stored
+        int inputs=0;    // Highest input +1
+
+        for( int s=0;s<steps;s++ ){
+            var sub = subs.get(s);
+            int opcode = toOpcode(sub);
+            if( opcode == -1 ){
+                Logger.error("MathProgram -> Can't compile operator '"+sub[2]+"' with "+sub[0]+" and "+sub[1]);
+                return null;
+            }
+            var regs = new int[]{-1,-1};
+            boolean constant = true;
+            for( int o=0;o<2;o++ ){
+                var operand = sub[o];
+                if( operand.isEmpty() )
+                    continue;
+                if( NumberUtils.isCreatable(operand) ){
+                    init[consts] = NumberUtils.createNumber(operand).doubleValue();
+                    regs[o] = consts++;
+                    continue;
+                }
+                int index = operand.length()>1 ? NumberUtils.toInt(operand.substring(1),-1) : -1;
+                if( operand.startsWith("o") && index != -1 && index < s ){
+                    regs[o] = constCount + index;
+                    constant &= folded[index];
+                }else if( operand.startsWith("i") && index != -1 ){
+                    regs[o] = inputStart + index;
+                    inputs = Math.max(inputs,index+1);
+                    constant = false;
+                }else{
+                    Logger.error("MathProgram -> Invalid operand "+operand);
+                    return null;
+                }
+            }
+            if( regs[0]==-1 ){
+                Logger.error("MathProgram -> No operands for "+sub[2]);
+                return null;
+            }
+            if( regs[1]==-1 ) // Single operand
+                regs[1]=regs[0];
+
+            int out = constCount + s;
+            if( constant ){ // Only depends on constants, so calculate it now
+                init[out] = apply(opcode,init[regs[0]],init[regs[1]]);
+                folded[s] = true;
+            }else{
+                opcodes[count]=opcode;
+                dest[count]=out;
+                left[count]=regs[0];
+                right[count]=regs[1];
+                count++;
+            }
+        }
+        return new MathProgram(Arrays.copyOf(opcodes,count),Arrays.copyOf(dest,count),Arrays.copyOf(left,count),
+                                Arrays.copyOf(right,count),init,inputStart-1,inputs);
+    }
+
+    /**
+     * Rewrite the single operand forms so the operand is always first, ! means invert and an empty operator copy
+     * @param sub The sub formula {first,second,operator}
+     * @return The normalized copy
+     */
+    private static String[] normalize( String[] sub ){
+        var first = sub[0];
+        var second = sub.length > 1 ? sub[1] : "";
+        var op = sub.length > 2 ? sub[2] : "";
+        if( first.startsWith("!") )
+            return new String[]{first.substring(1),"","!"};
+        if( op.equals("!") )
+            return new String[]{second.replace("!",""),"","!"};
+        if( second.isEmpty() )
+            return new String[]{first,"",""};
+        if( first.isEmpty() )
+            return new String[]{second,"",""};
+        if( op.equals("°") ) // The function is part of the operator, the operand is the second one
+            return new String[]{second,"",op+first};
+        return new String[]{first,second,op};
+    }
+    private static int toOpcode( String[] sub ){
+        return switch( sub[2] ){
+            case "" -> COPY;
+            case "!" -> NOT;
+            case "+" -> ADD;
+            case "-" -> SUB;
+            case "*" -> MUL;
+            case "/" -> DIV;
+            case "%" -> MOD;
+            case "^" -> POW;
+            case "~" -> MINABS;
+            case "diff" -> DIFF;
+            case "scale" -> SCALE;
+            case "<" -> LT;
+            case "<=" -> LE;
+            case ">" -> GT;
+            case ">=" -> GE;
+            case "==" -> EQ;
+            case "!=" -> NE;
+            case "ln" -> LN;
+            case "°1" -> COSD;
+            case "°2" -> COSR;
+            case "°3" -> SIND;
+            case "°4" -> SINR;
+            case "°5" -> ABS;
+            default -> -1;
+        };
+    }
+    private static double apply( int opcode, double a, double b ){
+        return switch( opcode ){
+            case ADD -> a+b;
+            case SUB -> a-b;
+            case MUL -> a*b;
+            case DIV -> a/b;
+            case MOD -> a%b;
+            case POW -> b==0.5?Math.sqrt(a):Math.pow(a,b);
+            case MINABS -> Math.abs(Math.min(a,b));
+            case DIFF -> Math.abs(a-b);
+            case SCALE -> Tools.roundDouble(a,(int)b);
+            case LN -> Math.log(b);
+            case COSD -> Math.cos(Math.toRadians(a));
+            case COSR -> Math.cos(a);
+            case SIND -> Math.sin(Math.toRadians(a));
+            case SINR -> Math.sin(a);
+            case ABS -> Math.abs(a);
+            case LT -> a<b?1:0;
+            case LE -> a<=b?1:0;
+            case GT -> a>b?1:0;
+            case GE -> a>=b?1:0;
+            case EQ -> a==b?1:0; // So -0.0 equals 0.0
+            case NE -> a!=b?1:0;
+            case NOT -> a>=1?0:1;
+            case COPY -> a;
+            default -> Double.NaN;
+        };
+    }
+
+    /**
+     * Get the amount of inputs needed
+     * @return The highest used i index +1
+     */
+    public int requiredInputs(){
+        return requiredInputs;
+    }
+    /**
+     * Check if the result doesn't depend on the inputs
+     * @return True if it was folded to a constant
+     */
+    public boolean isConstant(){
+        return opcodes.length==0;
+    }
+    /**
+     * Solve the formula with a single input
+     * @param i0 The input
+     * @return The result
+     */
+    public double solve( double i0 ){
+        if( requiredInputs > 1 )
+            return Double.NaN;
+        var regs = registers(init.length+1);
+        regs[init.length] = i0;
+        return run(regs);
+    }
+    /**
+     * Solve the formula
+     * @param data The inputs, so i0 is data[0]
+     * @return The result or NaN if not enough inputs were given
+     */
+    public double solve( double[] data ){
+        if( data.length < requiredInputs )
+            return Double.NaN;
+        var regs = registers(init.length+requiredInputs); // Inputs above the required ones are never read
+        System.arraycopy(data,0,regs,init.length,requiredInputs);
+        return run(regs);
+    }
+    /**
+     * Get the register file of this thread filled with the initial content
+     * @param size The minimum size needed
+     * @return The registers
+     */
+    private double[] registers( int size ){
+        var regs = registers.get();
+        if( regs.length < size ){
+            regs = new double[Math.max(size,regs.length*2)];
+            registers.set(regs);
+        }
+        System.arraycopy(init,0,regs,0,init.length);
+        return regs;
+    }
+    private double run( double[] regs ){
+        for( int s=0;s<opcodes.length;s++ ){
+            double a = regs[left[s]];
+            double b = regs[right[s]];
+            regs[dest[s]] = switch( opcodes[s] ){ // Most used ones inline, rest in apply
+                case ADD -> a+b;
+                case SUB -> a-b;
+                case MUL -> a*b;
+                case DIV -> a/b;
+                case LT -> a<b?1:0;
+                case GT -> a>b?1:0;
+                default -> apply(opcodes[s],a,b);
+            };
+        }
+        return regs[result];
+    }
+    /**
+     * Solve the formula and check if the result is above 0, meant for comparisons
+     * @param data The inputs, so i0 is data[0]
+     * @return True if the result is above 0
+     */
+    public boolean test( double[] data ){
+        return solve(data) > 0;
+    }
+}
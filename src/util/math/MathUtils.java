@@ -7,10 +7,11 @@
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.DoublePredicate;
 import java.util.function.Function;
 import java.util.regex.MatchResult;
 import java.util.regex.Pattern;
@@ -22,6 +23,16 @@ public class MathUtils {
     static final String[] COMPARES={"<","<=","==","!=",">=",">"};
     static final String OPS_REGEX= "[+\\-/*<>^=%~!°]+=?";
     static final Pattern es = Pattern.compile("\\de[+-]?\\d");
+    private static final int[] CRC16_MODBUS = new int[256]; // Lookup table for the modbus crc (polynomial 0xA001)
+
+    static {
+        for (int a = 0; a < 256; a++) {
+            int crc = a;
+            for (int x = 0; x < 8; x++)
+                crc = (crc & 1) == 1 ? (crc >>> 1) ^ 0xA001 : crc >>> 1;
+            CRC16_MODBUS[a] = crc;
+        }
+    }
     /**
      * Splits a simple expression of the type i1+125 etc. into distinct parts i1,+,125
      * @param expression The expression to split
@@ -266,9 +277,9 @@ public static String[] splitCompare( String comparison ){
      * - 1 through 10 will be parsed to 1<=x<=10
      * - or a range with '-' or '->' so 1-10 or -5->15
      * @param op An operation in the understood format
-     * @return The combined functions that takes x and returns the result
+     * @return The compiled comparison that takes x and returns the result or null if parsing failed
      */
-    public static Function<Double,Boolean> parseSingleCompareFunction( String op ){
+    public static DoublePredicate parseSingleCompareFunction( String op ){
         var comparePattern = Pattern.compile("[><=!][=]?");
         String ori = op;
         op=op.replace("->","-");
@@ -319,43 +330,35 @@ public static Function<Double,Boolean> parseSingleCompareFunction( String op ){
                 Logger.error("Couldn't process: "+ori+" reached "+op);
                 return null;
             }
-        }else if( cc.size()==1){
+            cc = comparePattern.matcher(op).results().map(MatchResult::group).toList();
+        }
+        if( cc.isEmpty() || cc.size() > 2 ){
+            Logger.error("Couldn't process: "+ori+" reached "+op);
+            return null;
+        }
+        var subs = new ArrayList<String[]>(); // Compared with i0 being x
+        if( cc.size()==1){
             var c1 = op.split(cc.get(0));
-            double fi1 = NumberUtils.toDouble(c1[1]);
-            return getSingleCompareFunction(fi1,cc.get(0));
+            subs.add( new String[]{"i0", String.valueOf(NumberUtils.toDouble(c1[1])), cc.get(0)} );
+        }else {
+            if (op.startsWith(cc.get(0))) { // fe. >5;<10
+                var fi1 = NumberUtils.toDouble(op.substring(cc.get(0).length(), op.lastIndexOf(cc.get(1)) - 1));
+                subs.add(new String[]{"i0", String.valueOf(fi1), cc.get(0)});
+            } else { // fe. 5<$<10
+                var fi1 = NumberUtils.toDouble(op.substring(0, op.indexOf(cc.get(0))));
+                subs.add(new String[]{"i0", String.valueOf(fi1), invertCompare(cc.get(0))});
+            }
+            double fi2 = NumberUtils.toDouble(op.substring(op.lastIndexOf(cc.get(1)) + cc.get(1).length()));
+            subs.add(new String[]{"i0", String.valueOf(fi2), cc.get(1)});
+            // Both need to be true, except for not between which is either
+            subs.add(new String[]{"o0", "o1", ori.startsWith("not between")?"+":"*"});
         }
-        double fi1;
-        Function<Double,Boolean> fu1;
-        if( op.startsWith(cc.get(0))){
-            fi1 = NumberUtils.toDouble(op.substring( cc.get(0).length(),op.lastIndexOf(cc.get(1))-1));
-            fu1 = getSingleCompareFunction(fi1,cc.get(1));
-        }else{
-            fi1 = NumberUtils.toDouble(op.substring( 0,op.indexOf(cc.get(0))));
-            fu1 = getSingleCompareFunction(fi1,invertCompare(cc.get(1)));
+        var program = MathProgram.compile(subs);
+        if( program == null ){
+            Logger.error("Couldn't compile: "+ori+" reached "+op);
+            return null;
         }
-
-        double fi2 = NumberUtils.toDouble(op.substring( op.lastIndexOf(cc.get(1))+cc.get(1).length()));
-        var fu2 = getSingleCompareFunction(fi2,cc.get(1));
-
-        return x -> fu1.apply(x) && fu2.apply(x);
-    }
-
-    /**
-     * Convert the given fixed value and comparison to a function that requires another double and return if correct
-     * @param fixed The fixed part of the comparison
-     * @param comp The type of comparison (options: <,>,<=,>=,!=,==)
-     * @return The generated function
-     */
-    public static Function<Double,Boolean> getSingleCompareFunction( double fixed,String comp ){
-        return switch (comp) {
-            case "<" -> x -> x < fixed;
-            case "<=" -> x -> x <= fixed;
-            case ">" -> x -> x > fixed;
-            case ">=" -> x -> x >= fixed;
-            case "==" -> x -> x == fixed;
-            case "!=" -> x -> x != fixed;
-            default -> null;
-        };
+        return x -> program.solve(x) > 0;
     }
 
     /**
@@ -1238,14 +1241,29 @@ public static String getNMEAchecksum(String nmea) {
      * @return Result based on append
      */
     public static byte[] calcCRC16_modbus(byte[] data, boolean append) {
-        byte[] crc = calculateCRC16(data, data.length, 0xFFFF, 0xA001);
+        int crc = calcCRC16_modbus(data, 0, data.length);
         if (!append)
-            return crc;
+            return new byte[]{ (byte) crc, (byte) (crc >>> 8) };
 
-        return ByteBuffer.allocate(data.length+crc.length)
-                .put( data )
-                .put(crc,0,crc.length)
-                .array();
+        var result = Arrays.copyOf(data, data.length + 2);
+        result[data.length] = (byte) crc;
+        result[data.length + 1] = (byte) (crc >>> 8);
+        return result;
+    }
+    /**
+     * Calculate the CRC16 according to the modbus spec on part of an array, using a lookup table instead of going
+     * through it bit by bit
+     *
+     * @param data The array with the data
+     * @param offset Index of the first byte to use
+     * @param length The amount of bytes to use
+     * @return The crc, low byte is the one that is sent first
+     */
+    public static int calcCRC16_modbus(byte[] data, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int pos = offset; pos < offset + length; pos++)
+            crc = (crc >>> 8) ^ CRC16_MODBUS[(crc ^ data[pos]) & 0xFF];
+        return crc;
     }
 
     /**
@@ -5,20 +5,19 @@
 import util.data.RealtimeValues;
 import util.data.RealVal;
 import util.data.ValTools;
+import util.math.MathProgram;
 import util.math.MathUtils;
 import util.tools.Tools;
 
 import java.util.ArrayList;
 import java.util.Optional;
-import java.util.function.Function;
 import java.util.regex.MatchResult;
 import java.util.regex.Pattern;
 
 public class CheckBlock extends AbstractBlock{
 
     RealtimeValues rtvals;
-    ArrayList<Function<Double[],Double>> steps = new ArrayList<>();
-    int resultIndex;
+    MathProgram program;
     boolean negate = false;
 
     public CheckBlock(RealtimeValues rtvals,String set){
@@ -53,13 +52,10 @@ public boolean start(TaskBlock starter) {
             Logger.error("Checkblock failed because invalid: "+ori);
             return false;
         }
-        Double[] work= new Double[steps.size()+sharedMem.size()];
-        for (int a = 0; a < sharedMem.size();a++ ){
-            work[steps.size()+a]=sharedMem.get(a).asDoubleValue();
-        }
-        for( int a=0;a<steps.size();a++)
-            work[a]=steps.get(a).apply(work);
-        var pass = Double.compare(work[resultIndex],0.0)>0;
+        var work = new double[sharedMem.size()];
+        for (int a = 0; a < sharedMem.size();a++ )
+            work[a]=sharedMem.get(a).asDoubleValue();
+        var pass = program.test(work);
         pass = negate ? !pass : pass;
         if( pass ) {
             doNext();
@@ -105,21 +101,34 @@ public boolean build(){
         if( subFormulas.isEmpty() )
             return false;
 
-        resultIndex=subFormulas.size()-1;
-
-        // Convert the sub formulas to functions
-        subFormulas.forEach( sub -> {
+        // Convert the sub formulas to {first,second,operator} and compile those
+        var subs = new ArrayList<String[]>();
+        for( var sub : subFormulas ){
             sub=sub.startsWith("!")?sub.substring(1)+"==0":sub;
             var parts = MathUtils.extractParts(sub);
-            try {
-                steps.add(MathUtils.decodeDoublesOp(parts.get(0), parts.size() == 3 ? parts.get(2) : "", parts.get(1), subFormulas.size()));
-            }catch( IndexOutOfBoundsException e){
-                Logger.error("CheckBox error during steps adding: "+ e.getMessage());
+            if( parts.size() < 2 ){
+                Logger.error("CheckBlock error during steps adding, no operator in "+sub);
+                valid=false;
+                return false;
             }
-        });
-
+            var op = parts.get(1).equals("~")?"diff":parts.get(1); // For a check ~ is the absolute difference
+            subs.add( new String[]{parts.get(0), parts.size() == 3 ? parts.get(2) : "", op} );
+        }
+        program = MathProgram.compile(subs);
+        if( program == null ){
+            Logger.error("Failed to compile "+ori);
+            valid=false;
+            return false;
+        }
         return true;
     }
+    /**
+     * Get the compiled check, the inputs are the values in the shared memory
+     * @return The program or an empty optional if the build failed
+     */
+    public Optional<MathProgram> getProgram(){
+        return valid ? Optional.ofNullable(program) : Optional.empty();
+    }
     private String fixFlagAndIssueNegation(){
         // Find comparisons optionally surrounded with curly brackets
         // Legacy or altenative notation for a flag is flag:value without a comparison (e.g. ==1)
@@ -36,7 +36,7 @@ public boolean addNext(TaskBlock block) {
     }
     @Override
     public boolean addData(String data){
-        dQueue.add( Datagram.build(data.substring(data.indexOf(":")+1))
+        dQueue.offer( Datagram.build(data.substring(data.indexOf(":")+1))
                                 .label(data.substring(0,data.indexOf(":")))
                     );
         return true;
@@ -44,7 +44,7 @@ public boolean addData(String data){
     @Override
     public boolean start(TaskBlock starter) {
         for( var p : pairs )
-            dQueue.add( Datagram.build(p[1]).label(p[0]) );
+            dQueue.offer( Datagram.build(p[1]).label(p[0]) );
         doNext();
         return true;
     }
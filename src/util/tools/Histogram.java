@@ -0,0 +1,93 @@
+package util.tools;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram with log-linear buckets (like HdrHistogram), each power of two is split in SUB linear buckets.
+ * So a percentile is known within 1/SUB (6.25%) without having to store every sample. Values below SUB are exact.
+ * The unit of the values is up to the user (fe. ns or µs).
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1<<SUB_BITS;   // Linear buckets per power of two
+
+    private final AtomicLongArray counts;
+
+    /**
+     * Create a histogram for values up to 2^bits, higher values are counted in the last bucket
+     * @param bits The amount of bits of the highest value to distinguish
+     */
+    public Histogram( int bits ){
+        counts = new AtomicLongArray( (Math.max(bits,SUB_BITS)-SUB_BITS+1)*SUB );
+    }
+
+    /**
+     * Add a sample, values below 1 are counted as 1
+     * @param value The value to add
+     */
+    public void record( long value ){
+        counts.incrementAndGet( Math.min(counts.length()-1, index(Math.max(1,value))) );
+    }
+    /**
+     * Get the bucket of a value, the first SUB buckets hold a single value. After that each power of two gets SUB
+     * buckets, the top SUB_BITS bits of the value select the one within it.
+     */
+    private static int index( long value ){
+        if( value < SUB )
+            return (int)value;
+        int shift = 63-Long.numberOfLeadingZeros(value)-SUB_BITS;
+        return (shift+1)*SUB + (int)((value>>>shift)-SUB);
+    }
+    /**
+     * Get the first value that no longer fits in the bucket
+     */
+    private static long upperBound( int index ){
+        if( index < SUB )
+            return index+1L;
+        int shift = index/SUB-1;
+        return (SUB+index%SUB+1L)<<shift;
+    }
+    /**
+     * Get the upper bound of the bucket that holds the given percentile
+     * @param fraction The percentile as fraction fe. 0.99
+     * @return The value or 0 if no samples yet
+     */
+    public long percentile( double fraction ){
+        int buckets = counts.length();
+        long total = 0;
+        var snap = new long[buckets];
+        for( int a=0;a<buckets;a++ ){
+            snap[a]=counts.get(a);
+            total += snap[a];
+        }
+        if( total == 0 )
+            return 0;
+        long needed = (long)Math.ceil(total*fraction);
+        long sum=0;
+        for( int a=0;a<buckets;a++ ){
+            sum += snap[a];
+            if( sum >= needed )
+                return upperBound(a);
+        }
+        return upperBound(buckets-1);
+    }
+    public void reset(){
+        for( int a=0;a<counts.length();a++)
+            counts.set(a,0);
+    }
+    /**
+     * Format a time in ns in a readable way, the unit depends on the size
+     * @param nanos The time in ns
+     * @return The time fe. 15µs
+     */
+    public static String formatNanos( long nanos ){
+        if( nanos < 10_000 )
+            return nanos+"ns";
+        if( nanos < 10_000_000 )
+            return nanos/1000+"µs";
+        if( nanos < 10_000_000_000L )
+            return nanos/1_000_000+"ms";
+        return nanos/1_000_000_000+"s";
+    }
+}
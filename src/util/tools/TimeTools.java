@@ -39,21 +39,34 @@ private TimeTools(){
      * @return The input timestamp with the desired output format
      */
     public static String reformatDate(String date, String inputFormat, String outputFormat){
+        if( inputFormat.startsWith("epochsec"))
+            date=date+"000";
+        if( inputFormat.startsWith("epoch") ){
+            var out = DateTimeFormatter.ofPattern(outputFormat).withLocale(Locale.ENGLISH).withZone(ZoneId.of("UTC"));
+            return reformatDate(date,null,out);
+        }
+        return reformatDate(date,DateTimeFormatter.ofPattern(inputFormat).withLocale(Locale.ENGLISH),DateTimeFormatter.ofPattern(outputFormat));
+    }
+    /**
+     * Same as reformatDate but with the formatters made in advance, meant for use on every line received
+     * @param date The input timestamp
+     * @param inputFormat The format of the input timestamp or null if it's epoch millis
+     * @param outputFormat The desired format for the timestamp
+     * @return The input timestamp with the desired output format or an empty string if it failed
+     */
+    public static String reformatDate(String date, DateTimeFormatter inputFormat, DateTimeFormatter outputFormat){
         try{
-            if( inputFormat.startsWith("epochsec"))
-                date=date+"000";
-            if( inputFormat.startsWith("epochmillis")){
-                Instant instant = Instant.ofEpochMilli(Long.parseLong(date));
-                return DateTimeFormatter.ofPattern(outputFormat).withLocale(Locale.ENGLISH).withZone(ZoneId.of("UTC")).format(instant);
-            }else {
-                LocalDateTime dt = LocalDateTime.parse(date, DateTimeFormatter.ofPattern(inputFormat).withLocale(Locale.ENGLISH));
-                return dt.format(DateTimeFormatter.ofPattern(outputFormat));
-            }
+            if( inputFormat == null )
+                return outputFormat.format(Instant.ofEpochMilli(Long.parseLong(date)));
+            LocalDateTime dt = LocalDateTime.parse(date, inputFormat);
+            return dt.format(outputFormat);
+        }catch(NumberFormatException e){
+            Logger.error("Can't reformat "+date+", not epoch millis");
         }catch(DateTimeParseException e){
             if( e.getMessage().contains("Unable to obtain LocalDateTime from TemporalAccessor")){
                 try{
-                    LocalDate dt = LocalDate.parse(date, DateTimeFormatter.ofPattern(inputFormat).withLocale(Locale.ENGLISH));
-                    return dt.format( DateTimeFormatter.ofPattern(outputFormat) );
+                    LocalDate dt = LocalDate.parse(date, inputFormat);
+                    return dt.format( outputFormat );
                 }catch(DateTimeParseException f) {
                     Logger.error(f.getMessage());
                 }
@@ -64,13 +77,23 @@ public static String reformatDate(String date, String inputFormat, String output
         return "";
     }
     public static String reformatTime(String date, String inputFormat, String outputFormat){
+        return reformatTime(date,DateTimeFormatter.ofPattern(inputFormat),DateTimeFormatter.ofPattern(outputFormat));
+    }
+    /**
+     * Same as reformatTime but with the formatters made in advance, meant for use on every line received
+     * @param date The input time
+     * @param inputFormat The format of the input time
+     * @param outputFormat The desired format for the time
+     * @return The time with the desired output format or an empty string if it failed
+     */
+    public static String reformatTime(String date, DateTimeFormatter inputFormat, DateTimeFormatter outputFormat){
         if( date.isEmpty() ){
             Logger.error("Can't reformat an empty date from "+inputFormat+" to "+outputFormat);
             return date;
         }
         try {
-            LocalTime dt = LocalTime.parse(date, DateTimeFormatter.ofPattern(inputFormat));
-            return dt.format(DateTimeFormatter.ofPattern(outputFormat));
+            LocalTime dt = LocalTime.parse(date, inputFormat);
+            return dt.format(outputFormat);
         }catch(DateTimeParseException e){
             Logger.error(e);
         }
@@ -2,23 +2,31 @@
 
 import io.Writable;
 
+import java.util.concurrent.ArrayBlockingQueue;
+
 /**
- * Simple storage class that holds the raw data before processing
+ * Simple storage class that holds the raw data before processing.
+ * Only the representation (String or bytes) that was given is stored, the other one is made when first requested.
+ * Instances made with build can be given back with recycle once processed, so they can be reused.
  */
 public class Datagram {
-	
+
+    private static final ArrayBlockingQueue<Datagram> pool = new ArrayBlockingQueue<>(512); // Recycled datagrams
+
     String data;             // The received data
     byte[] raw;              // Raw received data
-    int priority = 1;        // The priority of the data source
-    String label="";         // The label of the data source
+    int priority = 1;        // The priority of the data source, 1 is normal data and 0 is reserved for control traffic
+    String label="";         // The label of the data source, always lowercase
+    String labelType="";     // Part of the label in front of the first :, or the whole label if none
+    String labelSub="";      // Part of the label after the first :, empty if none
     String originID ="";     // ID of the origin of the message
     Writable writable;      //
     Object payload;         //
     boolean silent = true;
+    private boolean pooled = false; // True if currently in the pool
 
     public Datagram(String data){
         this.data = data;
-        raw = data.getBytes();
     }
     public Datagram(){
     }
@@ -29,42 +37,105 @@ public Writable getWritable(){
     public String getOriginID(){ return originID;}
 
     public String getData(){
+        if( data == null && raw != null ) // Only decode when actually needed
+            data = new String(raw);
         return data ==null?"": data;
     }
     public void setData(String msg ){
         this.data =msg;
-        raw = msg.getBytes();
+        raw = null;
     }
     public byte[] getRaw(){
+        if( raw == null && data != null ) // Only encode when actually needed
+            raw = data.getBytes();
         return raw;
     }
-    public String getLabel(){ return label.toLowerCase(); }
+    public String getLabel(){ return label; }
+
+    /**
+     * Get the part of the label in front of the first ':' fe. log for log:info
+     * @return The type or the whole label if it doesn't contain a ':'
+     */
+    public String getLabelType(){ return labelType; }
+
+    /**
+     * Get the part of the label after the first ':' fe. info for log:info
+     * @return The sub or an empty string if the label doesn't contain a ':'
+     */
+    public String getLabelSub(){ return labelSub; }
     public boolean isSilent(){ return silent;}
 
+    /**
+     * Give this datagram back so it can be reused, it shouldn't be used afterwards
+     */
+    public void recycle(){
+        synchronized (this) {
+            if (pooled)
+                return;
+            pooled = true;
+        }
+        data = null;
+        raw = null;
+        priority = 1;
+        label(""); // Resets type and sub too
+        originID = "";
+        writable = null;
+        payload = null;
+        silent = true;
+        if( !pool.offer(this) ) // Pool is full, let gc have it
+            pooled=false;
+    }
+    private static Datagram obtain(){
+        var d = pool.poll();
+        if( d == null )
+            return new Datagram();
+        synchronized (d) {
+            d.pooled = false;
+        }
+        return d;
+    }
 
     /* ***************************** Fluid API ******************************************* */
     public static Datagram build(String message){
-        return new Datagram(message);
+        var d = obtain();
+        d.data = message;
+        return d;
     }
     public static Datagram build(byte[] message){
-        var d = new Datagram( new String(message));
-        d.raw=message;
+        var d = obtain();
+        d.raw = message;
         return d;
     }
     public static Datagram build(){
-        return new Datagram();
+        return obtain();
     }
     public static Datagram system(String message){
-        return Datagram.build(message).label("system");
+        return Datagram.build(message).label("system").control();
     }
     public Datagram label(String label){
-        this.label=label;
+        this.label = label==null?"":label.toLowerCase();
+        int index = this.label.indexOf(':');
+        if( index == -1 ){
+            labelType = this.label;
+            labelSub = "";
+        }else{
+            labelType = this.label.substring(0,index);
+            labelSub = this.label.substring(index+1);
+        }
         return this;
     }
     public Datagram priority(int priority){
         this.priority=priority;
         return this;
     }
+    /**
+     * Mark this datagram as control traffic (fe. a command given by a user), so it's processed before the data and never
+     * dropped
+     * @return The datagram with priority 0
+     */
+    public Datagram control(){
+        return priority(0);
+    }
     /**
      * Set the writable in this datagram, also overwrites the origin with id from writable
      * @param writable The writable to set
@@ -0,0 +1,394 @@
+package worker;
+
+import org.tinylog.Logger;
+import org.w3c.dom.Element;
+import util.xml.XMLdigger;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue for the datagrams that uses the priority of the datagram to determine the order of processing.
+ * Lower priority value goes first, so priority 0 is used for control traffic (system, telnet, matrix and email commands) and
+ * the other datagrams (including streams) default to 1. Only the data lanes (priority 1 and up) are bounded, when those are full the overload policy
+ * linked to the label of the datagram determines what happens.
+ */
+public class DatagramQueue extends AbstractQueue<Datagram> implements BlockingQueue<Datagram> {
+
+    public enum POLICY{BLOCK,DROP_OLDEST,DROP_NEWEST,SAMPLE}
+
+    private static final int LANES = 3; // control, normal and bulk
+
+    private final ArrayDeque<Datagram>[] lanes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private int capacity = 50000;        // Max amount of datagrams in the data lanes
+    private int dataCount = 0;           // Amount of datagrams currently in the data lanes
+    private int sampleFill = 75;         // Percentage of the capacity from which sampling starts
+    private POLICY defPolicy = POLICY.DROP_OLDEST;
+    private int defSample = 10;
+
+    private final HashMap<String,POLICY> policies = new HashMap<>();  // Overload policy per label
+    private final HashMap<String,Integer> samples = new HashMap<>();  // Sample rate per label
+    private final HashMap<String,Integer> sampleCounters = new HashMap<>();
+    private final ConcurrentHashMap<String,LongAdder> drops = new ConcurrentHashMap<>(); // Drop counters per label
+
+    @SuppressWarnings("unchecked")
+    public DatagramQueue(){
+        lanes = new ArrayDeque[LANES];
+        for( int a=0;a<LANES;a++)
+            lanes[a]=new ArrayDeque<>();
+    }
+
+    /**
+     * Read the settings from the queue node
+     * @param queue The element containing the settings
+     */
+    public void readFromXML( Element queue ){
+        var dig = XMLdigger.goIn(queue);
+
+        lock.lock();
+        try {
+            capacity = Math.max(1, dig.attr("capacity", capacity));
+            sampleFill = Math.min(100, Math.max(0, dig.attr("samplefill", sampleFill)));
+            defPolicy = parsePolicy(dig.attr("policy", ""), POLICY.DROP_OLDEST);
+            defSample = Math.max(1, dig.attr("sample", defSample));
+
+            policies.clear();
+            samples.clear();
+            sampleCounters.clear();
+            for (var label : dig.digOut("label")) {
+                var id = label.attr("id", "").toLowerCase();
+                if (id.isEmpty()) {
+                    Logger.error("Queue -> Label node without id, skipping it");
+                    continue;
+                }
+                policies.put(id, parsePolicy(label.attr("policy", ""), defPolicy));
+                samples.put(id, Math.max(1, label.attr("sample", defSample)));
+            }
+        }finally {
+            lock.unlock();
+        }
+        Logger.info("Queue -> Capacity set to "+capacity+" with default policy "+defPolicy.toString().toLowerCase()
+                        +" and "+policies.size()+" label specific policies.");
+    }
+    private static POLICY parsePolicy( String policy, POLICY def ){
+        if( policy.isEmpty() )
+            return def;
+        try {
+            return POLICY.valueOf(policy.toUpperCase().replace("-", "_"));
+        }catch( IllegalArgumentException e ){
+            Logger.error("Queue -> Unknown policy '"+policy+"', using "+def.toString().toLowerCase());
+            return def;
+        }
+    }
+    private static int laneOf( Datagram d ){
+        return Math.min( LANES-1, Math.max(0,d.priority) );
+    }
+    private static String keyOf( Datagram d ){
+        return d.getLabel();
+    }
+    private POLICY policyOf( String label ){
+        var policy = policies.get(label);
+        if( policy == null && label.contains(":")) // Fe. log:info uses the log policy
+            policy = policies.get(label.substring(0,label.indexOf(":")));
+        return policy==null?defPolicy:policy;
+    }
+    private int sampleOf( String label ){
+        var sample = samples.get(label);
+        if( sample == null && label.contains(":"))
+            sample = samples.get(label.substring(0,label.indexOf(":")));
+        return sample==null?defSample:sample;
+    }
+    private void drop( Datagram d ){
+        drops.computeIfAbsent( keyOf(d), k -> new LongAdder()).increment();
+        d.recycle(); // Won't be used anymore
+    }
+
+    /* ************************************** Inserting ******************************************************** */
+    /**
+     * Add a datagram to the queue, if the data lanes are full the overload policy for the label is applied.
+     * This never waits, use offer if the datagram may be dropped.
+     * @param d The datagram to add
+     * @return True because it was added
+     * @throws IllegalStateException If the datagram was dropped because the data lanes are full
+     */
+    @Override
+    public boolean add( Datagram d ){
+        var label = keyOf(d);
+        if( offer(d) )
+            return true;
+        throw new IllegalStateException("Queue full, dropped datagram for '"+label+"'");
+    }
+    /**
+     * Add a datagram to the queue, for the block policy this waits till there's room.
+     * Don't use this from an event loop thread.
+     * @param d The datagram to add
+     */
+    @Override
+    public void put( Datagram d ) throws InterruptedException {
+        insert(d,true,-1);
+    }
+    /**
+     * Add a datagram to the queue, if the data lanes are full the overload policy for the label is applied.
+     * This never waits, the block policy drops the datagram instead.
+     * @param d The datagram to add
+     * @return True if the datagram was added, false if it was dropped
+     */
+    @Override
+    public boolean offer( Datagram d ) {
+        try {
+            return insert(d, false, 0);
+        } catch (InterruptedException e) { // Won't happen without waiting
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    @Override
+    public boolean offer( Datagram d, long timeout, TimeUnit unit) throws InterruptedException {
+        return insert(d,true,unit.toNanos(timeout));
+    }
+    private boolean insert( Datagram d, boolean mayWait, long nanos ) throws InterruptedException {
+        Objects.requireNonNull(d);
+        int lane = laneOf(d);
+        lock.lock();
+        try{
+            if( lane == 0 ){ // Control traffic is never dropped nor blocked
+                lanes[0].add(d);
+                notEmpty.signal();
+                return true;
+            }
+            var label = keyOf(d);
+            var policy = policyOf(label);
+
+            if( policy==POLICY.SAMPLE && dataCount >= (long)capacity*sampleFill/100 ){
+                int cnt = sampleCounters.merge(label,1,Integer::sum);
+                if( cnt < sampleOf(label) ){ // Not the sample, so drop it
+                    drop(d);
+                    return false;
+                }
+                sampleCounters.put(label,0);
+            }
+            if( dataCount >= capacity ){
+                switch( policy ){
+                    case BLOCK -> {
+                        if( !mayWait ){
+                            drop(d);
+                            return false;
+                        }
+                        while( dataCount >= capacity ){
+                            if( nanos < 0 ){
+                                notFull.await();
+                            }else{
+                                if( nanos <= 0 ){
+                                    drop(d);
+                                    return false;
+                                }
+                                nanos = notFull.awaitNanos(nanos);
+                            }
+                        }
+                    }
+                    case DROP_OLDEST -> {
+                        if( !dropOldest(lane) ){ // Nothing of same or lower priority to drop
+                            drop(d);
+                            return false;
+                        }
+                    }
+                    case DROP_NEWEST, SAMPLE -> {
+                        drop(d);
+                        return false;
+                    }
+                }
+            }
+            lanes[lane].add(d);
+            dataCount++;
+            notEmpty.signal();
+            return true;
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop the oldest datagram from the lowest priority data lane that isn't empty, but not of a higher priority than
+     * the given lane.
+     * @param lane The lane of the datagram that needs room
+     * @return True if something was dropped
+     */
+    private boolean dropOldest( int lane ){
+        for( int a=LANES-1; a>=lane; a-- ){
+            var old = lanes[a].poll();
+            if( old != null ){
+                dataCount--;
+                drop(old);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* ************************************** Retrieving ******************************************************** */
+    private Datagram extract(){
+        for( int a=0;a<LANES;a++ ){
+            var d = lanes[a].poll();
+            if( d != null ){
+                if( a != 0 ) {
+                    dataCount--;
+                    notFull.signal();
+                }
+                return d;
+            }
+        }
+        return null;
+    }
+    @Override
+    public Datagram take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try{
+            Datagram d;
+            while( (d=extract()) == null )
+                notEmpty.await();
+            return d;
+        }finally {
+            lock.unlock();
+        }
+    }
+    @Override
+    public Datagram poll( long timeout, TimeUnit unit ) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try{
+            Datagram d;
+            while( (d=extract()) == null ){
+                if( nanos <= 0 )
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return d;
+        }finally {
+            lock.unlock();
+        }
+    }
+    @Override
+    public Datagram poll() {
+        lock.lock();
+        try{
+            return extract();
+        }finally {
+            lock.unlock();
+        }
+    }
+    @Override
+    public Datagram peek() {
+        lock.lock();
+        try{
+            for( var lane : lanes ){
+                if( !lane.isEmpty() )
+                    return lane.peek();
+            }
+            return null;
+        }finally {
+            lock.unlock();
+        }
+    }
+    @Override
+    public int drainTo(Collection<? super Datagram> c) {
+        return drainTo(c,Integer.MAX_VALUE);
+    }
+    @Override
+    public int drainTo(Collection<? super Datagram> c, int maxElements) {
+        if( c == this )
+            throw new IllegalArgumentException("Can't drain to itself");
+        lock.lock();
+        try{
+            int cnt=0;
+            Datagram d;
+            while( cnt < maxElements && (d=extract()) != null ){
+                c.add(d);
+                cnt++;
+            }
+            return cnt;
+        }finally {
+            lock.unlock();
+        }
+    }
+    /* ************************************** Info ******************************************************** */
+    @Override
+    public int size() {
+        lock.lock();
+        try{
+            return dataCount + lanes[0].size();
+        }finally {
+            lock.unlock();
+        }
+    }
+    /**
+     * Get the room left in the data lanes, control traffic is never refused so it doesn't count
+     * @return The amount of datagrams the data lanes can still take before the policies apply
+     */
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try{
+            return Math.max(0,capacity-dataCount);
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get a snapshot of the content, the iterator doesn't alter the queue
+     * @return An iterator over a copy of the content in order of processing
+     */
+    @Override
+    public Iterator<Datagram> iterator() {
+        lock.lock();
+        try{
+            var all = new ArrayList<Datagram>(size());
+            for( var lane : lanes )
+                all.addAll(lane);
+            return Collections.unmodifiableList(all).iterator();
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the total amount of dropped datagrams
+     * @return The sum of all the drop counters
+     */
+    public long getDropCount(){
+        return drops.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+    /**
+     * Get a readable overview of the fill and drops of this queue
+     * @param eol The eol to use
+     * @return The readable overview
+     */
+    public String getStatus( String eol ){
+        var join = new StringJoiner(eol);
+        lock.lock();
+        try {
+            join.add("Queue lanes: control " + lanes[0].size() + ", normal " + lanes[1].size() + ", bulk " + lanes[2].size()
+                    + " (data " + dataCount + "/" + capacity + ")");
+        }finally {
+            lock.unlock();
+        }
+        if( drops.isEmpty() ){
+            join.add("Dropped: none");
+        }else{
+            var dr = new StringJoiner(", ","Dropped: "+getDropCount()+" -> ","");
+            drops.entrySet().stream().sorted(Map.Entry.comparingByKey())
+                    .forEach( e -> dr.add( (e.getKey().isEmpty()?"nolabel":e.getKey())+"="+e.getValue().sum()));
+            join.add(dr.toString());
+        }
+        return join.toString();
+    }
+}
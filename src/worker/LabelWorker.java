@@ -3,6 +3,7 @@
 import das.CommandPool;
 import io.telnet.TelnetCodes;
 import org.tinylog.Logger;
+import java.util.StringJoiner;
 import java.util.concurrent.*;
 
 /**
@@ -14,22 +15,50 @@ public class LabelWorker implements Runnable {
 	private boolean goOn=true;
 	protected CommandPool reqData;
 
-	ThreadPoolExecutor executor = new ThreadPoolExecutor(1,
-			Math.min(3, Runtime.getRuntime().availableProcessors()), // max allowed threads
-			30L, TimeUnit.SECONDS,
-			new LinkedBlockingQueue<>());
+	private final ThreadPoolExecutor[] lanes; // Single thread lanes, datagrams from the same origin share a lane
+	private final int depth;                  // Max amount of datagrams waiting in a lane
 
 	String lastOrigin="";
 	/* ***************************** C O N S T R U C T O R **************************************/
 
 	/**
-	 * Default constructor that gets a queue to use
+	 * Default constructor that gets a queue to use, lane count is the amount of cores and a lane holds 1000 datagrams
 	 *
 	 * @param dQueue The queue to use
 	 */
 	public LabelWorker(BlockingQueue<Datagram> dQueue) {
+		this(dQueue, Runtime.getRuntime().availableProcessors(), 1000);
+	}
+
+	/**
+	 * Constructor that also sets the amount of lanes and their depth. Datagrams with the same origin always end up in
+	 * the same lane, so they are processed in the order they were received. Different origins are processed in parallel.
+	 *
+	 * @param dQueue The queue to use
+	 * @param laneCount The amount of lanes (threads) to use
+	 * @param depth The max amount of datagrams waiting in a single lane, if full the worker waits till there's room
+	 */
+	public LabelWorker(BlockingQueue<Datagram> dQueue, int laneCount, int depth) {
 		this.dQueue = dQueue;
-		Logger.info("Using " + Math.min(3, Runtime.getRuntime().availableProcessors()) + " threads");
+		this.depth = Math.max(1,depth);
+
+		lanes = new ThreadPoolExecutor[Math.max(1,laneCount)];
+		for( int a=0;a<lanes.length;a++ ){
+			var name = "LabelWorker-lane"+a;
+			lanes[a] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<>(this.depth),
+					r -> new Thread(r,name),
+					(r, exec) -> { // Lane is full, so wait till there's room instead of rejecting
+						try {
+							if( !exec.isShutdown() )
+								exec.getQueue().put(r);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new RejectedExecutionException("Interrupted while waiting for room in "+name);
+						}
+					});
+		}
+		Logger.info("Using " + lanes.length + " lanes with a depth of "+this.depth);
 	}
 
 	/**
@@ -42,8 +71,37 @@ public void setCommandReq(CommandPool commandPool) {
 	}
 
 	/* ******************************** Q U E U E S **********************************************/
+	/**
+	 * Get the amount of datagrams waiting to be processed in all the lanes together
+	 * @return The total waiting
+	 */
 	public int getWaitingQueueSize(){
-		return executor.getQueue().size();
+		int total=0;
+		for( var lane : lanes )
+			total += lane.getQueue().size();
+		return total;
+	}
+	/**
+	 * Get the amount of datagrams waiting to be processed per lane
+	 * @return Total waiting followed by the amount per lane fe. 5 [3,0,2,0]
+	 */
+	public String getWaitingPerLane(){
+		var join = new StringJoiner(",","[","]");
+		int total=0;
+		for( var lane : lanes ){
+			int size = lane.getQueue().size();
+			total += size;
+			join.add(String.valueOf(size));
+		}
+		return total+" "+join;
+	}
+	/**
+	 * Get the lane that processes the datagrams of the given origin
+	 * @param origin The id of the origin
+	 * @return The executor of the lane
+	 */
+	private ThreadPoolExecutor laneFor( String origin ){
+		return lanes[ Math.floorMod( origin==null?0:origin.hashCode(), lanes.length) ];
 	}
 	/**
 	 * Get the queue for adding work for this worker
@@ -64,6 +122,8 @@ public void setQueue(BlockingQueue<Datagram> d) {
 	}
 	public void stop(){
 		goOn=false;
+		for( var lane : lanes )
+			lane.shutdown();
 	}
 	/* ************************************** RUNNABLES ******************************************************/
 	@Override
@@ -84,36 +144,50 @@ public void run() {
 					continue;
 				}
 
-				if( d.label.contains(":") ){
-					switch (d.label.split(":")[0]) {
+				if( !d.getLabelType().equals(label) ){ // Label has a ':', it was split when set so no need to split here
+					switch (d.getLabelType()) {
 						case "log" -> {
-							switch (d.label.split(":")[1]) {
+							switch (d.getLabelSub()) {
 								case "info" -> Logger.info(d.getData());
 								case "warn" -> Logger.warn(d.getData());
 								case "error" -> Logger.error(d.getData());
 							}
+							d.recycle();
 						}
-						case "cmd" -> executor.execute(() -> {
+						case "cmd" -> laneFor(d.getOriginID()).execute(() -> {
 								String response = reqData.executeCommand(d, false);
 								if( d.getOriginID().startsWith("telnet")&&d.getWritable()!=null){
 									d.getWritable().writeLine(response);
-									if( d.getLabel().contains(":")){
+									if( d.getLabelSub().isEmpty() ){
+										d.getWritable().writeString( ">");
+									}else{
 										d.getWritable().writeString(
 												TelnetCodes.TEXT_YELLOW + // print the prefix in yellow
-													d.getLabel().substring(d.getLabel().indexOf(":")+1)+ ">"
+													d.getLabelSub()+ ">"
 													+ TelnetCodes.TEXT_DEFAULT ); // return to default color
-									}else{
-										d.getWritable().writeString( ">");
 									}
 								}
+								d.recycle();
 							});
-						default -> Logger.error("Unknown label: " + label);
+						default -> {
+							Logger.error("Unknown label: " + label);
+							d.recycle();
+						}
 					}
 				}else {
 					switch (label) {
-						case "system", "cmd", "matrix" -> executor.execute(() -> reqData.executeCommand(d, false));
-						case "email" -> executor.execute(() -> reqData.emailResponse(d));
-						default -> Logger.error("Unknown label: " + label);
+						case "system", "cmd", "matrix" -> laneFor(d.getOriginID()).execute(() -> {
+								reqData.executeCommand(d, false);
+								d.recycle();
+							});
+						case "email" -> laneFor(d.getOriginID()).execute(() -> {
+								reqData.emailResponse(d);
+								d.recycle();
+							});
+						default -> {
+							Logger.error("Unknown label: " + label);
+							d.recycle();
+						}
 					}
 				}
 			} catch( RejectedExecutionException e){